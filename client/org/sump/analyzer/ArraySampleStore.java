@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Sample store keeping each word of all samples in a single array.
+ * This is used for data captured from devices and all data small enough to fit in arrays.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class ArraySampleStore extends Object implements SampleStore {
+
+	/**
+	 * Creates a store using the given arrays. The arrays are not copied.
+	 * @param words one array per word, all of the same length
+	 */
+	public ArraySampleStore(int[][] words) {
+		this.words = words;
+	}
+
+	/**
+	 * Returns the arrays holding the samples.
+	 * @return one array per word
+	 */
+	public int[][] getWords() {
+		return (words);
+	}
+
+	public long getSize() {
+		return (words[0].length);
+	}
+
+	public int getWordCount() {
+		return (words.length);
+	}
+
+	public int getValue(long index) {
+		return (words[0][(int)index]);
+	}
+
+	public int getValue(long index, int word) {
+		return (words[word][(int)index]);
+	}
+
+	public void getValues(long from, int count, int word, int[] buffer, int offset) {
+		System.arraycopy(words[word], (int)from, buffer, offset, count);
+	}
+
+	private int[][] words;
+}
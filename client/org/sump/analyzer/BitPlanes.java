@@ -0,0 +1,272 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Channel-major view of a capture.
+ * <p>
+ * Each channel is stored as a bit set in its own <code>long</code> array.
+ * Bit <code>i % 64</code> of element <code>i / 64</code> holds the value of sample <code>i</code>.
+ * Channel numbers count across words, so channel 32 is bit 0 of the second word.
+ * <p>
+ * Per channel operations work on 64 samples at once:
+ * edges are found by comparing each bit with its successor (<code>x ^ (x >>> 1)</code>)
+ * and locating the set bits using <code>Long.numberOfTrailingZeros()</code>,
+ * high times are measured using <code>Long.bitCount()</code>.
+ * The planes take as much memory as the samples themselves.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class BitPlanes extends Object {
+
+	/**
+	 * Builds the bit planes for the given data.
+	 * Data must not change afterwards.
+	 * @param data data to transpose
+	 */
+	public BitPlanes(CapturedData data) {
+		SampleStore samples = data.samples;
+		int wordCount = samples.getWordCount();
+		size = (int)samples.getSize();
+		int length = (size + 63) >>> 6;
+
+		planes = new long[32 * wordCount][length];
+
+		int[] block = new int[BLOCK_SIZE];
+		long[] bits = new long[32];
+		for (int w = 0; w < wordCount; w++) {
+			for (int from = 0; from < size; from += BLOCK_SIZE) {
+				int count = Math.min(BLOCK_SIZE, size - from);
+				samples.getValues(from, count, w, block, 0);
+
+				// transpose 64 samples at a time, only visiting the bits that are set
+				for (int i = 0; i < count; i += 64) {
+					int n = Math.min(64, count - i);
+					int seen = 0;
+					for (int j = 0; j < n; j++) {
+						int value = block[i + j];
+						seen |= value;
+						while (value != 0) {
+							bits[Integer.numberOfTrailingZeros(value)] |= 1L << j;
+							value &= value - 1;
+						}
+					}
+					int element = (from + i) >>> 6;
+					while (seen != 0) {
+						int bit = Integer.numberOfTrailingZeros(seen);
+						planes[32 * w + bit][element] = bits[bit];
+						bits[bit] = 0;
+						seen &= seen - 1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of channels.
+	 * @return number of channels (32 per word)
+	 */
+	public int getChannelCount() {
+		return (planes.length);
+	}
+
+	/**
+	 * Returns the number of samples.
+	 * @return number of samples
+	 */
+	public int getSize() {
+		return (size);
+	}
+
+	/**
+	 * Returns the bit set of the given channel. The returned array must not be modified.
+	 * @param channel channel number
+	 * @return bit set holding the value of sample <code>i</code> in bit <code>i % 64</code> of element <code>i / 64</code>
+	 */
+	public long[] getPlane(int channel) {
+		return (planes[channel]);
+	}
+
+	/**
+	 * Returns the value of the given channel at the given sample.
+	 * @param channel channel number
+	 * @param index sample index
+	 * @return 0 or 1
+	 */
+	public int getValue(int channel, int index) {
+		return ((int)(planes[channel][index >>> 6] >>> index) & 1);
+	}
+
+	/**
+	 * Counts the samples within the given range at which the given channel is high.
+	 * @param channel channel number
+	 * @param from index of first sample of range
+	 * @param to index of first sample after range
+	 * @return number of samples with channel set
+	 */
+	public int getHighCount(int channel, int from, int to) {
+		if (from >= to)
+			return (0);
+		long[] plane = planes[channel];
+		int first = from >>> 6;
+		int last = (to - 1) >>> 6;
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> (63 - ((to - 1) & 63));
+
+		if (first == last)
+			return (Long.bitCount(plane[first] & firstMask & lastMask));
+
+		int count = Long.bitCount(plane[first] & firstMask);
+		for (int i = first + 1; i < last; i++)
+			count += Long.bitCount(plane[i]);
+		count += Long.bitCount(plane[last] & lastMask);
+		return (count);
+	}
+
+	/**
+	 * Returns the first edge after the given sample.
+	 * @param channel channel number
+	 * @param index sample index
+	 * @return index of sample differing from its predecessor, or -1 if there is none
+	 */
+	public int nextEdge(int channel, int index) {
+		long[] plane = planes[channel];
+		if (index < 0)
+			index = 0;
+		if (index >= size)
+			return (-1);
+
+		// bit k of a difference word is set if sample k + 1 differs from sample k
+		int element = index >>> 6;
+		long diff = difference(plane, element) & (-1L << index);
+		while (diff == 0) {
+			if (++element >= plane.length)
+				return (-1);
+			diff = difference(plane, element);
+		}
+		int edge = (element << 6) + Long.numberOfTrailingZeros(diff) + 1;
+		return (edge < size ? edge : -1);
+	}
+
+	/**
+	 * Returns the first sample at or after the given one at which the given channel has the given value.
+	 * @param channel channel number
+	 * @param index sample index to start search at
+	 * @param value value to search for, 0 or 1
+	 * @return index of sample, or -1 if there is none
+	 */
+	public int find(int channel, int index, int value) {
+		long[] plane = planes[channel];
+		if (index < 0)
+			index = 0;
+		if (index >= size)
+			return (-1);
+
+		long invert = (value == 0) ? -1L : 0;
+		int element = index >>> 6;
+		long bits = (plane[element] ^ invert) & (-1L << index);
+		while (bits == 0) {
+			if (++element >= plane.length)
+				return (-1);
+			bits = plane[element] ^ invert;
+		}
+		int found = (element << 6) + Long.numberOfTrailingZeros(bits);
+		return (found < size ? found : -1);
+	}
+
+	/**
+	 * Returns the edges of the given channel within the given range.
+	 * @param channel channel number
+	 * @param from index of first sample of range
+	 * @param to index of first sample after range
+	 * @return sorted indices of samples differing from their predecessor in the given channel
+	 */
+	public int[] getEdges(int channel, int from, int to) {
+		long[] plane = planes[channel];
+		if (from < 1)
+			from = 1;
+		if (to > size)
+			to = size;
+		if (from >= to)
+			return (new int[0]);
+
+		// edge at sample k + 1 is stored in bit k of the differences
+		int first = (from - 1) >>> 6;
+		int last = (to - 2) >>> 6;
+		long firstMask = -1L << (from - 1);
+		long lastMask = -1L >>> (63 - ((to - 2) & 63));
+
+		int count = 0;
+		for (int i = first; i <= last; i++) {
+			long diff = difference(plane, i);
+			if (i == first)
+				diff &= firstMask;
+			if (i == last)
+				diff &= lastMask;
+			count += Long.bitCount(diff);
+		}
+
+		int[] edges = new int[count];
+		int n = 0;
+		for (int i = first; i <= last; i++) {
+			long diff = difference(plane, i);
+			if (i == first)
+				diff &= firstMask;
+			if (i == last)
+				diff &= lastMask;
+			while (diff != 0) {
+				edges[n++] = (i << 6) + Long.numberOfTrailingZeros(diff) + 1;
+				diff &= diff - 1;
+			}
+		}
+		return (edges);
+	}
+
+	/**
+	 * Returns all edges of the given channel.
+	 * @param channel channel number
+	 * @return sorted indices of samples differing from their predecessor in the given channel
+	 */
+	public int[] getEdges(int channel) {
+		return (getEdges(channel, 0, size));
+	}
+
+	/**
+	 * Compares each sample of an element of a plane with its successor.
+	 * The last bit is compared with the first bit of the next element.
+	 * Bits beyond the last sample must be ignored by the caller.
+	 * @param plane bit set of channel
+	 * @param element index of element
+	 * @return bit set with bit k set if sample k + 1 differs from sample k
+	 */
+	private static long difference(long[] plane, int element) {
+		long x = plane[element];
+		long next = (element + 1 < plane.length) ? plane[element + 1] : x >>> 63;
+		return (x ^ ((x >>> 1) | (next << 63)));
+	}
+
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+
+	private long[][] planes;
+	private int size;
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free byte ring buffer for exactly one producer and one consumer thread.
+ * <p>
+ * Head and tail are only ever written by one side each, so no locking is needed to
+ * exchange data. Threads waiting for data or space are parked and woken up by the
+ * other side, so neither side polls while the other one is busy.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class ByteRing extends Object {
+
+	/**
+	 * Creates a new ring buffer.
+	 * @param capacity minimum number of bytes the ring can hold; will be rounded up to a power of two
+	 */
+	public ByteRing(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		buffer = new byte[size];
+		mask = size - 1;
+		head = 0;
+		tail = 0;
+		closed = false;
+		cancelled = false;
+	}
+
+	/**
+	 * Writes as many bytes as currently fit into the ring. Must only be called by the producer.
+	 * @param b bytes to write
+	 * @param off offset of first byte in b
+	 * @param len number of bytes to write
+	 * @return number of bytes written, may be 0 when the ring is full
+	 */
+	public int write(byte[] b, int off, int len) {
+		long t = tail;
+		int n = Math.min(len, buffer.length - (int)(t - head));
+		int pos = (int)t & mask;
+		int first = Math.min(n, buffer.length - pos);
+		System.arraycopy(b, off, buffer, pos, first);
+		System.arraycopy(b, off + first, buffer, 0, n - first);
+		tail = t + n;
+		wake(consumer);
+		return (n);
+	}
+
+	/**
+	 * Writes all given bytes, waiting for space as required. Must only be called by the producer.
+	 * @param b bytes to write
+	 * @param off offset of first byte in b
+	 * @param len number of bytes to write
+	 * @return <code>false</code> if the consumer has cancelled before all bytes could be written
+	 */
+	public boolean writeFully(byte[] b, int off, int len) {
+		while (len > 0 && !cancelled) {
+			int n = write(b, off, len);
+			off += n;
+			len -= n;
+			if (n == 0) {
+				producer = Thread.currentThread();
+				if (buffer.length == (int)(tail - head) && !cancelled)
+					LockSupport.parkNanos(WAIT_NANOS);
+				producer = null;
+			}
+		}
+		return (len == 0);
+	}
+
+	/**
+	 * Reads up to the given number of bytes. Must only be called by the consumer.
+	 * @param b buffer to store bytes in
+	 * @param off offset of first byte to write in b
+	 * @param len maximum number of bytes to read
+	 * @return number of bytes read, may be 0 when the ring is empty
+	 */
+	public int read(byte[] b, int off, int len) {
+		long h = head;
+		int n = Math.min(len, (int)(tail - h));
+		int pos = (int)h & mask;
+		int first = Math.min(n, buffer.length - pos);
+		System.arraycopy(buffer, pos, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, n - first);
+		head = h + n;
+		wake(producer);
+		return (n);
+	}
+
+	/**
+	 * Waits until at least the given number of bytes is available or the producer has closed the ring.
+	 * Must only be called by the consumer.
+	 * @param count number of bytes to wait for
+	 * @return <code>true</code> if the bytes are available, <code>false</code> if the ring was closed before
+	 * @throws InterruptedException if the consumer thread has been interrupted while waiting
+	 */
+	public boolean waitForData(int count) throws InterruptedException {
+		consumer = Thread.currentThread();
+		try {
+			while (available() < count) {
+				if (closed)
+					return (available() >= count);
+				LockSupport.parkNanos(WAIT_NANOS);
+				if (Thread.interrupted())
+					throw new InterruptedException("Data readout interrupted.");
+			}
+		} finally {
+			consumer = null;
+		}
+		return (true);
+	}
+
+	/**
+	 * Returns the number of bytes that can be read without waiting.
+	 * @return number of buffered bytes
+	 */
+	public int available() {
+		return ((int)(tail - head));
+	}
+
+	/**
+	 * Informs the consumer that no more data is going to be written.
+	 */
+	public void close() {
+		closed = true;
+		wake(consumer);
+	}
+
+	/**
+	 * Informs the producer that no more data is going to be read.
+	 */
+	public void cancel() {
+		cancelled = true;
+		wake(producer);
+	}
+
+	/**
+	 * Returns whether the consumer has cancelled reading.
+	 * @return <code>true</code> if no more data is going to be read
+	 */
+	public boolean isCancelled() {
+		return (cancelled);
+	}
+
+	/**
+	 * Wakes up the given thread if it is currently waiting.
+	 * @param thread thread to wake up or <code>null</code>
+	 */
+	private void wake(Thread thread) {
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/** upper bound for a single wait, so missed wake ups only cause a short delay */
+	private final static long WAIT_NANOS = 10000000;
+
+	private final byte[] buffer;
+	private final int mask;
+	private volatile long head;
+	private volatile long tail;
+	private volatile boolean closed;
+	private volatile boolean cancelled;
+	private volatile Thread producer;
+	private volatile Thread consumer;
+}
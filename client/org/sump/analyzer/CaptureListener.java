@@ -0,0 +1,42 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Interface for receiving captured samples while they are read from the device.
+ * <p>
+ * The device sends the newest sample first, so the values array of the captured data is
+ * filled from its end towards index 0. Listeners are called from the thread reading the
+ * device and must not modify the data.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public interface CaptureListener {
+	/**
+	 * Called whenever new samples have been received.
+	 * The captured data object is the same for all calls during a capture and will also be returned
+	 * by <code>Device.run()</code> when the capture completes.
+	 * 
+	 * @param data captured data currently being filled
+	 * @param first index of the oldest sample received so far; all samples from here on are valid
+	 */
+	public void samplesReceived(CapturedData data, int first);
+}
@@ -0,0 +1,226 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Timing and throughput figures of a single capture.
+ * <p>
+ * A capture is divided into these phases:
+ * <ul>
+ * <li>attach: opening the port (only if it was opened for this capture)</li>
+ * <li>handshake: device reset and identification (skipped if already identified)</li>
+ * <li>configuration: sending configuration registers and the run command</li>
+ * <li>trigger wait: from the run command until the first byte of data arrived</li>
+ * <li>readout: from the first until the last byte of data arrived</li>
+ * </ul>
+ * Decode time is the time spent compiling received bytes into samples. As this happens
+ * while data is still being received, it overlaps with the readout phase.
+ * <p>
+ * All times are given in ms.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class CaptureMetrics extends Object {
+
+	/**
+	 * Creates an empty metrics object.
+	 */
+	public CaptureMetrics() {
+		attach = 0;
+		handshake = 0;
+		configuration = 0;
+		decode = 0;
+		armed = 0;
+		firstByte = 0;
+		lastByte = 0;
+		bytes = 0;
+		samples = 0;
+	}
+
+	/**
+	 * Returns the time it took to open the port.
+	 * @return attach time or 0 if an already open port has been used
+	 */
+	public double getAttachTime() {
+		return (attach / 1000000.0);
+	}
+
+	/**
+	 * Returns the time it took to reset and identify the device.
+	 * @return handshake time or 0 if the device had already been identified
+	 */
+	public double getHandshakeTime() {
+		return (handshake / 1000000.0);
+	}
+
+	/**
+	 * Returns the time it took to send the configuration to the device.
+	 * @return configuration time
+	 */
+	public double getConfigurationTime() {
+		return (configuration / 1000000.0);
+	}
+
+	/**
+	 * Returns the overhead of the capture before the device was started,
+	 * that is the time taken to open the port, to reset and identify the device and to send the configuration.
+	 * @return setup time
+	 */
+	public double getSetupTime() {
+		return ((attach + handshake + configuration) / 1000000.0);
+	}
+
+	/**
+	 * Returns the time from starting the device until the first data arrived.
+	 * This mostly is the time the device waited for the trigger to fire.
+	 * @return trigger wait time or 0 if no data has been received
+	 */
+	public double getTriggerWaitTime() {
+		if (firstByte == 0)
+			return (0);
+		return ((firstByte - armed) / 1000000.0);
+	}
+
+	/**
+	 * Returns the time from receiving the first until receiving the last byte of data.
+	 * @return readout time
+	 */
+	public double getReadoutTime() {
+		return ((lastByte - firstByte) / 1000000.0);
+	}
+
+	/**
+	 * Returns the time spent on compiling samples from received data.
+	 * @return decode time
+	 */
+	public double getDecodeTime() {
+		return (decode / 1000000.0);
+	}
+
+	/**
+	 * Returns the number of data bytes received from the device.
+	 * @return number of bytes received
+	 */
+	public long getBytesReceived() {
+		return (bytes);
+	}
+
+	/**
+	 * Returns the number of samples compiled from the received data.
+	 * @return number of samples
+	 */
+	public int getSamples() {
+		return (samples);
+	}
+
+	/**
+	 * Returns the effective link throughput during readout.
+	 * @return bytes received per second or 0 if it cannot be determined
+	 */
+	public double getThroughput() {
+		if (lastByte <= firstByte)
+			return (0);
+		return (bytes * 1000000000.0 / (lastByte - firstByte));
+	}
+
+	/**
+	 * Returns a single line summary of all figures.
+	 * @return summary
+	 */
+	public String toString() {
+		return (
+			"setup " + format(getSetupTime()) + "ms"
+			+ " (attach " + format(getAttachTime()) + "ms"
+			+ ", handshake " + format(getHandshakeTime()) + "ms"
+			+ ", configuration " + format(getConfigurationTime()) + "ms)"
+			+ ", trigger wait " + format(getTriggerWaitTime()) + "ms"
+			+ ", readout " + format(getReadoutTime()) + "ms"
+			+ " (" + bytes + " bytes, " + Math.round(getThroughput()) + " bytes/s)"
+			+ ", decode " + format(getDecodeTime()) + "ms"
+		);
+	}
+
+	/**
+	 * Formats a time with one decimal.
+	 * @param ms time to format
+	 * @return formatted time
+	 */
+	private String format(double ms) {
+		return (Double.toString(Math.round(ms * 10) / 10.0));
+	}
+
+	/**
+	 * Sets the time spent on opening the port.
+	 * @param nanos time in ns
+	 */
+	void setAttachTime(long nanos) {
+		attach = nanos;
+	}
+
+	/**
+	 * Sets the time spent on reset and identification.
+	 * @param nanos time in ns
+	 */
+	void setHandshakeTime(long nanos) {
+		handshake = nanos;
+	}
+
+	/**
+	 * Sets the time spent on sending the configuration and marks the device as started.
+	 * @param nanos time in ns
+	 */
+	void setConfigurationTime(long nanos) {
+		configuration = nanos;
+		armed = System.nanoTime();
+	}
+
+	/**
+	 * Records the arrival of a block of data. Called by the thread reading from the port.
+	 * @param count number of bytes received
+	 */
+	void dataReceived(int count) {
+		long now = System.nanoTime();
+		if (firstByte == 0)
+			firstByte = now;
+		lastByte = now;
+		bytes += count;
+	}
+
+	/**
+	 * Adds time spent on compiling samples.
+	 * @param nanos time in ns
+	 * @param samples total number of samples compiled so far
+	 */
+	void addDecodeTime(long nanos, int samples) {
+		decode += nanos;
+		this.samples = samples;
+	}
+
+	private long attach;
+	private long handshake;
+	private long configuration;
+	private long decode;
+	private long armed;
+	private volatile long firstByte;
+	private volatile long lastByte;
+	private volatile long bytes;
+	private int samples;
+}
@@ -18,12 +18,14 @@
  */
 package org.sump.analyzer;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * CapturedData encapsulates the data obtained by the analyzer during a single run.
@@ -32,10 +34,31 @@ import java.io.IOException;
  * Data files will start with a header containing meta data marked by lines starting with ";".
  * The actual readout values will follow after the header. A value is a
  * single logic level measurement of all channels at a particular time.
- * This means a value is 32bits long. The value is encoded in hex and
- * each value is followed by a new line.
+ * This means a value is up to 32bits long. The value is encoded in hex,
+ * using as many digits as the enabled channel groups need, and each value is followed by a new line.
  * <p>
  * In the java code each value is represented by an integer.
+ * All samples are available through a <code>SampleStore</code>. Small captures keep them in arrays,
+ * which are also accessible as <code>values</code> and <code>words</code>. Large captures keep them in chunks
+ * or read them from the file in pages when needed; both arrays are <code>null</code> then.
+ * Device captures keep only the enabled channel groups in narrow arrays and have no such arrays either.
+ * The number of samples is limited to <code>Integer.MAX_VALUE</code>.
+ * <p>
+ * Data captured by more than one device can have more than 32 channels.
+ * Values are then split into several 32bit words, each stored in its own array.
+ * In files all words of a value are written on one line, most significant word first.
+ * <p>
+ * Files with the extension ".slb" are written in the binary SLA2 format instead.
+ * It starts with the magic bytes "SLA2" followed by a header of little-endian 32bit integers:
+ * format version, header length, size, rate, channels, enabled channels, trigger position,
+ * number of words, bytes per word and the enabled channels of each word.
+ * After the header the samples follow as little-endian words, all samples of the first word,
+ * then all samples of the second word and so on. Single word captures of up to 8 or 16 channels
+ * are stored using 1 or 2 bytes per word.
+ * <p>
+ * Files with the extension ".slt" only store the samples at which the value changes, see <code>TransitionFile</code>.
+ * Files with the extension ".vcd" are Value Change Dumps as used by simulation tools, see <code>VcdReader</code> and <code>VcdWriter</code>.
+ * When reading a file the format is detected by its first bytes, not by its name.
  * 
  * @version 0.7
  * @author Michael "Mr. Sump" Poppitz
@@ -44,6 +67,17 @@ import java.io.IOException;
 public class CapturedData extends Object {
 	/** indicates that rate or trigger position are not available */
 	public final static int NOT_AVAILABLE = -1;
+	/** largest number of samples for which structures covering all channels and samples are built */
+	public final static int MAX_INDEXED_SIZE = 256 * 1024;
+
+	/** magic bytes identifying the binary format */
+	private final static byte[] BINARY_MAGIC = { 'S', 'L', 'A', '2' };
+	/** version of the binary format */
+	private final static int BINARY_VERSION = 1;
+	/** length of the binary header without the enabled channels of each word */
+	private final static int BINARY_HEADER_SIZE = 40;
+	/** number of samples converted at once when writing */
+	private final static int BLOCK_SIZE = 64 * 1024;
 
 	/**
 	 * Constructs CapturedData based on the given data.
@@ -55,101 +89,343 @@ public class CapturedData extends Object {
 	 * @param enabledChannels bit mask identifying used channels
 	 */
 	public CapturedData(int[] values, int triggerPosition, int rate, int channels, int enabledChannels) {
-		this.values = values;
+		this(new int[][] { values }, triggerPosition, rate, channels, new int[] { enabledChannels });
+	}
+
+	/**
+	 * Constructs CapturedData with more than 32 channels based on the given data.
+	 * All word arrays must have the same length.
+	 * 
+	 * @param words 32bit words of all values, <code>words[w][i]</code> holds channels 32*w to 32*w+31 of value i
+	 * @param triggerPosition position of trigger as index of values array
+	 * @param rate sampling rate (may be set to <code>NOT_AVAILABLE</code>)
+	 * @param channels number of used channels
+	 * @param enabledWords bit masks identifying used channels for each word
+	 */
+	public CapturedData(int[][] words, int triggerPosition, int rate, int channels, int[] enabledWords) {
+		this(new ArraySampleStore(words), triggerPosition, rate, channels, enabledWords);
+	}
+
+	/**
+	 * Constructs CapturedData based on samples held by the given store.
+	 * <code>values</code> and <code>words</code> are only set if the store keeps the samples in arrays.
+	 * 
+	 * @param samples store holding the samples
+	 * @param triggerPosition position of trigger as sample index
+	 * @param rate sampling rate (may be set to <code>NOT_AVAILABLE</code>)
+	 * @param channels number of used channels
+	 * @param enabledWords bit masks identifying used channels for each word
+	 */
+	public CapturedData(SampleStore samples, int triggerPosition, int rate, int channels, int[] enabledWords) {
+		this.samples = samples;
+		this.words = (samples instanceof ArraySampleStore) ? ((ArraySampleStore)samples).getWords() : null;
+		this.values = (words != null) ? words[0] : null;
 		this.triggerPosition = triggerPosition;
 		this.rate = rate;
 		this.channels = channels;
-		this.enabledChannels = enabledChannels;
+		this.enabledChannels = enabledWords[0];
+		this.enabledWords = enabledWords;
 	}
 
 	/**
 	 * Constructs CapturedData based on the data read from the given file.
+	 * The text, the binary and the transition format are supported.
 	 * 
 	 * @param file			file to read captured data from
 	 * @throws IOException when reading from file failes
 	 */
 	public CapturedData(File file) throws IOException {
-		int size = 0, r = -1, t = -1, channels = 32, enabledChannels = -1;
-		String line;
-		BufferedReader br = new BufferedReader(new FileReader(file));
-		do {
-			line = br.readLine();
-			if (line == null)
-				throw new IOException("File appears to be corrupted.");
-			else if (line.startsWith(";Size: "))
-				size = Integer.parseInt(line.substring(7));
-			else if (line.startsWith(";Rate: "))
-				r = Integer.parseInt(line.substring(7));
-			else if (line.startsWith(";Channels: "))
-				channels = Integer.parseInt(line.substring(11));
-			else if (line.startsWith(";TriggerPosition: "))
-				t = Integer.parseInt(line.substring(18));
-			else if (line.startsWith(";EnabledChannels: "))
-				enabledChannels = Integer.parseInt(line.substring(18));
-		} while (line.startsWith(";"));
-
-		if (size <= 0 || size > 1024 * 256)
-			throw new IOException("Invalid size encountered.");
-			
-		values = new int[size];
+		this(hasMagic(file, BINARY_MAGIC) ? readBinaryFile(file)
+			: hasMagic(file, TransitionFile.MAGIC) ? readTransitionFile(file)
+			: VcdReader.isVcd(file) ? new VcdReader(file).read()
+			: TextCaptureReader.read(file));
+	}
+
+	/**
+	 * Constructs CapturedData sharing the data of the given CapturedData.
+	 * @param data data to share
+	 */
+	private CapturedData(CapturedData data) {
+		this.samples = data.samples;
+		this.values = data.values;
+		this.triggerPosition = data.triggerPosition;
+		this.rate = data.rate;
+		this.channels = data.channels;
+		this.enabledChannels = data.enabledChannels;
+		this.words = data.words;
+		this.enabledWords = data.enabledWords;
+	}
+
+	/**
+	 * Checks if the given file starts with the given magic bytes.
+	 * @param file file to check
+	 * @param expected magic bytes identifying a file format
+	 * @return <code>true</code> if the file starts with the magic bytes
+	 * @throws IOException when reading from file failes
+	 */
+	private static boolean hasMagic(File file, byte[] expected) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		byte[] magic = new byte[expected.length];
+		int count = 0;
 		try {
-			for (int i = 0; i < values.length && line != null; i++) {
-				// TODO: modify to work with all channel counts up to 32
-				if (channels > 16) {
-					values[i] =
-						Integer.parseInt(line.substring(0, 4), 16) << 16
-						| Integer.parseInt(line.substring(4, 8), 16);
+			int n;
+			while (count < magic.length && (n = in.read(magic, count, magic.length - count)) > 0)
+				count += n;
+		} finally {
+			in.close();
+		}
+		for (int i = 0; i < magic.length; i++)
+			if (i >= count || magic[i] != expected[i])
+				return (false);
+		return (true);
+	}
+
+	/**
+	 * Reads captured data from a file in transition format.
+	 * Small captures are decoded into memory. Large captures are not loaded, but decoded from the file while they are used.
+	 * @param file file to read from
+	 * @return captured data read from file
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	private static CapturedData readTransitionFile(File file) throws IOException {
+		TransitionFile transitionFile = new TransitionFile(file);
+		if (transitionFile.getSize() <= ChunkedSampleStore.CHUNK_SIZE)
+			return (transitionFile.toCapturedData());
+		return (transitionFile.toCapturedDataView());
+	}
+
+	/**
+	 * Reads captured data from a file in binary format.
+	 * Only the header is read first. Small captures are then memory mapped, so samples are copied straight from the file cache.
+	 * Large captures are not loaded, but read in pages while they are used.
+	 * @param file file to read from
+	 * @return captured data read from file
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	private static CapturedData readBinaryFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < BINARY_HEADER_SIZE)
+				throw new IOException("File appears to be corrupted.");
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			map.position(BINARY_MAGIC.length);
+			int version = map.getInt();
+			if (version != BINARY_VERSION)
+				throw new IOException("Unsupported file version " + version + ".");
+			int headerLength = map.getInt();
+			int size = map.getInt();
+			int rate = map.getInt();
+			int channels = map.getInt();
+			map.getInt(); // enabled channels, repeated as first entry of enabled words
+			int triggerPosition = map.getInt();
+			int wordCount = map.getInt();
+			int width = map.getInt();
+
+			if (size <= 0 || wordCount <= 0 || (width != 1 && width != 2 && width != 4)
+				|| (wordCount > 1 && width != 4)
+				|| headerLength < BINARY_HEADER_SIZE + 4 * wordCount
+				|| headerLength + (long)size * wordCount * width > length
+			)
+				throw new IOException("File appears to be corrupted.");
+
+			// map samples only if they are going to be loaded
+			boolean paged = size > ChunkedSampleStore.CHUNK_SIZE;
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, paged ? headerLength : headerLength + (long)size * wordCount * width);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			map.position(BINARY_HEADER_SIZE);
+
+			int[] enabledWords = new int[wordCount];
+			for (int w = 0; w < wordCount; w++)
+				enabledWords[w] = map.getInt();
+
+			// large captures are not loaded, but read in pages when needed
+			if (paged) {
+				SampleStore samples = new PagedSampleStore(file, headerLength, size, wordCount, width);
+				return (new CapturedData(samples, triggerPosition, rate, channels, enabledWords));
+			}
+
+			int[][] words = new int[wordCount][size];
+			map.position(headerLength);
+			for (int w = 0; w < wordCount; w++) {
+				int[] word = words[w];
+				if (width == 4) {
+					map.asIntBuffer().get(word);
+					map.position(map.position() + 4 * size);
+				} else if (width == 2) {
+					for (int i = 0; i < size; i++)
+						word[i] = map.getShort() & 0xffff;
 				} else {
-					values[i] = Integer.parseInt(line.substring(0, 4), 16);					
+					for (int i = 0; i < size; i++)
+						word[i] = map.get() & 0xff;
 				}
-				line = br.readLine();
 			}
-		} catch (NumberFormatException E) {
-			throw new IOException("Invalid data encountered.");
-		}
-
-		this.triggerPosition = t;
-		this.rate = r;
-		this.channels = channels;
-		this.enabledChannels = enabledChannels;
 
-		br.close();
+			return (new CapturedData(words, triggerPosition, rate, channels, enabledWords));
+		} finally {
+			in.close();
+		}
 	}
-	
+
 	/**
 	 * Writes device data to given file.
+	 * Files with the extension ".slb" are written in binary format, files with the extension ".slt"
+	 * in transition format, files with the extension ".vcd" as value change dump and all others in text format.
 	 * 
 	 * @param file			file to write to
 	 * @throws IOException when writing to file failes
 	 */
 	public void writeToFile(File file) throws IOException  {
+		writeToFile(file, null);
+	}
+
+	/**
+	 * Writes device data to given file, keeping the given channel labels if the format supports them.
+	 * Only value change dumps name their channels.
+	 * 
+	 * @param file			file to write to
+	 * @param labels		channel labels, may be <code>null</code> or contain <code>null</code> entries for unlabeled channels
+	 * @throws IOException when writing to file failes
+	 */
+	public void writeToFile(File file, String[] labels) throws IOException  {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".slb"))
+			writeBinaryFile(file);
+		else if (name.endsWith(".slt"))
+			TransitionFile.write(this, file);
+		else if (name.endsWith(".vcd"))
+			VcdWriter.write(this, file, labels);
+		else
+			TextCaptureWriter.write(this, file);
+	}
+
+	/**
+	 * Writes device data to given file in binary format.
+	 * 
+	 * @param file			file to write to
+	 * @throws IOException when writing to file failes
+	 */
+	private void writeBinaryFile(File file) throws IOException  {
+		int wordCount = samples.getWordCount();
+		long size = samples.getSize();
+		int width = 4;
+		if (wordCount == 1 && channels <= 8)
+			width = 1;
+		else if (wordCount == 1 && channels <= 16)
+			width = 2;
+		int headerLength = BINARY_HEADER_SIZE + 4 * wordCount;
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(headerLength, BLOCK_SIZE * width));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(BINARY_MAGIC);
+		buffer.putInt(BINARY_VERSION);
+		buffer.putInt(headerLength);
+		buffer.putInt((int)size);
+		buffer.putInt(rate);
+		buffer.putInt(channels);
+		buffer.putInt(enabledChannels);
+		buffer.putInt(triggerPosition);
+		buffer.putInt(wordCount);
+		buffer.putInt(width);
+		for (int w = 0; w < wordCount; w++)
+			buffer.putInt(enabledWords[w]);
+
+		FileOutputStream out = new FileOutputStream(file);
 		try {
-			BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-			
-			bw.write(";Size: " + values.length);
-			bw.newLine();
-			bw.write(";Rate: " + rate);
-			bw.newLine();
-			bw.write(";Channels: " + channels);
-			bw.newLine();
-			bw.write(";EnabledChannels: " + enabledChannels);
-			bw.newLine();
-			if (triggerPosition >= 0) {
-				bw.write(";TriggerPosition: " + triggerPosition);
-				bw.newLine();
-			}
-			
-			for (int i = 0; i < values.length; i++) {
-				String hexVal = Integer.toHexString(values[i]);
-				bw.write("00000000".substring(hexVal.length()) + hexVal);
-				bw.newLine();
+			FileChannel channel = out.getChannel();
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+
+			int[] block = new int[BLOCK_SIZE];
+			for (int w = 0; w < wordCount; w++) {
+				for (long from = 0; from < size; from += BLOCK_SIZE) {
+					int count = (int)Math.min(BLOCK_SIZE, size - from);
+					samples.getValues(from, count, w, block, 0);
+					buffer.clear();
+					if (width == 4) {
+						buffer.asIntBuffer().put(block, 0, count);
+						buffer.position(4 * count);
+					} else if (width == 2) {
+						for (int i = 0; i < count; i++)
+							buffer.putShort((short)block[i]);
+					} else {
+						for (int i = 0; i < count; i++)
+							buffer.put((byte)block[i]);
+					}
+					buffer.flip();
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
 			}
-			bw.close();
-		} catch (Exception E) {
-			E.printStackTrace(System.out);
+		} finally {
+			out.close();
 		}
 	}
 
+	/**
+	 * Returns wether or not the capture is small enough to index all channels at once.
+	 * Larger captures, which are usually paged or kept in chunks, should be drawn from the store or the summaries,
+	 * as indexing all channels could take several times the memory of the samples.
+	 * @return <code>true</code> if the capture has at most <code>MAX_INDEXED_SIZE</code> samples
+	 */
+	public boolean isIndexable() {
+		return (samples.getSize() <= MAX_INDEXED_SIZE);
+	}
+
+	/**
+	 * Returns the index of all signal changes. The index is created on first use,
+	 * the edges of each channel are collected when the channel is first queried.
+	 * Must not be called before all samples have been captured.
+	 * @return edge index of this data
+	 */
+	public synchronized EdgeIndex getEdgeIndex() {
+		if (edgeIndex == null)
+			edgeIndex = new EdgeIndex(this);
+		return (edgeIndex);
+	}
+
+	/**
+	 * Returns the multi-resolution summary of all channels. Levels of a word are built on first use
+	 * and take at most 16MB per word, regardless of the number of samples.
+	 * Must not be called before all samples have been captured.
+	 * @return level of detail summary of this data
+	 */
+	public synchronized LevelOfDetail getLevelOfDetail() {
+		if (levelOfDetail == null)
+			levelOfDetail = new LevelOfDetail(this);
+		return (levelOfDetail);
+	}
+
+	/**
+	 * Returns the multi-resolution minimum and maximum of all groups. Levels of a group are built on first use
+	 * and take at most 4MB per group, regardless of the number of samples.
+	 * Must not be called before all samples have been captured.
+	 * @return scope summary of this data
+	 */
+	public synchronized ScopeSummary getScopeSummary() {
+		if (scopeSummary == null)
+			scopeSummary = new ScopeSummary(this);
+		return (scopeSummary);
+	}
+
+	/**
+	 * Returns the channel-major bit planes of the samples. The planes are built on first use
+	 * and take as much memory as the samples, so they are only available for captures that can be indexed.
+	 * Must not be called before all samples have been captured.
+	 * @return bit planes of this data or <code>null</code> if the capture is too large
+	 */
+	public synchronized BitPlanes getBitPlanes() {
+		if (!isIndexable())
+			return (null);
+		if (bitPlanes == null)
+			bitPlanes = new BitPlanes(this);
+		return (bitPlanes);
+	}
+
 	/**
 	 * Returns wether or not the object contains timing data
 	 * @return <code>true</code> when timing data is available
@@ -166,14 +442,25 @@ public class CapturedData extends Object {
 		return (triggerPosition != NOT_AVAILABLE);
 	}
 
-	/** captured values */
+	/** all captured samples */
+	public final SampleStore samples;
+	/** captured values; <code>null</code> if the samples are not kept in arrays */
 	public final int[] values;
 	/** position of trigger as index of values */
 	public final int triggerPosition;
 	/** sampling rate in Hz */
 	public final int rate;
-	/** number of channels (1-32) */
+	/** number of channels (1-32 for a single device, multiples of 32 for several devices) */
 	public final int channels;
 	/** bit map of enabled channels */
 	public final int enabledChannels;
+	/** captured values split into 32bit words; <code>words[0]</code> is the same array as <code>values</code>; <code>null</code> if the samples are not kept in arrays */
+	public final int[][] words;
+	/** bit maps of enabled channels for each word; <code>enabledWords[0]</code> equals <code>enabledChannels</code> */
+	public final int[] enabledWords;
+
+	private EdgeIndex edgeIndex;
+	private BitPlanes bitPlanes;
+	private LevelOfDetail levelOfDetail;
+	private ScopeSummary scopeSummary;
 }
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Sample store keeping samples in chunks of <code>CHUNK_SIZE</code> samples on the heap.
+ * No single large array is needed, so the heap only has to provide many medium sized blocks.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class ChunkedSampleStore extends Object implements SampleStore {
+	/** number of bits of a sample index addressing a sample within its chunk */
+	public final static int CHUNK_BITS = 20;
+	/** number of samples per chunk */
+	public final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	/**
+	 * Creates a store for the given number of samples, all set to 0.
+	 * @param size number of samples
+	 * @param wordCount number of 32bit words per sample
+	 */
+	public ChunkedSampleStore(long size, int wordCount) {
+		this.size = size;
+		int chunkCount = (int)((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+		chunks = new int[wordCount][chunkCount][];
+		for (int w = 0; w < wordCount; w++)
+			for (int c = 0; c < chunkCount; c++)
+				chunks[w][c] = new int[(int)Math.min(CHUNK_SIZE, size - ((long)c << CHUNK_BITS))];
+	}
+
+	/**
+	 * Returns a chunk for direct access.
+	 * @param word index of word
+	 * @param chunk index of chunk
+	 * @return array holding the given word of samples <code>chunk * CHUNK_SIZE</code> and following
+	 */
+	public int[] getChunk(int word, int chunk) {
+		return (chunks[word][chunk]);
+	}
+
+	/**
+	 * Sets a word of a sample.
+	 * @param index index of sample
+	 * @param word index of word
+	 * @param value new value
+	 */
+	public void setValue(long index, int word, int value) {
+		chunks[word][(int)(index >>> CHUNK_BITS)][(int)index & (CHUNK_SIZE - 1)] = value;
+	}
+
+	public long getSize() {
+		return (size);
+	}
+
+	public int getWordCount() {
+		return (chunks.length);
+	}
+
+	public int getValue(long index) {
+		return (chunks[0][(int)(index >>> CHUNK_BITS)][(int)index & (CHUNK_SIZE - 1)]);
+	}
+
+	public int getValue(long index, int word) {
+		return (chunks[word][(int)(index >>> CHUNK_BITS)][(int)index & (CHUNK_SIZE - 1)]);
+	}
+
+	public void getValues(long from, int count, int word, int[] buffer, int offset) {
+		while (count > 0) {
+			int chunk = (int)(from >>> CHUNK_BITS);
+			int pos = (int)from & (CHUNK_SIZE - 1);
+			int n = Math.min(count, CHUNK_SIZE - pos);
+			System.arraycopy(chunks[word][chunk], pos, buffer, offset, n);
+			from += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	private long size;
+	private int[][][] chunks;
+}
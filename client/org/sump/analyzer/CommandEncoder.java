@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes SUMP protocol commands into a buffer, so that a whole sequence of commands
+ * can be sent to the device with a single write.
+ * <p>
+ * Commands are collected using <code>addCommand()</code> and transmitted by <code>flush()</code>.
+ * If a {@link ProtocolTrace} is set, it is informed about every command actually written.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class CommandEncoder extends Object {
+
+	/**
+	 * Creates a new encoder with an empty buffer.
+	 */
+	public CommandEncoder() {
+		buffer = new byte[BUFFER_SIZE];
+		length = 0;
+		trace = null;
+	}
+
+	/**
+	 * Adds a long command to the buffer.
+	 * @param opcode one byte operation code
+	 * @param data four byte data portion
+	 */
+	public void addCommand(int opcode, int data) {
+		ensureCapacity(5);
+		buffer[length++] = (byte)opcode;
+		buffer[length++] = (byte)data;
+		buffer[length++] = (byte)(data >> 8);
+		buffer[length++] = (byte)(data >> 16);
+		buffer[length++] = (byte)(data >> 24);
+	}
+
+	/**
+	 * Adds a short command to the buffer.
+	 * <p>
+	 * This method is intended to be used for short commands, but can also be called
+	 * with long command opcodes if the data portion is to be set to 0.
+	 * @param opcode one byte operation code
+	 */
+	public void addCommand(int opcode) {
+		if ((opcode & 0x80) != 0) {
+			addCommand(opcode, 0);
+		} else {
+			ensureCapacity(1);
+			buffer[length++] = (byte)opcode;
+		}
+	}
+
+	/**
+	 * Writes all buffered commands to the given stream and empties the buffer.
+	 * @param stream stream to write to
+	 * @throws IOException if writing to stream fails
+	 */
+	public void flush(OutputStream stream) throws IOException {
+		if (length == 0)
+			return;
+		try {
+			stream.write(buffer, 0, length);
+			stream.flush();
+			if (trace != null)
+				traceCommands();
+		} finally {
+			length = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes currently waiting to be written.
+	 * @return number of buffered bytes
+	 */
+	public int getLength() {
+		return (length);
+	}
+
+	/**
+	 * Sets the trace to inform about written commands.
+	 * @param trace trace to use or <code>null</code> to disable tracing
+	 */
+	public void setTrace(ProtocolTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Returns a human readable description of the given command.
+	 * @param opcode one byte operation code
+	 * @param data four byte data portion (ignored for short commands)
+	 * @return command name followed by its data portion for long commands
+	 */
+	public static String describe(int opcode, int data) {
+		String name;
+		switch (opcode) {
+			case 0x00: name = "RESET"; break;
+			case 0x01: name = "RUN"; break;
+			case 0x02: name = "ID"; break;
+			case 0x11: name = "XON"; break;
+			case 0x13: name = "XOFF"; break;
+			case 0x80: name = "SETDIVIDER"; break;
+			case 0x81: name = "SETSIZE"; break;
+			case 0x82: name = "SETFLAGS"; break;
+			default:
+				if ((opcode & 0xf0) == 0xc0 && (opcode & 0x03) < 3) {
+					String[] trigger = { "SETTRIGMASK", "SETTRIGVAL", "SETTRIGCFG" };
+					name = trigger[opcode & 0x03] + " " + ((opcode >> 2) & 0x03);
+				} else {
+					name = "0x" + Integer.toHexString(opcode);
+				}
+		}
+		if ((opcode & 0x80) == 0)
+			return (name);
+		String hex = Integer.toHexString(data);
+		return (name + " 0x" + "00000000".substring(hex.length()) + hex);
+	}
+
+	/**
+	 * Makes sure the buffer can take the given number of additional bytes.
+	 * @param count number of bytes to be added
+	 */
+	private void ensureCapacity(int count) {
+		if (length + count > buffer.length) {
+			byte[] larger = new byte[2 * buffer.length];
+			System.arraycopy(buffer, 0, larger, 0, length);
+			buffer = larger;
+		}
+	}
+
+	/**
+	 * Reports all commands currently in the buffer to the trace.
+	 */
+	private void traceCommands() {
+		int i = 0;
+		while (i < length) {
+			int opcode = buffer[i++] & 0xff;
+			int data = 0;
+			if ((opcode & 0x80) != 0) {
+				for (int j = 0; j < 4; j++)
+					data |= (buffer[i++] & 0xff) << (8 * j);
+			}
+			trace.commandSent(opcode, data);
+		}
+	}
+
+	private final static int BUFFER_SIZE = 128; // enough for a complete configuration
+
+	private byte[] buffer;
+	private int length;
+	private ProtocolTrace trace;
+}
@@ -18,19 +18,20 @@
  */
 package org.sump.analyzer;
 
-import gnu.io.CommPortIdentifier;
-import gnu.io.SerialPort;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.HashMap;
+
+import org.sump.analyzer.transport.DeviceEmulator;
+import org.sump.analyzer.transport.PortRegistry;
+import org.sump.analyzer.transport.SocketTransport;
+import org.sump.analyzer.transport.Transport;
 
 /**
  * Device provides access to the physical logic analyzer device.
- * It requires the rxtx package from http://www.rxtx.org/ to
- * access the serial port the analyzer is connected to.
+ * The device is accessed through a {@link Transport}, usually a serial port.
+ * Transports for TCP connections and an in-process device emulator are available as well.
  * 
  * @version 0.7
  * @author Michael "Mr. Sump" Poppitz
@@ -77,6 +78,7 @@ public class Device extends Object {
 	private final static int FLAG_DISABLE_G3 = 0x00000020;	// disable channel group 3
 	private final static int FLAG_EXTERNAL = 0x00000040;	// disable channel group 3
 	private final static int FLAG_INVERTED = 0x00000080;	// disable channel group 3
+	private final static int FLAG_RLE = 0x00000100;			// run length encoded transfer
 
 	private final static int TRIGGER_DELAYMASK = 0x0000ffff;// mask for delay value
 	private final static int TRIGGER_LEVELMASK = 0x00030000;// mask for level value
@@ -86,6 +88,10 @@ public class Device extends Object {
 	
 	private final static int CLOCK = 100000000;	// device clock in Hz
 	private final static int TRIGGER_STAGES = 4; // number of trigger stages
+	private final static int READ_BLOCK_SIZE = 4096; // maximum number of bytes requested per read
+	private final static int RING_SIZE = 256 * 1024; // number of bytes buffered between reader and compiler
+	private final static int RLE_POLLS = 20; // 1ms polls for run length encoded data before falling back to a blocking read
+	private final static PortRegistry PORT_REGISTRY = new PortRegistry(); // serial ports available
 	
 	/**
 	 * Creates a device object.
@@ -102,6 +108,8 @@ public class Device extends Object {
 		}
 		triggerEnabled = false;
 		filterEnabled = false;
+		rleEnabled = false;
+		rleUnsupported = false;
 		demux = false;
 		setClockSource(CLOCK_INTERNAL);
 		divider = 0;
@@ -113,7 +121,13 @@ public class Device extends Object {
 		percentageDone = -1;
 		stop();
 		
-		port = null;
+		transport = null;
+		registers = new HashMap();
+		resetSession();
+		encoder = new CommandEncoder();
+		trace = null;
+		metrics = null;
+		attachTime = 0;
 	}
 
 	/**
@@ -236,6 +250,20 @@ public class Device extends Object {
 		filterEnabled = enable;
 	}
 	
+	/**
+	 * Sets wheter or not to transfer data run length encoded.
+	 * <p>
+	 * With run length encoding, repeated samples are transferred as a single sample
+	 * followed by a repeat count, which greatly reduces transfer time for mostly idle signals.
+	 * The highest enabled channel is used to mark repeat counts and will therefore not be captured.
+	 * Run length encoding is only used if the device reported support for it when it was identified,
+	 * otherwise data is transferred uncompressed.
+	 * @param enable <code>true</code> enables run length encoding, <code>false</code> disables it.
+	 */
+	public void setRleEnabled(boolean enable) {
+		rleEnabled = enable;
+	}
+	
 	/**
 	 * Set enabled channels.
 	 * @param mask bit map defining enabled channels
@@ -321,6 +349,31 @@ public class Device extends Object {
 		return (!demux && clockSource == CLOCK_INTERNAL);
 	}
 
+	/**
+	 * Returns wether or not run length encoding is enabled.
+	 * @return <code>true</code> when run length encoding is enabled, <code>false</code> otherwise
+	 */
+	public boolean isRleEnabled() {
+		return (rleEnabled);
+	}
+
+	/**
+	 * Returns wether or not run length encoding can be used in the current configuration.
+	 * @return <code>true</code> when run length encoding is available, <code>false</code> otherwise
+	 */
+	public boolean isRleAvailable() {
+		return (!(demux && clockSource == CLOCK_INTERNAL) && !rleUnsupported);
+	}
+
+	/**
+	 * Returns wether or not the last identified device reported that its firmware lacks run length encoding.
+	 * Devices identifying as SLA1 do not support it, devices identifying as SLA2 do.
+	 * @return <code>true</code> if run length encoding is known to be unsupported, <code>false</code> otherwise
+	 */
+	public boolean isRleUnsupported() {
+		return (rleUnsupported);
+	}
+
 	/**
 	 * Returns the number of available trigger stages.
 	 * @return number of available trigger stages
@@ -358,30 +411,46 @@ public class Device extends Object {
 		return (percentageDone);
 	}
 
+	/**
+	 * Returns timing and throughput figures of the last run.
+	 * If the last run failed, the figures are only complete up to the point of failure.
+	 * @return metrics of last run or <code>null</code> if there has not been a run yet
+	 */
+	public CaptureMetrics getMetrics() {
+		return (metrics);
+	}
+
 	/**
 	 * Gets a string array containing the names all available serial ports.
+	 * The name of the device emulator is added as last entry.
+	 * <p>
+	 * Ports are taken from the port registry, so only ports found by its last scan are returned.
 	 * @return array containing serial port names
 	 */
 	static public String[] getPorts() {
-		Enumeration portIdentifiers = CommPortIdentifier.getPortIdentifiers();
-		LinkedList portList = new LinkedList();
-		CommPortIdentifier portId = null;
-
-		while (portIdentifiers.hasMoreElements()) {
-			portId = (CommPortIdentifier) portIdentifiers.nextElement();
-			if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-				portList.addLast(portId.getName());
-				System.out.println(portId.getName());
-			}
-		}
-			
-		return ((String[])portList.toArray(new String[1]));
+		String[] serialPorts = PORT_REGISTRY.getPortNames();
+		String[] ports = new String[serialPorts.length + 1];
+		System.arraycopy(serialPorts, 0, ports, 0, serialPorts.length);
+		ports[serialPorts.length] = DeviceEmulator.NAME;
+		return (ports);
 	}
 
 	/**
-	 * Attaches the given serial port to the device object.
+	 * Returns the registry keeping track of available serial ports.
+	 * @return port registry shared by all devices
+	 */
+	static public PortRegistry getPortRegistry() {
+		return (PORT_REGISTRY);
+	}
+
+	/**
+	 * Attaches the given port to the device object.
 	 * The method will try to open the port.
 	 * <p>
+	 * Port names starting with "tcp://" are treated as TCP address of a device or serial port server.
+	 * The name returned by <code>DeviceEmulator.NAME</code> attaches a device emulator running in the client.
+	 * All other names are considered names of serial ports.
+	 * <p>
 	 * A return value of <code>true</code> does not guarantee that a
 	 * logic analyzer is actually attached to the port.
 	 * <p>
@@ -395,149 +464,132 @@ public class Device extends Object {
 	 * 						<code>false</code> otherwise.
 	 */
 	public boolean attach(String portName, int portRate) {
-		Enumeration portList = CommPortIdentifier.getPortIdentifiers();
-		CommPortIdentifier portId = null;
-		boolean found = false;
-
 		System.out.println("Attaching to: " + portName + " (" + portRate + "bps)");		
 
+		detach();
+		long started = System.nanoTime();
 		try {
-			detach();
-	
-			while (!found && portList.hasMoreElements()) {
-				portId = (CommPortIdentifier) portList.nextElement();
-	
-				if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-					if (portId.getName().equals(portName)) {
-						found = true;
-					}
-				}
-			}
-			
-			if (found) {
-				port = (SerialPort) portId.open("Logic Analyzer Client", 1000);
-				
-				port.setSerialPortParams(
-					portRate,
-					SerialPort.DATABITS_8,
-					SerialPort.STOPBITS_1,
-					SerialPort.PARITY_NONE
-				);
-				port.setFlowControlMode(SerialPort.FLOWCONTROL_XONXOFF_IN);
-				port.disableReceiveFraming();
-				port.enableReceiveTimeout(100);
-
-				outputStream = port.getOutputStream();
-				inputStream = port.getInputStream();
-			}
+			if (portName.startsWith(SocketTransport.PREFIX))
+				attach(new SocketTransport(portName));
+			else if (portName.equals(DeviceEmulator.NAME))
+				attach(DeviceEmulator.createTransport(portRate));
+			else
+				attach(PORT_REGISTRY.open(portName, portRate));
 		} catch(Exception E) {
 			E.printStackTrace(System.out);
 			return (false);
 		}		
-		return (found);
+		this.portName = portName;
+		this.portRate = portRate;
+		attachTime = System.nanoTime() - started;
+		return (true);
+	}
+	
+	/**
+	 * Checks whether the device is still attached to the given port.
+	 * As long as it is, there is no need to attach again before the next run.
+	 *
+	 * @param portName		the name of the port
+	 * @param portRate		transfer rate (bps)
+	 * @return				<code>true</code> if the port is attached with the given rate; <code>false</code> otherwise
+	 */
+	public boolean isAttached(String portName, int portRate) {
+		return (transport != null && portName != null && portName.equals(this.portName) && portRate == this.portRate);
+	}
+	
+	/**
+	 * Attaches the given transport to the device object.
+	 * If the device is already attached to a transport it will be detached first.
+	 *
+	 * @param transport		transport to use for communicating with the device
+	 */
+	public void attach(Transport transport) {
+		detach();
+		this.transport = transport;
+		outputStream = transport.getOutputStream();
+		inputStream = transport.getInputStream();
 	}
 	
 	/**
-	 * Detaches the currently attached port, if one exists.
-	 * This will close the serial port.
+	 * Detaches the currently attached transport, if one exists.
+	 * This will close the port.
 	 *
 	 */
 	public void detach() {
-		if (port != null) {
+		if (transport != null) {
 			try {
 				// try to make sure device is reset (see run() for loop explanation)
-				if (outputStream != null) {
-					for (int i = 0; i < 5; i++)
-						sendCommand(RESET);
-					outputStream.close();
-				}
-				if (inputStream != null)
-					inputStream.close();
+				for (int i = 0; i < 5; i++)
+					sendCommand(RESET);
+				flushCommands();
 			} catch (IOException e) { /* don't care */ }
-			port.close();
+			transport.close();
+			transport = null;
+			outputStream = null;
+			inputStream = null;
+			portName = null;
+			portRate = 0;
 		}
+		resetSession();
 	}
 	
 	/**
-	 * Sends a long command to the given stream.
+	 * Adds a long command to the commands waiting to be sent.
+	 * Commands are sent when <code>flushCommands()</code> is called.
 	 * 
 	 * @param opcode	one byte operation code
 	 * @param data		four byte data portion
-	 * @throws IOException if writing to stream fails
 	 */
-	private void sendCommand(int opcode, int data) throws IOException {
-		byte[] raw = new byte[5];
-		int mask = 0xff;
-		int shift = 0;
-		
-		raw[0] = (byte)opcode;
-		for (int i = 1; i < 5; i++) {
-			raw[i] = (byte)((data & mask) >> shift);
-			mask = mask << 8;
-			shift += 8;
-		}
-
-		String debugCmd = "";
-		for (int j = 0; j < 5; j++) {
-			for (int i = 7; i >= 0; i--) {
-				if ((raw[j] & (1 << i)) != 0)
-					debugCmd += "1";
-				else
-					debugCmd += "0";
-			}
-			debugCmd += " ";
-		}
-		System.out.println(debugCmd);
-		
-		outputStream.write(raw);
+	private void sendCommand(int opcode, int data) {
+		encoder.addCommand(opcode, data);
 	}
 	
 	/**
-	 * Sends a short command to the given stream.
+	 * Adds a short command to the commands waiting to be sent.
 	 * 
 	 * This method is intended to be used for short commands, but can also be called
 	 * with long command opcodes if the data portion is to be set to 0.
 	 * 
 	 * @param opcode	one byte operation code
-	 * @throws IOException if writing to stream fails
 	 */
-	private void sendCommand(int opcode) throws IOException {
-		byte raw = (byte)opcode;
-		
-//		String debugCmd = "";
-//		for (int i = 7; i >= 0; i--) {
-//			if ((raw & (1 << i)) != 0)
-//				debugCmd += "1";
-//			else
-//				debugCmd += "0";
-//		}
-//		System.out.println(debugCmd);
-
-		outputStream.write(raw);
+	private void sendCommand(int opcode) {
+		encoder.addCommand(opcode);
 	}
 
 	/**
-	 * Reads <code>channels</code> / 8 bytes from stream and compiles them into a single integer.
+	 * Sends all commands waiting to be sent to the device with a single write.
 	 * 
-	 * @param channels number of channels to read (must be multiple of 8)
-	 * @return	integer containing four bytes read
-	 * @throws IOException if stream reading fails
+	 * @throws IOException if writing to stream fails
 	 */
-	private int readSample(int channels) throws IOException, InterruptedException {
-		int v, value = 0;
+	private void flushCommands() throws IOException {
+		encoder.flush(outputStream);
+	}
 
-		for (int i = 0; i < channels / 8; i++) {
-			if (enabledGroups[i]) {
-				v = inputStream.read();
-			} else {
-				v = 0;
-			}
-			if (v < 0 || Thread.interrupted())
-				throw new InterruptedException("Data readout interrupted.");
-			value |= v << (8 * i);
-		}
+	/**
+	 * Sends a long command setting a configuration register, unless the register
+	 * is already known to hold the given value.
+	 * The device keeps its registers when reset, so values sent during earlier runs remain valid
+	 * as long as the port stays open.
+	 * 
+	 * @param opcode	one byte operation code
+	 * @param data		four byte data portion
+	 */
+	private void sendRegister(int opcode, int data) {
+		Integer value = Integer.valueOf(data);
+		Integer key = Integer.valueOf(opcode);
+		if (value.equals(registers.get(key)))
+			return;
+		sendCommand(opcode, data);
+		registers.put(key, value);
+	}
 
-		return (value);
+	/**
+	 * Forgets everything known about the attached device.
+	 * The next run will reset and identify the device and send all configuration registers.
+	 */
+	private void resetSession() {
+		identified = false;
+		registers.clear();
 	}
 
 	/**
@@ -555,6 +607,8 @@ public class Device extends Object {
 				throw new InterruptedException("Data readout interrupted.");
 			value |= v << (8 * i);
 		}
+		if (trace != null)
+			trace.dataReceived(4);
 
 		return (value);
 	}
@@ -567,25 +621,57 @@ public class Device extends Object {
 	 * @throws InterruptedException if a read time out occurs after trigger match or stop() was called before trigger match
 	 */
 	public CapturedData run() throws IOException, InterruptedException {
-		
-		running = true;
+		boolean completed = false;
+		try {
+			CapturedData data = capture();
+			completed = true;
+			return (data);
+		} finally {
+			// device state is unknown after a failed run, so start over next time
+			if (!completed)
+				resetSession();
+		}
+	}
 
-		// send reset 5 times because in worst case first 4 are interpreted as data of long command
-		for (int i = 0; i < 5; i++)
-			sendCommand(RESET);
+	/**
+	 * Performs a single run as described in <code>run()</code>.
+	 * Reset and identification are skipped if the device has already been identified on the attached port,
+	 * configuration registers are only sent if their value has changed since they were last sent.
+	 * @return captured data
+	 * @throws IOException when writing to or reading from device fails
+	 * @throws InterruptedException if a read time out occurs after trigger match or stop() was called before trigger match
+	 */
+	private CapturedData capture() throws IOException, InterruptedException {
 		
-		// check if device is ready
-		sendCommand(ID);
-		int id = 0;
-		try {
-			id = readInteger();
-		} catch (Exception e) { /* don't care */ }
-		System.out.println("Device ID: 0x" + Integer.toHexString(id));
-		if (id == 0x534c4130) { // SLA0
-			throw new IOException("Device is obsolete. Please upgrade Firmware.");
-		} else if (id != 0x534c4131) { // SLA1
-			throw new IOException("Device not found.");
+		running = true;
+		metrics = new CaptureMetrics();
+		metrics.setAttachTime(attachTime);
+		attachTime = 0;
+		long started = System.nanoTime();
+
+		if (!identified) {
+			// send reset 5 times because in worst case first 4 are interpreted as data of long command
+			for (int i = 0; i < 5; i++)
+				sendCommand(RESET);
+			
+			// check if device is ready
+			sendCommand(ID);
+			flushCommands();
+			int id = 0;
+			try {
+				id = readInteger();
+			} catch (Exception e) { /* don't care */ }
+			System.out.println("Device ID: 0x" + Integer.toHexString(id));
+			if (id == 0x534c4130) { // SLA0
+				throw new IOException("Device is obsolete. Please upgrade Firmware.");
+			} else if (id != 0x534c4131 && id != 0x534c4132) { // SLA1, SLA2 (with run length encoding)
+				throw new IOException("Device not found.");
+			}
+			rleUnsupported = (id != 0x534c4132);
+			identified = true;
 		}
+		metrics.setHandshakeTime(System.nanoTime() - started);
+		started = System.nanoTime();
 		
 		// configure device
 		int stopCounter = (int)(size * ratio);
@@ -593,18 +679,18 @@ public class Device extends Object {
 		int effectiveStopCounter;
 		if (triggerEnabled) {
 			for (int i = 0; i < TRIGGER_STAGES; i++) {
-				sendCommand(SETTRIGMASK + 4 * i, triggerMask[i]);
-				sendCommand(SETTRIGVAL + 4 * i, triggerValue[i]);
-				sendCommand(SETTRIGCFG + 4 * i, triggerConfig[i]);
+				sendRegister(SETTRIGMASK + 4 * i, triggerMask[i]);
+				sendRegister(SETTRIGVAL + 4 * i, triggerValue[i]);
+				sendRegister(SETTRIGCFG + 4 * i, triggerConfig[i]);
 			}
 			effectiveStopCounter = stopCounter;
 		} else {
-			sendCommand(SETTRIGMASK, 0);
-			sendCommand(SETTRIGVAL, 0);
-			sendCommand(SETTRIGCFG, TRIGGER_CAPTURE);
+			sendRegister(SETTRIGMASK, 0);
+			sendRegister(SETTRIGVAL, 0);
+			sendRegister(SETTRIGCFG, TRIGGER_CAPTURE);
 			effectiveStopCounter = readCounter;
 		}
-		sendCommand(SETDIVIDER, divider);
+		sendRegister(SETDIVIDER, divider);
 
 		int flags = 0;
 		if (clockSource == CLOCK_EXTERNAL_RISING || clockSource == CLOCK_EXTERNAL_FALLING) {
@@ -619,18 +705,23 @@ public class Device extends Object {
 					flags |= FLAG_DISABLE_G0 << i;
 					flags |= FLAG_DISABLE_G2 << i;
 				}
-			sendCommand(SETSIZE, (((effectiveStopCounter - 8) & 0x7fff8) << 13) | (((readCounter & 0x7fff8) >> 3) - 1));
+			sendRegister(SETSIZE, (((effectiveStopCounter - 8) & 0x7fff8) << 13) | (((readCounter & 0x7fff8) >> 3) - 1));
 		} else {
 			if (filterEnabled && isFilterAvailable())
 				flags |= FLAG_FILTER;
+			if (rleEnabled && !rleUnsupported)
+				flags |= FLAG_RLE;
+			else if (rleEnabled)
+				System.out.println("Warning: Device firmware does not support run length encoding. Transferring uncompressed data.");
 			for (int i = 0; i < 4; i++)
 				if (!enabledGroups[i])
 					flags |= FLAG_DISABLE_G0 << i;
-			sendCommand(SETSIZE, (((effectiveStopCounter - 4) & 0x3fffc) << 14) | (((readCounter & 0x3fffc) >> 2) - 1));
+			sendRegister(SETSIZE, (((effectiveStopCounter - 4) & 0x3fffc) << 14) | (((readCounter & 0x3fffc) >> 2) - 1));
 		}
-		System.out.println("Flags: " + Integer.toString(flags, 2));
-		sendCommand(SETFLAGS, flags);
+		sendRegister(SETFLAGS, flags);
 		sendCommand(RUN);
+		flushCommands();
+		metrics.setConfigurationTime(System.nanoTime() - started);
 
 		// check if data needs to be multiplexed
 		int channels;
@@ -643,31 +734,21 @@ public class Device extends Object {
 			samples = (readCounter & 0xffffc);
 		}
 
-		int[] buffer = new int[samples];
-
-		// wait for first byte forever (trigger could cause long delay)
-		for (boolean wait = true; wait == true;) {
-			try {
-				buffer[samples - 1] =  readSample(channels);
-				wait = false;
-			} catch (InterruptedException e) {
-				if (!running) {
-					percentageDone = -1;
-					throw e;
-				}
-			}
-		}
-		
-		// read all other samples
-		try {
-			for (int i = samples - 2; i >= 0 && true; i--) {
-				buffer[i] = readSample(channels);
-				percentageDone = 100 - (100 * i) / buffer.length;
-			}
-		} finally {
-			percentageDone = -1;
+		// determine the groups the device will actually transmit
+		int groups = 0;
+		int[] shifts = new int[channels / 8];
+		for (int i = 0; i < channels / 8; i++)
+			if (enabledGroups[i])
+				shifts[groups++] = 8 * i;
+
+		// with run length encoding the highest transmitted bit marks repeat counts instead of a channel
+		int rleFlag = 0;
+		int capturedChannels = enabledChannels;
+		if ((flags & FLAG_RLE) != 0 && groups > 0) {
+			rleFlag = 1 << (8 * groups - 1);
+			capturedChannels &= ~(1 << (shifts[groups - 1] + 7));
 		}
-		
+
 		// collect additional information for CapturedData
 		int pos = CapturedData.NOT_AVAILABLE;
 		if (triggerEnabled)
@@ -676,7 +757,113 @@ public class Device extends Object {
 		if (clockSource == CLOCK_INTERNAL)
 			rate = demux ? 2*CLOCK / (divider + 1) : CLOCK / (divider + 1);
 
-		return (new CapturedData(buffer, pos, rate, channels, enabledChannels));
+		int length = samples * groups;
+		if (length == 0)
+			return (new CapturedData(new int[samples], pos, rate, channels, capturedChannels));
+
+		// keep samples as transmitted, using only as many bytes per sample as groups are enabled
+		PackedSampleStore store = new PackedSampleStore(samples, shifts, groups);
+		CapturedData data = new CapturedData(store, pos, rate, channels, new int[] { capturedChannels });
+
+		// let a separate thread drain the port while samples are compiled on this one
+		ByteRing ring = new ByteRing(RING_SIZE);
+		Reader reader = new Reader(ring, length, rleFlag != 0, metrics);
+		Thread readerThread = new Thread(reader, "Sample Reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+
+		int blockSize = (READ_BLOCK_SIZE / groups) * groups;
+		if (readBuffer == null || readBuffer.length < blockSize)
+			readBuffer = new byte[blockSize];
+		
+		// compile samples as they come in, publishing them as soon as they are complete
+		int compiled = 0;
+		try {
+			while (compiled < samples) {
+				if (!ring.waitForData(groups)) {
+					Exception e = reader.getFailure();
+					if (e instanceof IOException)
+						throw (IOException)e;
+					throw (InterruptedException)e;
+				}
+				int count = ring.read(readBuffer, 0, (Math.min(ring.available(), blockSize) / groups) * groups);
+				long decodeStart = System.nanoTime();
+				compiled = compileSamples(store, compiled, count, groups, rleFlag);
+				metrics.addDecodeTime(System.nanoTime() - decodeStart, compiled);
+				percentageDone = (int)((100L * compiled) / samples);
+				if (captureListener != null)
+					captureListener.samplesReceived(data, samples - compiled);
+			}
+		} finally {
+			ring.cancel();
+			percentageDone = -1;
+			// make sure the reader has let go of the port before it is used again
+			boolean interrupted = false;
+			while (readerThread.isAlive()) {
+				try {
+					readerThread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		return (data);
+	}
+	
+	/**
+	 * Compiles samples from raw bytes in the read buffer.
+	 * As the device sends the newest sample first, the sample buffer is filled from its end.
+	 * <p>
+	 * If run length encoding is used, a transmitted value with the RLE flag set is a count record.
+	 * Its remaining bits give the number of times the preceding sample is repeated.
+	 * 
+	 * Samples are stored packed as transmitted; the store moves the groups to their channel positions when read.
+	 * 
+	 * @param store sample store to fill
+	 * @param compiled number of samples already compiled
+	 * @param count number of bytes in read buffer (must be multiple of groups)
+	 * @param groups number of transmitted groups
+	 * @param rleFlag bit marking count records in transmitted values or 0 if run length encoding is not used
+	 * @return number of samples compiled after this call
+	 */
+	private int compileSamples(PackedSampleStore store, int compiled, int count, int groups, int rleFlag) {
+		int samples = (int)store.getSize();
+		int offset = 0;
+		while (offset < count && compiled < samples) {
+			int raw = 0;
+			for (int j = 0; j < groups; j++)
+				raw |= (readBuffer[offset++] & 0xff) << (8 * j);
+			if ((raw & rleFlag) != 0 && compiled > 0) {
+				int repeats = Math.min(raw & ~rleFlag, samples - compiled);
+				int value = store.getPacked(samples - compiled);
+				for (int i = 0; i < repeats; i++)
+					store.setPacked(samples - 1 - compiled++, value);
+			} else {
+				store.setPacked(samples - 1 - compiled++, raw);
+			}
+		}
+		return (compiled);
+	}
+	
+	/**
+	 * Sets the listener to be informed about samples while they arrive.
+	 * Simple implementation that will only call the last set listener.
+	 * @param listener listener to inform or <code>null</code> to disable streaming
+	 */
+	public void setCaptureListener(CaptureListener listener) {
+		captureListener = listener;
+	}
+	
+	/**
+	 * Sets the trace to inform about all communication with the device.
+	 * @param trace trace to use or <code>null</code> to disable tracing
+	 */
+	public void setProtocolTrace(ProtocolTrace trace) {
+		this.trace = trace;
+		encoder.setTrace(trace);
 	}
 	
 	/**
@@ -687,9 +874,95 @@ public class Device extends Object {
 		running = false;
 	}
 	
-	private SerialPort port;
+	/**
+	 * Drains the input stream into a ring buffer until all expected bytes have been received.
+	 * Runs in its own thread, so the port is read continuously while samples are compiled.
+	 */
+	private class Reader implements Runnable {
+		
+		/**
+		 * Creates a new reader.
+		 * @param ring ring buffer to write received bytes to
+		 * @param length maximum number of bytes to receive
+		 * @param compressed <code>true</code> if data is run length encoded and may end before <code>length</code> bytes
+		 * @param metrics metrics to record received data in
+		 */
+		public Reader(ByteRing ring, int length, boolean compressed, CaptureMetrics metrics) {
+			this.ring = ring;
+			this.length = length;
+			this.compressed = compressed;
+			this.metrics = metrics;
+			this.failure = null;
+		}
+		
+		/**
+		 * Reads bytes until all have been received, the consumer has cancelled or an error occurs.
+		 */
+		public void run() {
+			byte[] block = new byte[READ_BLOCK_SIZE];
+			int received = 0;
+			int idle = 0;
+			try {
+				while (received < length && !ring.isCancelled()) {
+					// compressed data ends before length is reached, so poll instead of blocking
+					// to notice as soon as the consumer has decoded all samples and cancelled
+					if (compressed && received > 0 && idle < RLE_POLLS && inputStream.available() == 0) {
+						Thread.sleep(1);
+						idle++;
+						continue;
+					}
+					idle = 0;
+					int count = inputStream.read(block, 0, Math.min(length - received, block.length));
+					if (count <= 0) {
+						// wait for first block forever (trigger could cause long delay)
+						if (received == 0 && running && !ring.isCancelled())
+							continue;
+						throw new InterruptedException("Data readout interrupted.");
+					}
+					metrics.dataReceived(count);
+					if (trace != null)
+						trace.dataReceived(count);
+					if (!ring.writeFully(block, 0, count))
+						break;
+					received += count;
+				}
+			} catch (Exception e) {
+				failure = e;
+			} finally {
+				ring.close();
+			}
+		}
+
+		/**
+		 * Returns the exception that made the reader stop before all bytes have been received.
+		 * @return exception to be thrown by the consumer
+		 */
+		public Exception getFailure() {
+			if (failure instanceof IOException || failure instanceof InterruptedException)
+				return (failure);
+			return (new InterruptedException("Data readout interrupted."));
+		}
+		
+		private ByteRing ring;
+		private int length;
+		private boolean compressed;
+		private CaptureMetrics metrics;
+		private volatile Exception failure;
+	}
+	
+	private Transport transport;
+	private String portName;
+	private int portRate;
+	private boolean identified;
+	private HashMap registers;
+	private long attachTime;
+	private CaptureMetrics metrics;
 	private InputStream inputStream;
 	private OutputStream outputStream;
+	private CommandEncoder encoder;
+	private ProtocolTrace trace;
+	private byte[] readBuffer;
+	private CaptureListener captureListener;
 	
 	private boolean running;
 	private int percentageDone;
@@ -697,6 +970,8 @@ public class Device extends Object {
 	private int clockSource;
 	private boolean demux;
 	private boolean filterEnabled;
+	private boolean rleEnabled;
+	private boolean rleUnsupported;
 	private boolean triggerEnabled;
 	private int triggerMask[];
 	private int triggerValue[];
@@ -28,7 +28,11 @@ import java.awt.Insets;
 import java.awt.LayoutManager;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -43,8 +47,11 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
+import org.sump.analyzer.transport.DeviceEmulator;
+import org.sump.analyzer.transport.PortListener;
 import org.sump.util.Properties;
 
 // TODO: when the dialog is closed using the window decoration's close function, close() is not called
@@ -59,7 +66,7 @@ import org.sump.util.Properties;
  * @author Michael "Mr. Sump" Poppitz
  *
  */
-public class DeviceController extends JComponent implements ActionListener, Runnable, Configurable {
+public class DeviceController extends JComponent implements ActionListener, Runnable, Configurable, PortListener {
 	/** dialog showing and waiting for user action */
 	public final static int IDLE = 0;
 	/** capture currently running */
@@ -113,15 +120,21 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
 		device = new Device();
+		devices = new Device[] { device };
 
 		// connection pane
 		JPanel connectionPane = new JPanel();
-		connectionPane.setLayout(new GridLayout(2, 2, 5, 5));
+		connectionPane.setLayout(new GridLayout(3, 2, 5, 5));
 		connectionPane.setBorder(BorderFactory.createCompoundBorder(
 				BorderFactory.createTitledBorder("Connection Settings"),
 				BorderFactory.createEmptyBorder(5, 5, 5, 5)
 		));		String[] ports = Device.getPorts();
 		portSelect = new JComboBox(ports);
+		portSelect.setEditable(true); // allows to enter tcp://host:port addresses
+		portSelected = false;
+		// ports are added when the scan has completed (see portsChanged())
+		Device.getPortRegistry().addPortListener(this);
+		Device.getPortRegistry().refresh();
 		connectionPane.add(new JLabel("Analyzer Port:"));
 		connectionPane.add(portSelect);
 
@@ -135,11 +148,15 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		connectionPane.add(new JLabel("Port Speed (SW1,SW0):"));
 		connectionPane.add(portRateSelect);
 
+		sessionEnable = new JCheckBox("Keep Open");
+		connectionPane.add(new JLabel("Connection:"));
+		connectionPane.add(sessionEnable);
+
 		add(connectionPane, createConstraints(0, 0, 1, 1, 1.0, 0.5));
 		
 		// settings pane
 		JPanel settingsPane = new JPanel();
-		settingsPane.setLayout(new GridLayout(5, 2, 5, 5));
+		settingsPane.setLayout(new GridLayout(6, 2, 5, 5));
 		settingsPane.setBorder(BorderFactory.createCompoundBorder(
 				BorderFactory.createTitledBorder("Analyzer Settings"),
 				BorderFactory.createEmptyBorder(5, 5, 5, 5)
@@ -195,6 +212,11 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		settingsPane.add(new JLabel("Noise Filter: "));
 		settingsPane.add(filterEnable);
 
+		rleEnable = new JCheckBox("Enable");
+		rleEnable.setEnabled(false);
+		settingsPane.add(new JLabel("Run Length Encoding: "));
+		settingsPane.add(rleEnable);
+
 		// trigger pane
 		JPanel triggerPane = new JPanel();
 		triggerPane.setLayout(new GridBagLayout());
@@ -294,6 +316,9 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		add(cancel, createConstraints(2, 3, 1, 1, 0.5, 0));
 		
 		capturedData = null;
+		captureListener = null;
+		trace = null;
+		metricsLog = null;
 		timer = null;
 		worker = null;
 		status = IDLE;
@@ -333,6 +358,47 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		return (capturedData);
 	}
 
+	/**
+	 * Sets the listener that receives samples while a capture is running.
+	 * 
+	 * @param listener listener to be informed about received samples
+	 */
+	public void setCaptureListener(CaptureListener listener) {
+		captureListener = listener;
+		for (int i = 0; i < devices.length; i++)
+			devices[i].setCaptureListener(listener);
+	}
+
+	/**
+	 * Sets the trace to be informed about all communication with the devices.
+	 * If the trace is a {@link ProtocolTraceBuffer}, its contents are printed when a capture fails.
+	 * 
+	 * @param trace trace to use or <code>null</code> to disable tracing
+	 */
+	public void setProtocolTrace(ProtocolTrace trace) {
+		this.trace = trace;
+		for (int i = 0; i < devices.length; i++)
+			devices[i].setProtocolTrace(trace);
+	}
+
+	/**
+	 * Returns timing and throughput figures of the last capture.
+	 * 
+	 * @return metrics of last capture or <code>null</code> if nothing has been captured yet
+	 */
+	public CaptureMetrics getMetrics() {
+		return (device.getMetrics());
+	}
+
+	/**
+	 * Sets a file the metrics of every completed capture are appended to.
+	 * 
+	 * @param file log file or <code>null</code> to disable logging to file
+	 */
+	public void setMetricsLog(File file) {
+		metricsLog = file;
+	}
+
 	/**
 	 * Extracts integers from strings regardless of trailing trash.
 	 * 
@@ -350,6 +416,33 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		return (val);
 	}
 
+	/**
+	 * Updates the port selection with the ports found by the port registry.
+	 * Should not be called externally.
+	 * @param portNames names of all serial ports found
+	 */
+	public void portsChanged(String[] portNames) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				updatePorts();
+			}
+		});
+	}
+
+	/**
+	 * Replaces the entries of the port selection with the currently known ports.
+	 * The selected port is kept, unless it is the emulator selected only because no ports were known yet.
+	 */
+	private void updatePorts() {
+		Object selected = portSelect.getSelectedItem();
+		String[] ports = Device.getPorts();
+		portSelect.removeAllItems();
+		for (int i = 0; i < ports.length; i++)
+			portSelect.addItem(ports[i]);
+		if (selected != null && (portSelected || !DeviceEmulator.NAME.equals(selected)))
+			portSelect.setSelectedItem(selected);
+	}
+
 	/**
 	 * Sets the enabled state of all available trigger check boxes and the ratio select.
 	 * @param enable <code>true</code> to enable trigger configuration fields, <code>false</code> to disable them
@@ -393,6 +486,7 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		captureButton.setEnabled(enable);
 		portSelect.setEnabled(enable);
 		portRateSelect.setEnabled(enable);
+		sessionEnable.setEnabled(enable);
 		speedSelect.setEnabled(enable);
 		sizeSelect.setEnabled(enable);
 		updateFields(enable);
@@ -408,6 +502,11 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		triggerEnable.setSelected(device.isTriggerEnabled());
 		setTriggerEnabled(device.isTriggerEnabled());
 		filterEnable.setEnabled(device.isFilterAvailable() && enable);
+		rleEnable.setEnabled(device.isRleAvailable() && enable);
+		if (device.isRleUnsupported())
+			rleEnable.setToolTipText("The firmware of the last identified device does not support run length encoding.");
+		else
+			rleEnable.setToolTipText("Requires firmware identifying as SLA2, data is transferred uncompressed otherwise.");
 		for (int i = 0; i < channelGroup.length; i++)
 			channelGroup[i].setEnabled(enable && (i < device.getAvailableChannelCount() / 8));
 		speedSelect.setEnabled(device.getClockSource() == Device.CLOCK_INTERNAL);
@@ -415,6 +514,14 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	
 	/** writes the dialog settings to the device */
 	private void updateDevice() {
+		updateDevice(device);
+	}
+
+	/**
+	 * Writes the dialog settings to the given device.
+	 * @param device device to configure
+	 */
+	private void updateDevice(Device device) {
 		String value;
 		
 		// set clock source
@@ -457,6 +564,9 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 		// set filter
 		device.setFilterEnabled(filterEnable.isSelected());
 
+		// set run length encoding
+		device.setRleEnabled(rleEnable.isSelected());
+
 		// set trigger
 		boolean triggerEnabled = triggerEnable.isSelected();
 		device.setTriggerEnabled(triggerEnabled);
@@ -508,19 +618,33 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	 * Starts capturing from device. Should not be called externally.
 	 */
 	public void run()  {
-		// TODO: need to check if attach was successful
-		device.attach(
-			(String)portSelect.getSelectedItem(),
-			smartParseInt((String)portRateSelect.getSelectedItem())
-		);
+		for (int i = 0; i < devices.length; i++)
+			if (!keepOpen || !devices[i].isAttached(portNames[i], portRate))
+				if (!devices[i].attach(portNames[i], portRate)) {
+					capturedData = null;
+					errorMessage = "Cannot open port " + portNames[i] + ".";
+					System.out.println("Run aborted: " + errorMessage);
+					for (int j = 0; j < devices.length; j++)
+						devices[j].detach();
+					status = ABORTED;
+					return;
+				}
 	
 		status = RUNNING;
 		
 		try {
 			System.out.println("Run started");
 			errorMessage = "";
-			capturedData = device.run();
+			if (devices.length > 1) {
+				MultiDeviceCapture capture = new MultiDeviceCapture(devices);
+				capture.setCaptureListener(captureListener);
+				capturedData = capture.run();
+			} else {
+				device.setCaptureListener(captureListener);
+				capturedData = device.run();
+			}
 			System.out.println("Run completed");
+			logMetrics();
 			status = DONE;
 		} catch (Exception ex) {
 			// TODO: could make sense to also return half read captures if array length is corrected
@@ -530,11 +654,43 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 			if (!(ex instanceof InterruptedException)) {
 				errorMessage = ex.getMessage();
 				ex.printStackTrace(System.out);
+				if (trace instanceof ProtocolTraceBuffer) {
+					System.out.println("Protocol trace:");
+					((ProtocolTraceBuffer)trace).print(System.out);
+				}
 			}
 		}
-		device.detach();
+		if (!keepOpen || status != DONE)
+			for (int i = 0; i < devices.length; i++)
+				devices[i].detach();
 	}
 	
+	/**
+	 * Prints the metrics of a completed capture and appends them to the metrics log, if one is set.
+	 * When capturing from several ports, one line is logged per device.
+	 * Each line starts with the setup overhead of the capture, which keeping the port open saves on repeated captures.
+	 */
+	private void logMetrics() {
+		long now = System.currentTimeMillis();
+		String[] lines = new String[devices.length];
+		for (int i = 0; i < devices.length; i++) {
+			lines[i] = devices[i].getMetrics().toString();
+			if (devices.length > 1)
+				lines[i] = portNames[i] + ": " + lines[i];
+			System.out.println("Capture metrics: " + lines[i]);
+		}
+		if (metricsLog != null) {
+			try {
+				PrintWriter writer = new PrintWriter(new FileWriter(metricsLog, true));
+				for (int i = 0; i < lines.length; i++)
+					writer.println(new Date(now) + ": " + lines[i]);
+				writer.close();
+			} catch (IOException e) {
+				System.out.println("Error: Cannot write metrics log: " + e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Properly closes the dialog.
 	 * This method makes sure timer and worker thread are stopped before the dialog is closed.
@@ -546,19 +702,52 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 			timer = null;
 		}
 		if (worker != null) {
-			device.stop(); // lets hope no one gets here before device.run() is called
+			for (int i = 0; i < devices.length; i++)
+				devices[i].stop(); // lets hope no one gets here before device.run() is called
 			worker.interrupt();
 			worker = null;
 		}
 		dialog.hide();
 	}
 	
+	/**
+	 * Provides one device per selected port. The first port is always served by the primary device,
+	 * which reports progress and metrics. Devices of ports no longer selected are detached.
+	 * Additional devices get the same settings as the primary device.
+	 */
+	private void updateDevices() {
+		for (int i = 0; i < portNames.length; i++)
+			portNames[i] = portNames[i].trim();
+
+		Device[] current = new Device[portNames.length];
+		for (int i = 0; i < devices.length; i++)
+			if (i < current.length)
+				current[i] = devices[i];
+			else
+				devices[i].detach();
+		for (int i = 1; i < current.length; i++) {
+			if (current[i] == null) {
+				current[i] = new Device();
+				current[i].setProtocolTrace(trace);
+			}
+			updateDevice(current[i]);
+		}
+		current[0] = device;
+		devices = current;
+	}
+
 	/**
 	 * Starts the capture thread.
 	 */
 	private void startCapture() {
 		try {
 			setDialogEnabled(false);
+			// port list may change while capturing, so use the current selection
+			portNames = ((String)portSelect.getSelectedItem()).split(",");
+			portRate = smartParseInt((String)portRateSelect.getSelectedItem());
+			keepOpen = sessionEnable.isSelected();
+			updateDevices();
+			portSelected = true;
 			timer = new Timer(100, this);
 			worker = new Thread(this);
 			timer.start();
@@ -634,13 +823,19 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	}
 
 	public void readProperties(Properties properties) {
-		selectByValue(portSelect, properties.getProperty(NAME + ".port"));
+		String port = properties.getProperty(NAME + ".port");
+		if (port != null) {
+			portSelect.setSelectedItem(port);
+			portSelected = true;
+		}
 		selectByValue(portRateSelect, properties.getProperty(NAME + ".portRate"));
+		sessionEnable.setSelected("true".equals(properties.getProperty(NAME + ".keepOpen")));
 		selectByValue(sourceSelect, properties.getProperty(NAME + ".source"));
 		selectByValue(speedSelect, properties.getProperty(NAME + ".speed"));
 		selectByValue(sizeSelect, properties.getProperty(NAME + ".size"));
 		selectByValue(ratioSelect, properties.getProperty(NAME + ".ratio"));
 		filterEnable.setSelected("true".equals(properties.getProperty(NAME + ".filter")));
+		rleEnable.setSelected("true".equals(properties.getProperty(NAME + ".rle")));
 		triggerEnable.setSelected("true".equals(properties.getProperty(NAME + ".trigger")));
 		selectByValue(triggerTypeSelect, properties.getProperty(NAME + ".triggerType"));
 
@@ -675,11 +870,13 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	public void writeProperties(Properties properties) {
 		properties.setProperty(NAME + ".port", (String)portSelect.getSelectedItem());
 		properties.setProperty(NAME + ".portRate", (String)portRateSelect.getSelectedItem());
+		properties.setProperty(NAME + ".keepOpen", sessionEnable.isSelected()?"true":"false");
 		properties.setProperty(NAME + ".source", (String)sourceSelect.getSelectedItem());
 		properties.setProperty(NAME + ".speed", (String)speedSelect.getSelectedItem());
 		properties.setProperty(NAME + ".size", (String)sizeSelect.getSelectedItem());
 		properties.setProperty(NAME + ".ratio", (String)ratioSelect.getSelectedItem());
 		properties.setProperty(NAME + ".filter", filterEnable.isSelected()?"true":"false");
+		properties.setProperty(NAME + ".rle", rleEnable.isSelected()?"true":"false");
 		properties.setProperty(NAME + ".trigger", triggerEnable.isSelected()?"true":"false");
 		properties.setProperty(NAME + ".triggerType", (String)triggerTypeSelect.getSelectedItem());
 
@@ -718,6 +915,7 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	 */
 	public int showCaptureDialog(JFrame frame) throws Exception {
 		status = IDLE;
+		Device.getPortRegistry().refresh();
 		initDialog(frame);
 		setDialogEnabled(true);
 		dialog.show();
@@ -744,11 +942,18 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	
 	private JComboBox portSelect;
 	private JComboBox portRateSelect;
+	private JCheckBox sessionEnable;
+	private boolean portSelected;
+	private String[] portNames;
+	private Device[] devices;
+	private int portRate;
+	private boolean keepOpen;
 	private JComboBox sourceSelect;
 	private JComboBox speedSelect;
 	private JComboBox sizeSelect;
 	private JComboBox ratioSelect;
 	private JCheckBox filterEnable;
+	private JCheckBox rleEnable;
 	private JCheckBox triggerEnable;
 	private JComboBox triggerTypeSelect;
 	private JTabbedPane triggerStageTabs;
@@ -765,7 +970,10 @@ public class DeviceController extends JComponent implements ActionListener, Runn
 	
 	private JDialog dialog;
 	private Device device;
+	private CaptureListener captureListener;
+	private ProtocolTrace trace;
 	private CapturedData capturedData;
+	private File metricsLog;
 	
 	private int triggerStages;
 	
@@ -19,14 +19,19 @@
 package org.sump.analyzer;
 
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.Graphics;
 import java.awt.Rectangle;
+import java.awt.Window;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
+import java.util.Arrays;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 
 import org.sump.util.Properties;
 
@@ -37,12 +42,18 @@ import org.sump.util.Properties;
  * <p>
  * Component size changes with the size of the diagram.
  * Therefore it should only be used from within a JScrollPane.
+ * <p>
+ * When registered as {@link CaptureListener} the diagram displays samples while a capture is still in progress.
+ * <p>
+ * Once a capture is complete, the diagram is rendered in tiles kept in a {@link TileCache},
+ * so scrolling over parts already shown only copies images. Channel labels are drawn on top of the tiles.
+ * Tiles are rendered on worker threads, one job for each group shown, so the user interface stays responsive.
  *
  * @version 0.7
  * @author Michael "Mr. Sump" Poppitz
  *
  */
-public class Diagram extends JComponent implements MouseMotionListener, Configurable {
+public class Diagram extends JComponent implements MouseMotionListener, Configurable, CaptureListener {
 
 	/**
 	 * Create a new empty diagram to be placed in a container.
@@ -72,9 +83,22 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 
 		this.settings = new DiagramSettings();
 		this.capturedData = null;
+		this.firstValid = 0;
+		this.streaming = false;
+		this.streamLock = new Object();
+		this.streamData = null;
+		this.updatePending = false;
 		
 		this.labels = new DiagramLabels();
 		// read label file to array
+
+		this.tileCache = new TileCache(Math.min(TILE_CACHE_SIZE, Runtime.getRuntime().maxMemory() / 8));
+		this.renderQueue = new WorkQueue("Diagram Renderer", Math.max(1, Math.min(MAX_RENDER_THREADS, Runtime.getRuntime().availableProcessors())));
+		this.statusQueue = new WorkQueue("Diagram Status", 1);
+		this.dutyCycle = null;
+		this.visibleArea = new Rectangle();
+		this.paintArea = new Rectangle();
+		this.bands = new int[] { 0, 1 };
 	}
 	
 	/**
@@ -85,33 +109,86 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 		if (capturedData == null)
 			return;
 
+		// each group shown is rendered as a separate band of the tiles, the first band includes the time line
 		int height = 20;
-		for (int group = 0; group < capturedData.channels / 8 && group < 4; group++)
-			if (((capturedData.enabledChannels >> (8 * group)) & 0xff) != 0) {
-				if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_CHANNELS) > 0)
-					height += 20 * 8;
-				if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_SCOPE) > 0)
-					height += 133;
-				if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_BYTE) > 0)
-					height += 20;
+		int[] tops = new int[capturedData.channels / 8 + 2];
+		int bandCount = 1;
+		for (int group = 0; group < capturedData.channels / 8; group++)
+			if (((capturedData.enabledWords[group / 4] >> (8 * (group % 4))) & 0xff) != 0) {
+				int groupHeight = getGroupHeight(settings.groupSettings[group % 4]);
+				if (groupHeight > 0 && height > 20)
+					tops[bandCount++] = height + 1;
+				height += groupHeight;
 			}
-		int width = (int)(25 + scale * capturedData.values.length);
+		tops[bandCount] = height;
+		int[] newBands = new int[bandCount + 1];
+		System.arraycopy(tops, 0, newBands, 0, newBands.length);
+		// tiles are only reused for the same bands, so keep the array unless the layout changed
+		if (!Arrays.equals(bands, newBands))
+			bands = newBands;
+		renderer = null;
+
+		int width = (int)(25 + scale * capturedData.samples.getSize());
 		
 		Rectangle rect = getBounds();
 		rect.setSize(width, height);
 		setBounds(rect);
 		size.width = width;
 		size.height = height;
-		update(this.getGraphics());
+		Graphics g = getGraphics();
+		if (g != null)
+			update(g);
 	}
 	
+	/**
+	 * Returns the height of a group.
+	 * @param groupSettings display settings of the group
+	 * @return height in pixels
+	 */
+	private int getGroupHeight(int groupSettings) {
+		int height = 0;
+		if ((groupSettings & DiagramSettings.DISPLAY_CHANNELS) > 0)
+			height += 20 * 8;
+		if ((groupSettings & DiagramSettings.DISPLAY_SCOPE) > 0)
+			height += 133;
+		if ((groupSettings & DiagramSettings.DISPLAY_BYTE) > 0)
+			height += 20;
+		return (height);
+	}
+
 	/**
 	 * Sets the captured data object to use for drawing the diagram.
 	 * 
-	 * @param capturedData		captured data to base diagram on
+	 * @param capturedData		captured data to base diagram on, <code>null</code> clears the diagram
 	 */
 	public void setCapturedData(CapturedData capturedData) {
+		synchronized (streamLock) {
+			streamData = null;
+		}
 		this.capturedData = capturedData;
+		this.firstValid = 0;
+		this.streaming = false;
+		this.renderer = null;
+		this.dutyCycle = null;
+		renderQueue.clear();
+		statusQueue.clear();
+		tileCache.clear();
+
+		if (capturedData == null) {
+			repaint();
+			return;
+		}
+		
+		// texts drawn on every repaint are created once
+		channelNames = new String[capturedData.channels];
+		for (int i = 0; i < channelNames.length; i++)
+			channelNames[i] = Integer.toString(i);
+		byteNames = new String[capturedData.channels / 8];
+		scopeNames = new String[capturedData.channels / 8];
+		for (int i = 0; i < byteNames.length; i++) {
+			byteNames[i] = "B" + i;
+			scopeNames[i] = "S" + i;
+		}
 
 		if (capturedData.hasTimingData()) {
 			double step = (100 / scale) / capturedData.rate;
@@ -129,6 +206,53 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 		resize();
 	}
 
+	/**
+	 * Handles samples arriving while a capture is running.
+	 * May be called from any thread. The diagram is updated on the event dispatch thread,
+	 * updates arriving while one is still pending are merged.
+	 * 
+	 * @param data captured data currently being filled
+	 * @param first index of the oldest valid sample
+	 */
+	public void samplesReceived(CapturedData data, int first) {
+		synchronized (streamLock) {
+			streamData = data;
+			streamFirst = first;
+			if (updatePending)
+				return;
+			updatePending = true;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				updateStream();
+			}
+		});
+	}
+
+	/**
+	 * Displays the samples received so far. Must be called on the event dispatch thread.
+	 */
+	private void updateStream() {
+		CapturedData data;
+		int first;
+		synchronized (streamLock) {
+			data = streamData;
+			first = streamFirst;
+			updatePending = false;
+		}
+		if (data == null)
+			return;
+
+		if (data != capturedData) {
+			setCapturedData(data);
+			// newest samples arrive first, so show the end of the diagram
+			scrollRectToVisible(new Rectangle(size.width - 1, 0, 1, 1));
+		}
+		firstValid = first;
+		streaming = true;
+		repaint();
+	}
+
 	/**
 	 * Returns the captured data object currently displayed in the diagram.
 	 * 
@@ -182,8 +306,10 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 	 *
 	 */
 	public void showSettingsDialog(Frame frame) {
-		if (settings.showDialog(frame) == DiagramSettings.OK)
+		if (settings.showDialog(frame) == DiagramSettings.OK) {
+			tileCache.clear();
 			resize();
+		}
 	}
 
 	/**
@@ -196,6 +322,24 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 			resize();
 	}
 
+	/**
+	 * Returns the labels of all channels.
+	 * @return channel labels, unlabeled channels have empty or <code>null</code> labels
+	 */
+	public String[] getLabels() {
+		return (labels.diagramLabels);
+	}
+
+	/**
+	 * Sets the labels of the channels. Labels beyond the channels supported by the labels dialog are ignored.
+	 * @param names new channel labels
+	 */
+	public void setLabels(String[] names) {
+		for (int i = 0; i < labels.diagramLabels.length; i++)
+			labels.diagramLabels[i] = (i < names.length && names[i] != null) ? names[i] : "";
+		repaint();
+	}
+
 	/**
 	 * Gets the dimensions of the full diagram.
 	 * Used to inform the container (preferrably a JScrollPane) about the size.
@@ -212,262 +356,127 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 		return (size);
 	}
 
-	private void drawEdge(Graphics g, int x, int y, boolean falling, boolean rising) {
-		if (scale <= 1) {
-			g.drawLine(x, y, x, y + 14);
-		} else {
-			int edgeX = x;
-			if (scale >= 5)
-				edgeX += (int)(scale * 0.4);
-	
-			if (rising) {
-				g.drawLine(x, y + 14, edgeX, y);
-				g.drawLine(edgeX, y, x + (int)scale, y);
-			}	
-			if (falling) {
-				g.drawLine(x, y, edgeX, y + 14);
-				g.drawLine(edgeX, y + 14, x + (int)scale, y + 14);
-			}	
-		}
-	}
-	/**
-	 * Draws a channel.
-	 * @param g graphics context to draw on
-	 * @param x x offset
-	 * @param y y offset
-	 * @param data array containing the sampled data
-	 * @param n number of channel to display
-	 * @param from index of first sample to display
-	 * @param to index of last sample to display
-	 */
-	private void drawChannel(Graphics g, int x, int y, int[] data, int n, int from, int to) {
-		for (int current = from; current < to;) {
-			int currentX = (int)(x + current * scale);
-			int currentV = (data[current] >> n) & 0x01;
-			int nextV = currentV;
-			int next = current;
-	
-			// scan for the next change
-			do {
-				nextV = (data[++next] >> n) & 0x01;
-			} while ((next < to) && (nextV == currentV));
-			int currentEndX = currentX + (int)(scale * (next - current - 1));
-			
-			// draw straight line up to the point of change and a edge if not at end
-			if (currentV == nextV) {
-				g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX + (int)scale, y + 14 * (1 - currentV));
-			} else {
-				g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX, y + 14 * (1 - currentV));
-				if (currentV > nextV)
-					drawEdge(g, currentEndX, y, true, false);
-				else if (currentV < nextV)
-					drawEdge(g, currentEndX, y, false, true);
-			}
-			current = next;
-		}
-	}
-	
-	private void drawGridLine(Graphics g, Rectangle clipArea, int y) {
-		g.setColor(grid);
-		g.drawLine(clipArea.x, y, clipArea.x + clipArea.width, y);
-	}
-	
 	/**
-	 * Draws a byte bar.
-	 * @param g graphics context to draw on
-	 * @param x x offset
-	 * @param y y offset
-	 * @param data array containing the sampled data
-	 * @param n number of group to display (0-3 for 32 channels)
-	 * @param from index of first sample to display
-	 * @param to index of last sample to display
+	 * Draws the channel labels at the left of the visible area.
+	 * Labels are not part of the tiles, as their position depends on the visible area.
 	 */
-	private int drawGroupByte(Graphics g, int x, int y, int[] data, Rectangle clipArea, int n, int from, int to) {
-		// draw background
-		g.setColor(groupBackground);
-		g.fillRect(clipArea.x, y, clipArea.width, 19);
-		g.setColor(text);
-		g.drawString("B" + n, 5, y + 14);
-		// draw bottom grid line
-		drawGridLine(g, clipArea, y + 19);
-		
-		g.setColor(signal);
-		
-		int yOfs = y + 2;
-		int h = 14;
-
-		for (int current = from; current < to;) {
-			int currentX = (int)(x + current * scale);
-			int currentXSpace = (int)(x + (current - 1) * scale);
-			int currentV = (data[current] >> (8 * n)) & 0xff;
-			int nextV = currentV;
-			int next = current;
+	private void drawLabels(Graphics g, Rectangle clipArea) {
+		String[] names = labels.diagramLabels;
+		int x = Math.max(offsetX, clipArea.x);
+		int bofs = offsetY + 3;
 
-			
-			// scan for the next change
-			do {
-				nextV = (data[++next] >> (8 * n)) & 0xff;
-			} while ((next < to) && (nextV == currentV));
-			int currentEndX = currentX + (int)(scale * (next - current - 1));
-			
-			// draw straight lines up to the point of change and a edge if not at end
-			if (currentV == nextV) {
-				g.drawLine(currentX, yOfs + h, currentEndX + (int)scale, yOfs + h);
-				g.drawLine(currentX, yOfs, currentEndX + (int)scale, yOfs);
-			} else {
-				g.drawLine(currentX, yOfs + h, currentEndX, yOfs + h);
-				g.drawLine(currentX, yOfs, currentEndX, yOfs);
-				drawEdge(g, currentEndX, yOfs, true, true);
+		g.setColor(label);
+		for (int block = 0; block < capturedData.channels / 8; block++)
+			if (((capturedData.enabledWords[block / 4] >> (8 * (block % 4))) & 0xff) != 0) {
+				int groupSettings = settings.groupSettings[block % 4];
+				if ((groupSettings & DiagramSettings.DISPLAY_CHANNELS) > 0)
+					for (int bit = 0; bit < 8; bit++)
+						if (bit + block * 8 < names.length && names[bit + block * 8] != null)
+							g.drawString(names[bit + block * 8], x, 20 * bit + bofs + 14);
+				bofs += getGroupHeight(groupSettings);
 			}
-			
-			// if steady long enough, add hex value
-			if (currentEndX - currentXSpace > 15) {
-				if (currentV >= 0x10)
-					g.drawString(Integer.toString(currentV, 16), (currentXSpace + currentEndX) / 2 - 2, y + 14);
-				else
-					g.drawString("0" + Integer.toString(currentV, 16), (currentXSpace + currentEndX) / 2 - 2, y + 14);
-
-			}
-			
-			current = next;
-		}
-		return (20);
 	}
-	
-	private int drawGroupAnalyzer(Graphics g, int xofs, int yofs, int data[], Rectangle clipArea, int n, int from, int to, String labels[]) {
-		// draw channel separators
-		for (int bit = 0; bit < 8; bit++) {
-			g.setColor(grid);
-			g.drawLine(clipArea.x, 20 * bit + yofs + 19, clipArea.x + clipArea.width, 20 * bit + yofs + 19);
-			g.setColor(text);
-			g.drawString("" + (bit + n * 8), 5, 20 * bit + yofs + 14);
-			g.setColor(label);
-			if(labels[bit + n * 8] != null)
-			{
-				if(clipArea.x < xofs)
-					g.drawString(labels[bit + n * 8], xofs, 20 * bit + yofs + 14);
-				else
-					g.drawString(labels[bit + n * 8], clipArea.x, 20 * bit + yofs + 14);
-			}
-		}
-		
-		// draw actual data
-		g.setColor(signal);
-		for (int bit = 0; bit < 8; bit++)
-			drawChannel(g, xofs, yofs + 20 * bit + 2, data, 8 * n + bit, from, to);
 
-		return (20 * 8);
+	/**
+	 * Returns a hash of all settings affecting the content of tiles.
+	 */
+	private int settingsHash() {
+		int hash = 0;
+		for (int i = 0; i < settings.groupSettings.length; i++)
+			hash = 31 * hash + settings.groupSettings[i];
+		return (hash);
 	}
 
-	private int drawGroupScope(Graphics g, int x, int y, int data[], Rectangle clipArea, int n, int from, int to) {
-		// draw label
-		g.setColor(text);
-		g.drawString("S" + n, 5, y + 70);
-		
-		// draw actual data
-		g.setColor(signal);
-		int last = -1;
-		for (int pos = from; pos < to; pos++) {
-			int val = (255 - ((data[pos] >> (n * 8)) & 0xff)) / 2;
-			if (last >= 0) {
-				g.drawLine(x + (int)((pos - 1) * scale), y + 2 + last, x + (int)(pos * scale), y + 2 + val);
-			}
-			last = val;
+	/**
+	 * Computes the visible part of the diagram like <code>computeVisibleRect</code>,
+	 * which allocates a rectangle for each of the diagram's ancestors.
+	 * @param area rectangle receiving the visible area in diagram coordinates
+	 */
+	private void computeVisibleArea(Rectangle area) {
+		area.setBounds(0, 0, getWidth(), getHeight());
+		int x = 0;
+		int y = 0;
+		Component child = this;
+		for (Container parent = getParent(); parent != null && !(parent instanceof Window); parent = parent.getParent()) {
+			x += child.getX();
+			y += child.getY();
+			SwingUtilities.computeIntersection(-x, -y, parent.getWidth(), parent.getHeight(), area);
+			child = parent;
 		}
-		
-		// draw bottom grid line
-		drawGridLine(g, clipArea, y + 132);
-
-		return (133);
 	}
 
 	/**
 	 * Paints the diagram to the extend necessary.
+	 * While streaming the diagram is drawn directly. Otherwise rendered bands of visible tiles are copied
+	 * from the tile cache, missing bands are queued for rendering on the worker threads and drawn scaled
+	 * from tiles of other zoom levels meanwhile.
 	 */
 	public void paintComponent(Graphics g) {
 		if (capturedData == null)
 			return;
-		
-		int[] data = capturedData.values;
-		boolean hasTiming = capturedData.hasTimingData();
-		boolean hasTrigger = capturedData.hasTriggerData();
-		int channels = capturedData.channels;
-		int enabled = capturedData.enabledChannels;
-		int triggerPosition = capturedData.triggerPosition;
-		if (!hasTrigger)
-			triggerPosition = 0;
-		int rate = capturedData.rate;
-		if (!hasTiming)	// value of rate is only valid if timing data exists
-			rate = 1;
-		
-		int xofs = offsetX;
-		int yofs = offsetY + 2;
 
-		// obtain portion of graphics that needs to be drawn
-		Rectangle clipArea = g.getClipBounds();
-
-		// find index of first row that needs drawing
-		int firstRow = xToIndex(clipArea.x);
-		if (firstRow < 0)
-			firstRow = 0;
-			
-		// find index of last row that needs drawing
-		int lastRow = xToIndex(clipArea.x + clipArea.width) + 1;
-		if (lastRow >= data.length)
- 			lastRow = data.length - 1;
-
-		// paint portion of background that needs drawing
-		g.setColor(background);
-		g.fillRect(clipArea.x, clipArea.y, clipArea.width, clipArea.height);
-
-		// draw trigger if existing and visible
-		if (hasTrigger && triggerPosition >= firstRow && triggerPosition <= lastRow) {
-			g.setColor(trigger);
-			g.fillRect(xofs + (int)(triggerPosition * scale) - 1, 0, (int)(scale) + 2, yofs + 36 * 20);		
-		}
-		
-		// draw time line
-		int rowInc = (int)(10 / scale);
-		int timeLineShift = (triggerPosition % rowInc);
-		g.setColor(time);
-		for (int row = ( firstRow / rowInc) * rowInc + timeLineShift; row < lastRow; row += rowInc) {
-			int pos = (int)(xofs + scale * row);
-			if (((row - triggerPosition) / rowInc) % 10 == 0) {
-				g.drawLine(pos, 1, pos, 15);
-				if (hasTiming)
-					g.drawString((Math.round(10 * ((row - triggerPosition) * unitFactor) / (float)rate) / 10F) + unitName, pos + 5, 10);
-				else
-					g.drawString(Long.toString(row - triggerPosition), pos + 5, 10);
-			} else {
-				g.drawLine(pos, 12, pos, 15);
+		Rectangle clipArea = g.getClipBounds(paintArea);
+		if (streaming) {
+			// the renderer is kept while streaming, only the range of valid samples changes
+			if (renderer == null || !renderer.streaming)
+				renderer = new Renderer();
+			renderer.firstValid = firstValid;
+			renderer.drawDiagram(g, clipArea);
+		} else {
+			int hash = settingsHash();
+			computeVisibleArea(visibleArea);
+			tileCache.setVisible(scale, hash, visibleArea.x / TileCache.TILE_WIDTH, (visibleArea.x + visibleArea.width - 1) / TileCache.TILE_WIDTH);
+			int first = clipArea.x / TileCache.TILE_WIDTH;
+			int last = (clipArea.x + clipArea.width - 1) / TileCache.TILE_WIDTH;
+			for (int index = first; index <= last; index++) {
+				TileCache.Tile tile = tileCache.get(scale, index, hash, bands);
+				if (tile == null)
+					tile = tileCache.create(scale, index, hash, bands);
+				int x = index * TileCache.TILE_WIDTH;
+				for (int band = 0; band < bands.length - 1; band++) {
+					if (bands[band + 1] <= clipArea.y || bands[band] >= clipArea.y + clipArea.height)
+						continue;
+					int state = tileCache.request(tile, band);
+					if (state == TileCache.DONE) {
+						g.drawImage(tile.getImage(), x, bands[band], x + TileCache.TILE_WIDTH, bands[band + 1], 0, bands[band], TileCache.TILE_WIDTH, bands[band + 1], null);
+					} else {
+						if (state == TileCache.MISSING) {
+							if (renderer == null)
+								renderer = new Renderer();
+							renderQueue.add(new TileJob(renderer, tile, band));
+						}
+						g.setColor(background);
+						g.fillRect(x, bands[band], TileCache.TILE_WIDTH, bands[band + 1] - bands[band]);
+						tileCache.drawScaled(g, tile, band, offsetX);
+					}
+				}
 			}
 		}
-
-		// draw groups
-		int bofs = yofs;
-		drawGridLine(g, clipArea, bofs++);
-		for (int block = 0; block < channels / 8; block++)
-			if (((enabled >> (8 * block)) & 0xff) != 0) {
-				if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0)
-					bofs += drawGroupAnalyzer(g, xofs, bofs, data, clipArea, block, firstRow, lastRow, labels.diagramLabels);
-				if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
-					bofs += drawGroupScope(g, xofs, bofs, data, clipArea, block, firstRow, lastRow);
-				if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0)
-					bofs += drawGroupByte(g, xofs, bofs, data, clipArea, block, firstRow, lastRow);
-			}
+		drawLabels(g, clipArea);
 	}
-	
+
 	/**
 	 * Convert x position to sample index.
 	 * @param x horizontal position in pixels
 	 * @return sample index
 	 */
 	private int xToIndex(int x) {
+		return (xToIndex(x, scale, capturedData.samples.getSize()));
+	}
+
+	/**
+	 * Convert x position to sample index.
+	 * @param x horizontal position in pixels
+	 * @param scale scale to use
+	 * @param size number of samples
+	 * @return sample index
+	 */
+	private int xToIndex(int x, double scale, long size) {
 		int index = (int)((x - offsetX) / scale);
 		if (index < 0)
 			index = 0;
-		if (index >= capturedData.values.length)
-			index = capturedData.values.length - 1;
+		if (index >= size)
+			index = (int)size - 1;
 		return (index);
 	}
 	
@@ -491,12 +500,33 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 
 		StringBuffer sb = new StringBuffer(" ");
 		
-		int row = (mouseY - offsetY) / 20;
-		if (row <= capturedData.channels + (capturedData.channels / 9)) {
-			if (row % 9 == 8)
-				sb.append("Byte " + (row / 9));
-			else
-				sb.append("Channel " + (row - (row / 9)));
+		// find the row below the mouse, using the same layout of groups as drawing
+		String row = null;
+		int channel = -1;
+		int bofs = offsetY + 3;
+		for (int block = 0; block < capturedData.channels / 8 && row == null; block++)
+			if (((capturedData.enabledWords[block / 4] >> (8 * (block % 4))) & 0xff) != 0) {
+				int groupSettings = settings.groupSettings[block % 4];
+				if ((groupSettings & DiagramSettings.DISPLAY_CHANNELS) > 0) {
+					if (mouseY >= bofs && mouseY < bofs + 20 * 8) {
+						channel = 8 * block + (mouseY - bofs) / 20;
+						row = "Channel " + channel;
+					}
+					bofs += 20 * 8;
+				}
+				if ((groupSettings & DiagramSettings.DISPLAY_SCOPE) > 0) {
+					if (row == null && mouseY >= bofs && mouseY < bofs + 133)
+						row = "Scope " + block;
+					bofs += 133;
+				}
+				if ((groupSettings & DiagramSettings.DISPLAY_BYTE) > 0) {
+					if (row == null && mouseY >= bofs && mouseY < bofs + 20)
+						row = "Byte " + block;
+					bofs += 20;
+				}
+			}
+		if (row != null) {
+			sb.append(row);
 			sb.append(" | ");
 		}
 
@@ -517,7 +547,25 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 				sb.append(" (Duration " + indexToTime(index - xToIndex(mouseX)) + ", ");
 				sb.append("Frequency " + (frequency / (float)div) + unit + ")");
 			}
+
+			// duty cycle of channel over selected range, counted on a worker thread and added once known
+			if (channel >= 0 && !streaming) {
+				int from = Math.max(0, Math.min(index, xToIndex(mouseX)));
+				int to = (int)Math.min(capturedData.samples.getSize(), Math.max(index, xToIndex(mouseX)));
+				if (from < to) {
+					DutyCycleJob job = dutyCycle;
+					if (job != null && job.isFor(capturedData, channel, from, to)) {
+						if (job.getHighCount() >= 0)
+							sb.append(" | High " + (100L * job.getHighCount() / (to - from)) + "%");
+					} else {
+						dutyCycle = new DutyCycleJob(capturedData, channel, from, to);
+						statusQueue.clear();
+						statusQueue.add(dutyCycle);
+					}
+				}
+			}
 		} else {
+			dutyCycle = null;
 			if (!capturedData. hasTimingData())
 				sb.append("Sample " + (xToIndex(mouseX) - capturedData.triggerPosition));
 			else
@@ -554,6 +602,7 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 	public void readProperties(Properties properties) {
 		settings.readProperties(properties);
 		labels.readProperties(properties);
+		tileCache.clear();
 		resize();
 	}
 
@@ -562,7 +611,774 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 		labels.writeProperties(properties);
 	}
 	
+	/**
+	 * Draws the diagram as it was when the renderer was created.
+	 * Keeps its own copy of all state used for drawing, so it can draw on any thread
+	 * while the diagram is changed on the event dispatch thread.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class Renderer {
+
+		/**
+		 * Creates a renderer for the current state of the diagram.
+		 */
+		public Renderer() {
+			this.capturedData = Diagram.this.capturedData;
+			this.firstValid = Diagram.this.firstValid;
+			this.streaming = Diagram.this.streaming;
+			this.scale = Diagram.this.scale;
+			this.displaySettings = settings.groupSettings.clone();
+			this.unitFactor = Diagram.this.unitFactor;
+			this.unitName = Diagram.this.unitName;
+			this.channelNames = Diagram.this.channelNames;
+			this.byteNames = Diagram.this.byteNames;
+			this.scopeNames = Diagram.this.scopeNames;
+			this.timeRows = new int[TIME_TEXTS];
+			this.timeTexts = new String[TIME_TEXTS];
+		}
+
+		private void drawEdge(Graphics g, int x, int y, boolean falling, boolean rising) {
+			if (scale <= 1) {
+				g.drawLine(x, y, x, y + 14);
+			} else {
+				int edgeX = x;
+				if (scale >= 5)
+					edgeX += (int)(scale * 0.4);
+	
+				if (rising) {
+					g.drawLine(x, y + 14, edgeX, y);
+					g.drawLine(edgeX, y, x + (int)scale, y);
+				}	
+				if (falling) {
+					g.drawLine(x, y, edgeX, y + 14);
+					g.drawLine(edgeX, y + 14, x + (int)scale, y + 14);
+				}	
+			}
+		}
+		/**
+		 * Draws a channel using the edge index, visiting only the edges within the visible range.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset
+		 * @param edgeIndex edge index of the captured data
+		 * @param channel number of channel to display, counting across words
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private void drawChannel(Graphics g, int x, int y, EdgeIndex edgeIndex, int channel, int from, int to) {
+			int[] edges = edgeIndex.getEdges(channel);
+			int edge = edgeIndex.findEdge(channel, from + 1);
+			int currentV = edgeIndex.getValue(channel, from);
+			for (int current = from; current < to;) {
+				int currentX = (int)(x + current * scale);
+				boolean change = edge < edges.length && edges[edge] <= to;
+				int next = change ? edges[edge] : to;
+				int currentEndX = (int)(x + (next - 1) * scale);
+
+				// draw straight line up to the point of change and a edge if not at end
+				if (!change) {
+					g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX + (int)scale, y + 14 * (1 - currentV));
+				} else {
+					g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX, y + 14 * (1 - currentV));
+					drawEdge(g, currentEndX, y, currentV == 1, currentV == 0);
+					currentV ^= 1;
+					edge++;
+				}
+				current = next;
+			}
+		}
+
+		/**
+		 * Draws a channel using a level of the summary, drawing runs of buckets with equal state at once.
+		 * Buckets are at most one pixel wide, so the number of primitives drawn is limited by the width of the visible range.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset
+		 * @param levelOfDetail summary of the captured data
+		 * @param level level to use
+		 * @param channel number of channel to display, counting across words
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private void drawChannel(Graphics g, int x, int y, LevelOfDetail levelOfDetail, int level, int channel, int from, int to) {
+			int first = from >> level;
+			int last = to >> level;
+			int runStart = first;
+			int runState = levelOfDetail.getState(channel, level, first);
+			// edge ending the run before the first bucket, which is part of the previous tile
+			if (first > 0 && levelOfDetail.getState(channel, level, first - 1) == 1 - runState) {
+				int edgeX = (int)(x + (first << level) * scale);
+				g.drawLine(edgeX, y, edgeX, y + 14);
+			}
+			for (int bucket = first + 1; bucket <= last + 1; bucket++) {
+				int state = (bucket <= last) ? levelOfDetail.getState(channel, level, bucket) : -1;
+				if (state == runState)
+					continue;
+
+				int startX = (int)(x + Math.max(from, runStart << level) * scale);
+				int endX = (int)(x + Math.min(to + 1, bucket << level) * scale);
+				if (runState == LevelOfDetail.TOGGLING) {
+					g.fillRect(startX, y, Math.max(1, endX - startX), 15);
+				} else {
+					g.drawLine(startX, y + 14 * (1 - runState), endX, y + 14 * (1 - runState));
+					// constant runs of opposite state meet at an edge
+					if (state == 1 - runState)
+						g.drawLine(endX, y, endX, y + 14);
+				}
+				runStart = bucket;
+				runState = state;
+			}
+		}
+
+		/**
+		 * Draws a channel by scanning the samples. Used while a capture is still running and for captures too large to index.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset
+		 * @param samples sampled data
+		 * @param word index of word containing the channel
+		 * @param n number of channel to display within its word
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private void drawChannel(Graphics g, int x, int y, SampleStore samples, int word, int n, int from, int to) {
+			for (int current = from; current < to;) {
+				int currentX = (int)(x + current * scale);
+				int currentV = (samples.getValue(current, word) >> n) & 0x01;
+				int nextV = currentV;
+				int next = current;
+	
+				// scan for the next change
+				do {
+					nextV = (samples.getValue(++next, word) >> n) & 0x01;
+				} while ((next < to) && (nextV == currentV));
+				int currentEndX = (int)(x + (next - 1) * scale);
+			
+				// draw straight line up to the point of change and a edge if not at end
+				if (currentV == nextV) {
+					g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX + (int)scale, y + 14 * (1 - currentV));
+				} else {
+					g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX, y + 14 * (1 - currentV));
+					if (currentV > nextV)
+						drawEdge(g, currentEndX, y, true, false);
+					else if (currentV < nextV)
+						drawEdge(g, currentEndX, y, false, true);
+				}
+				current = next;
+			}
+		}
+	
+		private void drawGridLine(Graphics g, Rectangle clipArea, int y) {
+			g.setColor(grid);
+			g.drawLine(clipArea.x, y, clipArea.x + clipArea.width, y);
+		}
+	
+		/**
+		 * Draws a byte bar. Hex values are centered on the whole run of equal values,
+		 * so runs reaching into neighbouring tiles are labeled once and in the same place in each of them.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset
+		 * @param samples sampled data
+		 * @param edgeIndex edge index of the captured data or <code>null</code>
+		 * @param levelOfDetail summary of the captured data or <code>null</code>
+		 * @param level level of summary to use or -1 to draw single samples
+		 * @param n number of group to display (0-3 for 32 channels, groups 4 and up are taken from further words)
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private int drawGroupByte(Graphics g, int x, int y, SampleStore samples, EdgeIndex edgeIndex, LevelOfDetail levelOfDetail, int level, Rectangle clipArea, int n, int from, int to) {
+			int word = n / 4;
+
+			// draw background
+			g.setColor(groupBackground);
+			g.fillRect(clipArea.x, y, clipArea.width, 19);
+			g.setColor(text);
+			g.drawString(byteNames[n], 5, y + 14);
+			// draw bottom grid line
+			drawGridLine(g, clipArea, y + 19);
+		
+			g.setColor(signal);
+		
+			int yOfs = y + 2;
+			int h = 14;
+
+			if (level >= 0) {
+				drawByteSummary(g, x, y, yOfs, h, levelOfDetail, level, n, from, to);
+				return (20);
+			}
+
+			for (int current = from; current < to;) {
+				int currentX = (int)(x + current * scale);
+				int currentV = (samples.getValue(current, word) >> (8 * (n % 4))) & 0xff;
+				int nextV = currentV;
+				int next = current;
+
+			
+				// scan for the next change
+				do {
+					nextV = (samples.getValue(++next, word) >> (8 * (n % 4))) & 0xff;
+				} while ((next < to) && (nextV == currentV));
+				int currentEndX = (int)(x + (next - 1) * scale);
+			
+				// draw straight lines up to the point of change and a edge if not at end
+				if (currentV == nextV) {
+					g.drawLine(currentX, yOfs + h, currentEndX + (int)scale, yOfs + h);
+					g.drawLine(currentX, yOfs, currentEndX + (int)scale, yOfs);
+				} else {
+					g.drawLine(currentX, yOfs + h, currentEndX, yOfs + h);
+					g.drawLine(currentX, yOfs, currentEndX, yOfs);
+					drawEdge(g, currentEndX, yOfs, true, true);
+				}
+			
+				// if steady long enough, add hex value, runs cut off by the drawn range are looked up in full
+				int runStart = (current == from) ? findByteRunStart(samples, edgeIndex, levelOfDetail, n, current) : current;
+				int runEnd = (currentV == nextV) ? findByteRunEnd(samples, edgeIndex, levelOfDetail, n, next) : next;
+				long runStartX = (long)(x + (runStart - 1) * scale);
+				long runEndX = (long)(x + (runEnd - 1) * scale);
+				if (runEndX - runStartX > 15) {
+					g.drawString(HEX_VALUES[currentV], (int)((runStartX + runEndX) / 2 - 2), y + 14);
+				}
+			
+				current = next;
+			}
+			return (20);
+		}
+	
+		/**
+		 * Finds the first sample of the run of equal values of a group containing the given sample.
+		 * Uses the edge index if available, otherwise long runs are skipped using the summary if available.
+		 * @param samples sampled data
+		 * @param edgeIndex edge index of the captured data or <code>null</code>
+		 * @param levelOfDetail summary of the captured data or <code>null</code>
+		 * @param n number of group
+		 * @param index index of sample within the run
+		 * @return index of first sample of run, not before the first valid sample
+		 */
+		private int findByteRunStart(SampleStore samples, EdgeIndex edgeIndex, LevelOfDetail levelOfDetail, int n, int index) {
+			if (edgeIndex != null) {
+				int start = 0;
+				for (int bit = 0; bit < 8; bit++) {
+					int edge = edgeIndex.findEdge(8 * n + bit, index + 1);
+					if (edge > 0)
+						start = Math.max(start, edgeIndex.getEdges(8 * n + bit)[edge - 1]);
+				}
+				return (start);
+			}
+
+			int word = n / 4;
+			int shift = 8 * (n % 4);
+			int value = (samples.getValue(index, word) >> shift) & 0xff;
+			int base = 0;
+			if (levelOfDetail != null) {
+				levelOfDetail.build(word);
+				base = levelOfDetail.getBaseLevel();
+			}
+			int pos = index;
+			while (pos > firstValid) {
+				// skip whole buckets before pos if they are constant at the same value
+				if (levelOfDetail != null && (pos & ((1 << base) - 1)) == 0
+					&& levelOfDetail.getGroupValue(n, base, (pos >> base) - 1) == value)
+					pos = levelOfDetail.findGroupRunStart(n, base, (pos >> base) - 1) << base;
+				else if (((samples.getValue(pos - 1, word) >> shift) & 0xff) == value)
+					pos--;
+				else
+					break;
+			}
+			return (Math.max(pos, firstValid));
+		}
+
+		/**
+		 * Finds the sample following the run of equal values of a group containing the given sample.
+		 * Uses the edge index if available, otherwise long runs are skipped using the summary if available.
+		 * @param samples sampled data
+		 * @param edgeIndex edge index of the captured data or <code>null</code>
+		 * @param levelOfDetail summary of the captured data or <code>null</code>
+		 * @param n number of group
+		 * @param index index of sample within the run
+		 * @return index of first sample after run, or number of samples if the run lasts to the end
+		 */
+		private int findByteRunEnd(SampleStore samples, EdgeIndex edgeIndex, LevelOfDetail levelOfDetail, int n, int index) {
+			int size = (int)samples.getSize();
+			if (edgeIndex != null) {
+				int end = size;
+				for (int bit = 0; bit < 8; bit++) {
+					int edge = edgeIndex.nextEdge(8 * n + bit, index);
+					if (edge >= 0)
+						end = Math.min(end, edge);
+				}
+				return (end);
+			}
+
+			int word = n / 4;
+			int shift = 8 * (n % 4);
+			int value = (samples.getValue(index, word) >> shift) & 0xff;
+			int base = 0;
+			if (levelOfDetail != null) {
+				levelOfDetail.build(word);
+				base = levelOfDetail.getBaseLevel();
+			}
+			int pos = index + 1;
+			while (pos < size) {
+				// skip whole buckets from pos on if they are constant at the same value
+				if (levelOfDetail != null && (pos & ((1 << base) - 1)) == 0
+					&& levelOfDetail.getGroupValue(n, base, pos >> base) == value)
+					pos = (int)Math.min(size, (long)levelOfDetail.findGroupRunEnd(n, base, pos >> base) << base);
+				else if (((samples.getValue(pos, word) >> shift) & 0xff) == value)
+					pos++;
+				else
+					break;
+			}
+			return (pos);
+		}
+
+		/**
+		 * Draws a byte bar using a level of the summary, drawing runs of buckets with equal value at once.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset of bar
+		 * @param yOfs y offset of upper line
+		 * @param h distance between upper and lower line
+		 * @param levelOfDetail summary of the captured data
+		 * @param level level to use
+		 * @param n number of group to display
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private void drawByteSummary(Graphics g, int x, int y, int yOfs, int h, LevelOfDetail levelOfDetail, int level, int n, int from, int to) {
+			int first = from >> level;
+			int last = to >> level;
+			int runStart = first;
+			int runValue = levelOfDetail.getGroupValue(n, level, first);
+			// edge ending the run before the first bucket, which is part of the previous tile
+			if (first > 0 && runValue >= 0) {
+				int previous = levelOfDetail.getGroupValue(n, level, first - 1);
+				if (previous >= 0 && previous != runValue) {
+					int edgeX = (int)(x + (first << level) * scale);
+					g.drawLine(edgeX, yOfs, edgeX, yOfs + h);
+				}
+			}
+			for (int bucket = first + 1; bucket <= last + 1; bucket++) {
+				int value = (bucket <= last) ? levelOfDetail.getGroupValue(n, level, bucket) : -2;
+				if (value == runValue)
+					continue;
+
+				int startX = (int)(x + Math.max(from, runStart << level) * scale);
+				int endX = (int)(x + Math.min(to + 1, bucket << level) * scale);
+				if (runValue < 0) {
+					g.fillRect(startX, yOfs, Math.max(1, endX - startX), h + 1);
+				} else {
+					g.drawLine(startX, yOfs + h, endX, yOfs + h);
+					g.drawLine(startX, yOfs, endX, yOfs);
+					if (value >= 0)
+						g.drawLine(endX, yOfs, endX, yOfs + h);
+					// label the whole run, which may reach beyond the drawn range
+					long runStartX = startX;
+					long runEndX = endX;
+					if (runStart == first)
+						runStartX = (long)(x + ((long)levelOfDetail.findGroupRunStart(n, level, runStart) << level) * scale);
+					if (bucket > last)
+						runEndX = (long)(x + Math.min(capturedData.samples.getSize(), (long)levelOfDetail.findGroupRunEnd(n, level, last) << level) * scale);
+					if (runEndX - runStartX > 15)
+						g.drawString(HEX_VALUES[runValue], (int)((runStartX + runEndX) / 2 - 2), y + 14);
+				}
+				runStart = bucket;
+				runValue = value;
+			}
+		}
+
+		private int drawGroupAnalyzer(Graphics g, int xofs, int yofs, SampleStore samples, EdgeIndex edgeIndex, LevelOfDetail levelOfDetail, int level, Rectangle clipArea, int n, int from, int to) {
+			// draw channel separators
+			for (int bit = 0; bit < 8; bit++) {
+				g.setColor(grid);
+				g.drawLine(clipArea.x, 20 * bit + yofs + 19, clipArea.x + clipArea.width, 20 * bit + yofs + 19);
+				g.setColor(text);
+				g.drawString(channelNames[bit + n * 8], 5, 20 * bit + yofs + 14);
+			}
+		
+			// draw actual data
+			g.setColor(signal);
+			for (int bit = 0; bit < 8; bit++)
+				if (level >= 0)
+					drawChannel(g, xofs, yofs + 20 * bit + 2, levelOfDetail, level, 8 * n + bit, from, to);
+				else if (edgeIndex != null)
+					drawChannel(g, xofs, yofs + 20 * bit + 2, edgeIndex, 8 * n + bit, from, to);
+				else
+					drawChannel(g, xofs, yofs + 20 * bit + 2, samples, n / 4, 8 * (n % 4) + bit, from, to);
+
+			return (20 * 8);
+		}
+
+		/**
+		 * Draws a scope view.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset
+		 * @param samples sampled data
+		 * @param scopeSummary summary of the captured data or <code>null</code> while streaming
+		 * @param n number of group to display
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private int drawGroupScope(Graphics g, int x, int y, SampleStore samples, ScopeSummary scopeSummary, Rectangle clipArea, int n, int from, int to) {
+			int word = n / 4;
+
+			// draw label
+			g.setColor(text);
+			g.drawString(scopeNames[n], 5, y + 70);
+		
+			// draw actual data
+			g.setColor(signal);
+			// with less than two samples per pixel, lines are drawn as before, their number is limited by the width
+			if (scale <= 0.5) {
+				drawScopeEnvelope(g, x, y + 2, samples, scopeSummary, n, from, to);
+			} else {
+				int last = -1;
+				for (int pos = from; pos < to; pos++) {
+					int val = (255 - ((samples.getValue(pos, word) >> ((n % 4) * 8)) & 0xff)) / 2;
+					if (last >= 0) {
+						g.drawLine(x + (int)((pos - 1) * scale), y + 2 + last, x + (int)(pos * scale), y + 2 + val);
+					}
+					last = val;
+				}
+			}
+		
+			// draw bottom grid line
+			drawGridLine(g, clipArea, y + 132);
+
+			return (133);
+		}
+
+		/**
+		 * Draws a scope view with at least two samples per pixel as one vertical span per pixel column,
+		 * covering the smallest to the largest value within the column.
+		 * Spans are extended to meet the span of the previous column, as lines between samples would.
+		 * Uses the summary when its buckets fit into a column, so the number of buckets read is limited by the width.
+		 * @param g graphics context to draw on
+		 * @param x x offset
+		 * @param y y offset of the largest value
+		 * @param samples sampled data
+		 * @param scopeSummary summary of the captured data or <code>null</code> to read single samples
+		 * @param n number of group to display
+		 * @param from index of first sample to display
+		 * @param to index of last sample to display
+		 */
+		private void drawScopeEnvelope(Graphics g, int x, int y, SampleStore samples, ScopeSummary scopeSummary, int n, int from, int to) {
+			int word = n / 4;
+			int shift = 8 * (n % 4);
+			int level = -1;
+			if (scopeSummary != null) {
+				level = scopeSummary.getLevel(scale);
+				if (level >= 0)
+					scopeSummary.build(n);
+			}
+
+			int column = -1;
+			int min = 0;
+			int max = 0;
+			int lastMin = -1;
+			int lastMax = -1;
+			for (int pos = from;;) {
+				int currentX = (pos < to) ? (int)(x + pos * scale) : -1;
+				if (currentX != column) {
+					if (column >= 0) {
+						int top = 255 - max;
+						int bottom = 255 - min;
+						if (lastMin >= 0) {
+							top = Math.min(top, 255 - lastMin);
+							bottom = Math.max(bottom, 255 - lastMax);
+						}
+						g.fillRect(column, y + top / 2, 1, bottom / 2 - top / 2 + 1);
+						lastMin = min;
+						lastMax = max;
+					}
+					if (pos >= to)
+						break;
+					column = currentX;
+					min = 255;
+					max = 0;
+				}
+
+				if (level >= 0) {
+					int bucket = pos >> level;
+					min = Math.min(min, scopeSummary.getMinimum(n, level, bucket));
+					max = Math.max(max, scopeSummary.getMaximum(n, level, bucket));
+					pos = (bucket + 1) << level;
+				} else {
+					int value = (samples.getValue(pos, word) >>> shift) & 0xff;
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+					pos++;
+				}
+			}
+		}
+
+		/**
+		 * Draws the part of the diagram within the clip area of the given graphics context, except for channel labels.
+		 * Groups outside of the clip area are skipped.
+		 * @param g graphics context to draw on
+		 * @param clipArea clip bounds of the graphics context
+		 */
+		public void drawDiagram(Graphics g, Rectangle clipArea) {
+			SampleStore samples = capturedData.samples;
+			boolean hasTiming = capturedData.hasTimingData();
+			boolean hasTrigger = capturedData.hasTriggerData();
+			int channels = capturedData.channels;
+			int[] enabledWords = capturedData.enabledWords;
+			// samples may still change while streaming, so only use the edge index once the capture is complete,
+			// large captures are scanned from the store instead, as tiles drawn from single samples only cover a few of them
+			EdgeIndex edgeIndex = (streaming || !capturedData.isIndexable()) ? null : capturedData.getEdgeIndex();
+			// when zoomed out far enough, channels and byte bars are drawn from the summary
+			LevelOfDetail levelOfDetail = streaming ? null : capturedData.getLevelOfDetail();
+			ScopeSummary scopeSummary = streaming ? null : capturedData.getScopeSummary();
+			int level = (levelOfDetail == null) ? -1 : levelOfDetail.getLevel(scale);
+			int triggerPosition = capturedData.triggerPosition;
+			if (!hasTrigger)
+				triggerPosition = 0;
+			int rate = capturedData.rate;
+			if (!hasTiming)	// value of rate is only valid if timing data exists
+				rate = 1;
+		
+			int xofs = offsetX;
+			int yofs = offsetY + 2;
+
+			// find index of first row that needs drawing (and has already been received)
+			int firstRow = xToIndex(clipArea.x, scale, samples.getSize());
+			if (firstRow < firstValid)
+				firstRow = firstValid;
+			
+			// find index of last row that needs drawing
+			int lastRow = xToIndex(clipArea.x + clipArea.width, scale, samples.getSize()) + 1;
+			if (lastRow >= samples.getSize())
+	 			lastRow = (int)samples.getSize() - 1;
+
+			// paint portion of background that needs drawing
+			g.setColor(background);
+			g.fillRect(clipArea.x, clipArea.y, clipArea.width, clipArea.height);
+
+			// draw trigger if existing and visible
+			if (hasTrigger && triggerPosition >= firstRow && triggerPosition <= lastRow) {
+				g.setColor(trigger);
+				g.fillRect(xofs + (int)(triggerPosition * scale) - 1, 0, (int)(scale) + 2, yofs + 36 * 20);		
+			}
+		
+			// draw time line if within the clip area, starting left of it to include times reaching into it
+			if (clipArea.y < yofs) {
+				int rowInc = (int)(10 / scale);
+				int timeLineShift = (triggerPosition % rowInc);
+				int firstTimeRow = Math.max(xToIndex(clipArea.x - TIME_LABEL_WIDTH, scale, samples.getSize()), firstValid);
+				g.setColor(time);
+				for (int row = (firstTimeRow / rowInc) * rowInc + timeLineShift; row < lastRow; row += rowInc) {
+					int pos = (int)(xofs + scale * row);
+					if (((row - triggerPosition) / rowInc) % 10 == 0) {
+						g.drawLine(pos, 1, pos, 15);
+						g.drawString(getTimeText(row - triggerPosition, (row - triggerPosition) / rowInc / 10, hasTiming, rate), pos + 5, 10);
+					} else {
+						g.drawLine(pos, 12, pos, 15);
+					}
+				}
+			}
+
+			// draw groups
+			int bofs = yofs;
+			drawGridLine(g, clipArea, bofs++);
+			// groups 4 and up are taken from further words and use the settings of the corresponding group of the first word
+			for (int block = 0; block < channels / 8; block++)
+				if (((enabledWords[block / 4] >> (8 * (block % 4))) & 0xff) != 0) {
+					int groupSettings = displaySettings[block % 4];
+					int groupHeight = getGroupHeight(groupSettings);
+					if (bofs + groupHeight < clipArea.y || bofs > clipArea.y + clipArea.height) {
+						bofs += groupHeight;
+						continue;
+					}
+					if (level >= 0)
+						levelOfDetail.build(block / 4);
+					if ((groupSettings & DiagramSettings.DISPLAY_CHANNELS) > 0)
+						bofs += drawGroupAnalyzer(g, xofs, bofs, samples, edgeIndex, levelOfDetail, level, clipArea, block, firstRow, lastRow);
+					if ((groupSettings & DiagramSettings.DISPLAY_SCOPE) > 0)
+						bofs += drawGroupScope(g, xofs, bofs, samples, scopeSummary, clipArea, block, firstRow, lastRow);
+					if ((groupSettings & DiagramSettings.DISPLAY_BYTE) > 0)
+						bofs += drawGroupByte(g, xofs, bofs, samples, edgeIndex, levelOfDetail, level, clipArea, block, firstRow, lastRow);
+				}
+		}
+
+		/**
+		 * Returns the text of a time line mark. Texts are kept in a small cache indexed by mark,
+		 * so marks drawn again do not create new strings.
+		 * @param row sample index relative to the trigger
+		 * @param mark number of the mark, counting from the trigger
+		 * @param hasTiming <code>true</code> if timing data is available
+		 * @param rate sampling rate in Hz
+		 * @return text of the mark
+		 */
+		private synchronized String getTimeText(int row, int mark, boolean hasTiming, int rate) {
+			int slot = mark & (timeTexts.length - 1);
+			if (timeTexts[slot] == null || timeRows[slot] != row) {
+				if (hasTiming)
+					timeTexts[slot] = (Math.round(10 * (row * unitFactor) / (float)rate) / 10F) + unitName;
+				else
+					timeTexts[slot] = Long.toString(row);
+				timeRows[slot] = row;
+			}
+			return (timeTexts[slot]);
+		}
+
+		private CapturedData capturedData;
+		private int firstValid;
+		private boolean streaming;
+		private double scale;
+		private int[] displaySettings;
+		private long unitFactor;
+		private String unitName;
+		private String[] channelNames;
+		private String[] byteNames;
+		private String[] scopeNames;
+		private int[] timeRows;
+		private String[] timeTexts;
+	}
+
+	/**
+	 * Renders a band of a tile and repaints its area once done.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class TileJob implements Runnable {
+
+		/**
+		 * Creates a job for a band that has been requested from the tile cache.
+		 * @param renderer renderer for the state the tile was requested for
+		 * @param tile tile containing the band
+		 * @param band index of the band
+		 */
+		public TileJob(Renderer renderer, TileCache.Tile tile, int band) {
+			this.renderer = renderer;
+			this.tile = tile;
+			this.band = band;
+		}
+
+		public void run() {
+			if (!tileCache.start(tile, band))
+				return;
+
+			int x = tile.getIndex() * TileCache.TILE_WIDTH;
+			int top = tile.getBands()[band];
+			int height = tile.getBands()[band + 1] - top;
+			Graphics g = tile.getImage().getGraphics();
+			boolean rendered = false;
+			try {
+				g.translate(-x, 0);
+				Rectangle clipArea = new Rectangle(x, top, TileCache.TILE_WIDTH, height);
+				g.setClip(clipArea);
+				renderer.drawDiagram(g, clipArea);
+				rendered = true;
+			} finally {
+				g.dispose();
+				// a band that failed to render is requested again on the next repaint, the failure is reported by the queue
+				if (rendered)
+					tileCache.finish(tile, band);
+				else
+					tileCache.fail(tile, band);
+			}
+			repaint(x, top, TileCache.TILE_WIDTH, height);
+		}
+
+		private Renderer renderer;
+		private TileCache.Tile tile;
+		private int band;
+	}
+
+	/**
+	 * Counts the samples a channel is high within a range and updates the status once done.
+	 * Uses the bit planes of the capture if it is small enough to keep them, otherwise the samples are read from the store.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class DutyCycleJob implements Runnable {
+
+		/**
+		 * Creates a job counting the given range.
+		 * @param data captured data to count in
+		 * @param channel number of channel, counting across words
+		 * @param from index of first sample
+		 * @param to index of first sample after range
+		 */
+		public DutyCycleJob(CapturedData data, int channel, int from, int to) {
+			this.data = data;
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.high = -1;
+		}
+
+		/**
+		 * Checks wether this job counts the given range.
+		 * @param data captured data
+		 * @param channel number of channel
+		 * @param from index of first sample
+		 * @param to index of first sample after range
+		 * @return <code>true</code> if the job counts the same range of the same channel
+		 */
+		public boolean isFor(CapturedData data, int channel, int from, int to) {
+			return (this.data == data && this.channel == channel && this.from == from && this.to == to);
+		}
+
+		/**
+		 * Returns the number of samples the channel is high within the range.
+		 * @return number of high samples or -1 if not counted yet
+		 */
+		public int getHighCount() {
+			return (high);
+		}
+
+		public void run() {
+			BitPlanes planes = data.getBitPlanes();
+			if (planes != null) {
+				high = planes.getHighCount(channel, from, to);
+			} else {
+				int word = channel / 32;
+				int bit = channel % 32;
+				int[] block = new int[DUTY_CYCLE_BLOCK_SIZE];
+				int count = 0;
+				for (int pos = from; pos < to; pos += block.length) {
+					// give up once the selection has changed
+					if (dutyCycle != this)
+						return;
+					int length = Math.min(block.length, to - pos);
+					data.samples.getValues(pos, length, word, block, 0);
+					for (int i = 0; i < length; i++)
+						count += (block[i] >>> bit) & 1;
+				}
+				high = count;
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (dutyCycle == DutyCycleJob.this)
+						updateStatus(true);
+				}
+			});
+		}
+
+		private CapturedData data;
+		private int channel;
+		private int from;
+		private int to;
+		private volatile int high;
+	}
+
 	private CapturedData capturedData;
+	private int firstValid;
+	private boolean streaming;
+	private Object streamLock;
+	private CapturedData streamData;
+	private int streamFirst;
+	private boolean updatePending;
 	private DiagramSettings settings;
 	private DiagramLabels labels;
 	private long unitFactor;
@@ -574,6 +1390,8 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 	private int mouseY;
 	private int mouseDragX;
 	private StatusChangeListener statusChangeListener;
+	private volatile DutyCycleJob dutyCycle;
+	private WorkQueue statusQueue;
 	
 	private double scale;
 	
@@ -587,6 +1405,32 @@ public class Diagram extends JComponent implements MouseMotionListener, Configur
 	private Color label;
 	
 	private Dimension size;
+	private TileCache tileCache;
+	private WorkQueue renderQueue;
+	private Renderer renderer;
+	private int[] bands;
+	private Rectangle visibleArea;
+	private Rectangle paintArea;
+	private String[] channelNames;
+	private String[] byteNames;
+	private String[] scopeNames;
+
+	/** maximum number of bytes used for cached tiles */
+	private static final long TILE_CACHE_SIZE = 32 * 1024 * 1024;
+	/** width in pixels reserved for times drawn right of their time line marks */
+	private static final int TIME_LABEL_WIDTH = 100;
+	/** maximum number of threads rendering tiles */
+	private static final int MAX_RENDER_THREADS = 4;
+	/** number of samples read from the store at once when counting the duty cycle */
+	private static final int DUTY_CYCLE_BLOCK_SIZE = 64 * 1024;
+	/** number of time line texts cached by a renderer, must be a power of 2 */
+	private static final int TIME_TEXTS = 256;
+	/** texts of all byte values as drawn in byte bars */
+	private static final String[] HEX_VALUES = new String[256];
+	static {
+		for (int i = 0; i < HEX_VALUES.length; i++)
+			HEX_VALUES[i] = ((i < 0x10) ? "0" : "") + Integer.toString(i, 16);
+	}
 
 	private static final long serialVersionUID = 1L;
 }
@@ -0,0 +1,295 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Index of all signal changes of a capture.
+ * <p>
+ * For each channel a sorted array holds the indices of all samples that differ from their predecessor
+ * in that channel (the edges). Another array holds all samples that differ from their predecessor in any channel
+ * (the change points). Channel numbers count across words, so channel 32 is bit 0 of the second word.
+ * <p>
+ * Using this index, decoders and rendering only need to visit the changes instead of all samples.
+ * All queries are binary searches and take O(log n).
+ * <p>
+ * The edges of a channel and the change points are only collected when first queried, so only channels
+ * actually used take memory, at most 4 bytes per sample each. Each array is built in two passes over the data,
+ * the first counting, the second filling the array. Samples are fetched from the sample store in blocks,
+ * so the index can be built for data not kept in arrays.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class EdgeIndex extends Object {
+
+	/**
+	 * Creates the index for the given data. Edges and change points are collected on first use.
+	 * Data must not change afterwards.
+	 * @param data data to index
+	 */
+	public EdgeIndex(CapturedData data) {
+		samples = data.samples;
+		int wordCount = samples.getWordCount();
+
+		edges = new int[32 * wordCount][];
+		changes = null;
+		initial = new int[wordCount];
+		if (samples.getSize() > 0)
+			for (int w = 0; w < wordCount; w++)
+				initial[w] = samples.getValue(0, w);
+	}
+
+	/**
+	 * Returns the edges of a channel, collecting them unless already done.
+	 * @param channel channel number
+	 * @return sorted indices of samples differing from their predecessor in the given channel
+	 */
+	private synchronized int[] edgesOf(int channel) {
+		if (edges[channel] == null) {
+			int[] masks = new int[initial.length];
+			masks[channel / 32] = 1 << (channel % 32);
+			edges[channel] = new int[scan(masks, null)];
+			scan(masks, edges[channel]);
+		}
+		return (edges[channel]);
+	}
+
+	/**
+	 * Returns the change points, collecting them unless already done.
+	 * @return sorted indices of samples differing from their predecessor in any channel
+	 */
+	private synchronized int[] changesOf() {
+		if (changes == null) {
+			int[] masks = new int[initial.length];
+			for (int w = 0; w < masks.length; w++)
+				masks[w] = -1;
+			changes = new int[scan(masks, null)];
+			scan(masks, changes);
+		}
+		return (changes);
+	}
+
+	/**
+	 * Scans all samples for changes in the selected channels, fetching them from the store in blocks.
+	 * Words without selected channels are not fetched.
+	 * @param masks bit mask selecting channels for each word
+	 * @param result array to store the indices of samples with changes in, or <code>null</code> to only count them
+	 * @return number of samples with changes
+	 */
+	private int scan(int[] masks, int[] result) {
+		int size = (int)samples.getSize();
+		int[][] block = new int[masks.length][];
+		for (int w = 0; w < masks.length; w++)
+			if (masks[w] != 0)
+				block[w] = new int[BLOCK_SIZE];
+		int[] previous = initial.clone();
+		int count = 0;
+
+		for (int from = 0; from < size; from += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, size - from);
+			for (int w = 0; w < masks.length; w++)
+				if (block[w] != null)
+					samples.getValues(from, length, w, block[w], 0);
+
+			for (int i = 0; i < length; i++) {
+				boolean changed = false;
+				for (int w = 0; w < masks.length; w++) {
+					if (block[w] == null)
+						continue;
+					int value = block[w][i];
+					changed |= ((value ^ previous[w]) & masks[w]) != 0;
+					previous[w] = value;
+				}
+				if (changed) {
+					if (result != null)
+						result[count] = from + i;
+					count++;
+				}
+			}
+		}
+		return (count);
+	}
+
+	/**
+	 * Returns the number of channels indexed.
+	 * @return number of channels (32 per word)
+	 */
+	public int getChannelCount() {
+		return (edges.length);
+	}
+
+	/**
+	 * Returns the edges of the given channel. The returned array must not be modified.
+	 * @param channel channel number
+	 * @return sorted indices of samples differing from their predecessor in the given channel
+	 */
+	public int[] getEdges(int channel) {
+		return (edgesOf(channel));
+	}
+
+	/**
+	 * Returns the edges of the given channel within the given range.
+	 * @param channel channel number
+	 * @param from index of first sample of range
+	 * @param to index of first sample after range
+	 * @return sorted indices of edges in range
+	 */
+	public int[] getEdges(int channel, int from, int to) {
+		int[] channelEdges = edgesOf(channel);
+		int start = find(channelEdges, from);
+		int end = Math.max(start, find(channelEdges, to));
+		int[] range = new int[end - start];
+		System.arraycopy(channelEdges, start, range, 0, range.length);
+		return (range);
+	}
+
+	/**
+	 * Returns the position of the first edge at or after the given sample within the array returned by <code>getEdges(channel)</code>.
+	 * @param channel channel number
+	 * @param index sample index
+	 * @return position of edge, or length of edge array if there is none
+	 */
+	public int findEdge(int channel, int index) {
+		return (find(edgesOf(channel), index));
+	}
+
+	/**
+	 * Returns the first edge after the given sample.
+	 * @param channel channel number
+	 * @param index sample index
+	 * @return index of sample at the next edge, or -1 if there is none
+	 */
+	public int nextEdge(int channel, int index) {
+		int[] channelEdges = edgesOf(channel);
+		int pos = find(channelEdges, index + 1);
+		return (pos < channelEdges.length ? channelEdges[pos] : -1);
+	}
+
+	/**
+	 * Returns the value of the given channel at the given sample.
+	 * @param channel channel number
+	 * @param index sample index
+	 * @return 0 or 1
+	 */
+	public int getValue(int channel, int index) {
+		int edgesBefore = find(edgesOf(channel), index + 1);
+		return (((initial[channel / 32] >>> (channel % 32)) ^ edgesBefore) & 1);
+	}
+
+	/**
+	 * Returns all change points. The returned array must not be modified.
+	 * @return sorted indices of samples differing from their predecessor in any channel
+	 */
+	public int[] getChanges() {
+		return (changesOf());
+	}
+
+	/**
+	 * Returns the change points of some channels of a word.
+	 * The edges of the selected channels are merged, so this takes O(edges) time.
+	 * @param word index of 32bit word
+	 * @param mask bit mask selecting channels of the word
+	 * @return sorted indices of samples differing from their predecessor in any of the selected channels
+	 */
+	public int[] getChanges(int word, int mask) {
+		int[] merged = new int[0];
+		for (int bit = 0; bit < 32; bit++)
+			if ((mask & (1 << bit)) != 0)
+				merged = merge(merged, edgesOf(32 * word + bit));
+		return (merged);
+	}
+
+	/**
+	 * Returns the position of the first change point at or after the given sample within the array returned by <code>getChanges()</code>.
+	 * @param index sample index
+	 * @return position of change point, or length of change point array if there is none
+	 */
+	public int findChange(int index) {
+		return (find(changesOf(), index));
+	}
+
+	/**
+	 * Returns the first change point after the given sample.
+	 * @param index sample index
+	 * @return index of sample at the next change point, or -1 if there is none
+	 */
+	public int nextChange(int index) {
+		int[] points = changesOf();
+		int pos = find(points, index + 1);
+		return (pos < points.length ? points[pos] : -1);
+	}
+
+	/**
+	 * Finds the first element not smaller than the given key.
+	 * @param sorted sorted array to search
+	 * @param key value to search for
+	 * @return position of element, or length of array if all elements are smaller
+	 */
+	private static int find(int[] sorted, int key) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return (low);
+	}
+
+	/**
+	 * Merges two sorted arrays, dropping duplicates.
+	 * @param a first array
+	 * @param b second array
+	 * @return sorted array containing all values of both arrays once
+	 */
+	private static int[] merge(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				result[n++] = a[i++];
+			else if (a[i] > b[j])
+				result[n++] = b[j++];
+			else {
+				result[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			result[n++] = a[i++];
+		while (j < b.length)
+			result[n++] = b[j++];
+		if (n < result.length) {
+			int[] trimmed = new int[n];
+			System.arraycopy(result, 0, trimmed, 0, n);
+			result = trimmed;
+		}
+		return (result);
+	}
+
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+
+	private SampleStore samples;
+	private int[][] edges;
+	private int[] changes;
+	private int[] initial;
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Multi-resolution summary of all channels of a capture, used to draw zoomed out diagrams.
+ * <p>
+ * On level k the samples are divided into buckets of 2^k samples. For each channel and bucket two bits are kept:
+ * one set if the channel is high at any sample of the bucket, the other set if it is low at any sample.
+ * A bucket is therefore either constant low, constant high or toggling. A group of channels is constant within a bucket
+ * if none of its channels toggles.
+ * <p>
+ * The finest level is computed from the samples, fetched from the sample store in blocks.
+ * Each coarser level is derived from the one below by combining neighbouring buckets, 64 buckets at a time.
+ * Levels are built separately for each word of 32 channels on first use, so the summary is only computed
+ * when zoomed out far enough and only for words shown. The finest level is chosen so that it has at most
+ * <code>MAX_BUCKETS</code> buckets, which limits it to 8MB per word regardless of the number of samples.
+ * Together, all levels take about twice as much memory as the finest one.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class LevelOfDetail extends Object {
+	/** state of a bucket in which the channel is low at all samples */
+	public final static int LOW = 0;
+	/** state of a bucket in which the channel is high at all samples */
+	public final static int HIGH = 1;
+	/** state of a bucket in which the channel changes */
+	public final static int TOGGLING = 2;
+
+	/**
+	 * Creates an empty summary for the given data.
+	 * Data must not change afterwards.
+	 * @param data data to summarize
+	 */
+	public LevelOfDetail(CapturedData data) {
+		samples = data.samples;
+		size = samples.getSize();
+
+		baseLevel = MIN_LEVEL;
+		while ((size >> baseLevel) > MAX_BUCKETS)
+			baseLevel++;
+		topLevel = baseLevel;
+		while ((size - 1) >> topLevel > 0)
+			topLevel++;
+
+		int channels = 32 * samples.getWordCount();
+		high = new long[topLevel - baseLevel + 1][channels][];
+		low = new long[topLevel - baseLevel + 1][channels][];
+	}
+
+	/**
+	 * Builds all levels of a word unless already done. Must be called before reading states of its channels.
+	 * @param word index of word, word 1 holds channels 32 to 63
+	 */
+	public synchronized void build(int word) {
+		if (high[0][32 * word] != null)
+			return;
+
+		int buckets = getBucketCount(baseLevel);
+		long[][] wordHigh = new long[32][(buckets + 63) >>> 6];
+		long[][] wordLow = new long[32][(buckets + 63) >>> 6];
+
+		// finest level from samples, blocks hold whole buckets
+		int bucketSize = 1 << baseLevel;
+		int blockSize = Math.max(BLOCK_SIZE, bucketSize);
+		int[] block = new int[blockSize];
+		for (long from = 0; from < size; from += blockSize) {
+			int count = (int)Math.min(blockSize, size - from);
+			samples.getValues(from, count, word, block, 0);
+			for (int i = 0; i < count; i += bucketSize) {
+				int end = Math.min(count, i + bucketSize);
+				int or = 0, and = -1;
+				for (int j = i; j < end; j++) {
+					or |= block[j];
+					and &= block[j];
+				}
+				int bucket = (int)((from + i) >> baseLevel);
+				long bit = 1L << bucket;
+				for (int bits = or; bits != 0; bits &= bits - 1)
+					wordHigh[Integer.numberOfTrailingZeros(bits)][bucket >>> 6] |= bit;
+				for (int bits = ~and; bits != 0; bits &= bits - 1)
+					wordLow[Integer.numberOfTrailingZeros(bits)][bucket >>> 6] |= bit;
+			}
+		}
+
+		// coarser levels from the level below
+		for (int c = 0; c < 32; c++) {
+			high[0][32 * word + c] = wordHigh[c];
+			low[0][32 * word + c] = wordLow[c];
+			for (int l = 1; l < high.length; l++) {
+				high[l][32 * word + c] = combine(high[l - 1][32 * word + c]);
+				low[l][32 * word + c] = combine(low[l - 1][32 * word + c]);
+			}
+		}
+	}
+
+	/**
+	 * Combines each pair of neighbouring buckets of a level.
+	 * @param bits bits of a channel on one level
+	 * @return bits of the channel on the next coarser level
+	 */
+	private static long[] combine(long[] bits) {
+		long[] result = new long[(bits.length + 1) >>> 1];
+		for (int i = 0; i < bits.length; i++)
+			result[i >>> 1] |= pack(bits[i]) << (32 * (i & 1));
+		return (result);
+	}
+
+	/**
+	 * Combines neighbouring bits by or, packing the 32 results into the lower half of a long.
+	 * @param x bits to combine
+	 * @return combined bits
+	 */
+	private static long pack(long x) {
+		x = (x | (x >>> 1)) & 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+		x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+		return (x);
+	}
+
+	/**
+	 * Returns the finest level available.
+	 * @return level of smallest buckets
+	 */
+	public int getBaseLevel() {
+		return (baseLevel);
+	}
+
+	/**
+	 * Returns the coarsest level, which has a single bucket.
+	 * @return level of largest buckets
+	 */
+	public int getTopLevel() {
+		return (topLevel);
+	}
+
+	/**
+	 * Returns the level best suited to draw the given zoom factor, that is the coarsest level whose buckets are at most one pixel wide.
+	 * @param scale width of a sample in pixels
+	 * @return level or -1 if single samples are wide enough to be drawn without summary
+	 */
+	public int getLevel(double scale) {
+		int level = 0;
+		while ((1L << (level + 1)) * scale <= 1)
+			level++;
+		if (level < baseLevel)
+			return (-1);
+		return (Math.min(level, topLevel));
+	}
+
+	/**
+	 * Returns the number of buckets of a level.
+	 * @param level level
+	 * @return number of buckets
+	 */
+	public int getBucketCount(int level) {
+		return ((int)(((size - 1) >> level) + 1));
+	}
+
+	/**
+	 * Returns the state of a channel within a bucket. The word of the channel must have been built.
+	 * @param channel channel number, counting across words
+	 * @param level level between base and top level
+	 * @param bucket index of bucket, containing samples <code>bucket * 2^level</code> and following
+	 * @return <code>LOW</code>, <code>HIGH</code> or <code>TOGGLING</code>
+	 */
+	public int getState(int channel, int level, int bucket) {
+		int l = level - baseLevel;
+		long bit = 1L << bucket;
+		boolean isHigh = (high[l][channel][bucket >>> 6] & bit) != 0;
+		boolean isLow = (low[l][channel][bucket >>> 6] & bit) != 0;
+		return (isHigh ? (isLow ? TOGGLING : HIGH) : LOW);
+	}
+
+	/**
+	 * Returns the value of a group of 8 channels within a bucket, if the group is constant.
+	 * The word of the group must have been built.
+	 * @param group group number, group 4 is channels 32 to 39
+	 * @param level level between base and top level
+	 * @param bucket index of bucket
+	 * @return value of the group or -1 if any of its channels toggles
+	 */
+	public int getGroupValue(int group, int level, int bucket) {
+		int l = level - baseLevel;
+		int element = bucket >>> 6;
+		int shift = bucket & 63;
+		int value = 0;
+		for (int bit = 0; bit < 8; bit++) {
+			int channel = 8 * group + bit;
+			int isHigh = (int)(high[l][channel][element] >>> shift) & 1;
+			int isLow = (int)(low[l][channel][element] >>> shift) & 1;
+			if ((isHigh & isLow) != 0)
+				return (-1);
+			value |= isHigh << bit;
+		}
+		return (value);
+	}
+
+	/**
+	 * Finds the first bucket of the run of buckets in which a group has the same constant value as in the given bucket.
+	 * Coarser levels are used to skip long runs, so this takes time proportional to the number of levels.
+	 * The word of the group must have been built.
+	 * @param group group number
+	 * @param level level between base and top level
+	 * @param bucket index of bucket in which the group is constant
+	 * @return index of first bucket of run
+	 */
+	public int findGroupRunStart(int group, int level, int bucket) {
+		int value = getGroupValue(group, level, bucket);
+		long pos = (long)bucket << level;
+		int l = level;
+		while (pos > 0) {
+			int previous = (int)(pos >> l) - 1;
+			if (getGroupValue(group, l, previous) == value) {
+				pos = (long)previous << l;
+				// an even bucket starts a bucket of the next level
+				if ((previous & 1) == 0 && l < topLevel)
+					l++;
+			} else if (l > level) {
+				l--;
+			} else {
+				break;
+			}
+		}
+		return ((int)(pos >> level));
+	}
+
+	/**
+	 * Finds the bucket following the run of buckets in which a group has the same constant value as in the given bucket.
+	 * Coarser levels are used to skip long runs, so this takes time proportional to the number of levels.
+	 * The word of the group must have been built.
+	 * @param group group number
+	 * @param level level between base and top level
+	 * @param bucket index of bucket in which the group is constant
+	 * @return index of first bucket after run, or number of buckets if the run lasts to the end
+	 */
+	public int findGroupRunEnd(int group, int level, int bucket) {
+		int value = getGroupValue(group, level, bucket);
+		long pos = (long)(bucket + 1) << level;
+		int l = level;
+		while (pos < size) {
+			int next = (int)(pos >> l);
+			if (getGroupValue(group, l, next) == value) {
+				pos = (long)(next + 1) << l;
+				// an odd bucket ends a bucket of the next level
+				if ((next & 1) == 1 && l < topLevel)
+					l++;
+			} else if (l > level) {
+				l--;
+			} else {
+				break;
+			}
+		}
+		return ((int)Math.min(getBucketCount(level), pos >> level));
+	}
+
+	/** finest level computed */
+	private final static int MIN_LEVEL = 2;
+	/** maximum number of buckets on the finest level */
+	private final static int MAX_BUCKETS = 1 << 20;
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+
+	private SampleStore samples;
+	private long size;
+	private int baseLevel;
+	private int topLevel;
+	private long[][][] high;
+	private long[][][] low;
+}
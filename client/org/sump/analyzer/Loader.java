@@ -43,27 +43,66 @@ public class Loader {
 
 	/**
 	 * Starts up the logic analyzer client.
-	 * Project ("*.slp") and data ("*.sla") files can be supplied as arguments.
+	 * Project ("*.slp") and data ("*.sla", "*.slb", "*.slt" or "*.vcd") files can be supplied as arguments.
 	 * The files will then be loaded automatically. If a file cannot be read, the client will exit.
+	 * <p>
+	 * The option "-trace" keeps a trace of the recent communication with the device, which is
+	 * printed when a capture fails. Using "-trace=&lt;file&gt;" the complete communication is written to the given file.
+	 * The option "-log=&lt;file&gt;" appends timing and throughput figures of every capture to the given file.
+	 * The option "-cache=&lt;MB&gt;" sets the memory used to cache pages of large capture files.
+	 * The option "-convert=&lt;file&gt;" writes the given data file to another file instead of starting the UI.
+	 * The format of the new file is chosen by its extension.
 	 * @param args arguments
 	 */
 	public static void main(String[] args) {
 		MainWindow w = new MainWindow();
+		File convertTo = null;
+		File convertFrom = null;
 
 		for (int i = 0; i < args.length; i++) {
 			String arg = args[i];
 
-			// handle options (there aren't any yet)
-			if (arg.startsWith("-")) {
+			// handle options
+			if (arg.equals("-trace")) {
+				w.setProtocolTrace(new ProtocolTraceBuffer(TRACE_SIZE));
+
+			} else if (arg.startsWith("-trace=")) {
+				try {
+					w.setProtocolTrace(new ProtocolTraceWriter(new File(arg.substring(7))));
+				} catch (Exception e) {
+					System.out.println("Error: Cannot create trace file: " + e.getMessage());
+					System.exit(-1);
+				}
+
+			} else if (arg.startsWith("-log=")) {
+				w.setMetricsLog(new File(arg.substring(5)));
+
+			} else if (arg.startsWith("-convert=")) {
+				convertTo = new File(arg.substring(9));
+
+			} else if (arg.startsWith("-cache=")) {
+				try {
+					PagedSampleStore.setCacheSize(Long.parseLong(arg.substring(7)) * 1024 * 1024);
+				} catch (NumberFormatException e) {
+					System.out.println("Error: Invalid cache size: " + arg.substring(7));
+					System.exit(-1);
+				}
+
+			} else if (arg.startsWith("-")) {
 				System.out.println();
 				System.out.println("Sumps Logic Analyzer Client");
 				System.out.println("Copyright (C) 2006 Michael Poppitz");
 				System.out.println("This software is released under the GNU GPL.");
 				System.out.println();
-				System.out.println("Usage: run [<project file>] [<data file>]");
+				System.out.println("Usage: run [-trace[=<trace file>]] [-log=<log file>] [-cache=<MB>] [-convert=<new data file>] [<project file>] [<data file>]");
 				System.out.println();
+				System.out.println("	-trace keeps a trace of device communication, printed when a capture fails");
+				System.out.println("	<trace file> receives a trace of all device communication");
+				System.out.println("	<log file> receives timing and throughput figures of all captures");
+				System.out.println("	<MB> is the memory used to cache pages of large data files (default 64)");
+				System.out.println("	<new data file> receives the data file converted to the format given by its extension");
 				System.out.println("	<project file> is a saved project with file extension \".slp\"");
-				System.out.println("	<data file> is saved data with file extension \".sla\"");
+				System.out.println("	<data file> is saved data with file extension \".sla\", \".slb\", \".slt\" or \".vcd\"");
 				System.out.println();
 				System.exit(0);
 
@@ -77,8 +116,11 @@ public class Loader {
 					}
 					if (arg.toLowerCase().endsWith(".slp")) {
 						w.loadProject(f);
-					} else if (arg.toLowerCase().endsWith(".sla")) {
-						w.loadData(f);
+					} else if (arg.toLowerCase().endsWith(".sla") || arg.toLowerCase().endsWith(".slb")
+						|| arg.toLowerCase().endsWith(".slt") || arg.toLowerCase().endsWith(".vcd")) {
+						if (convertTo == null)
+							w.loadData(f);
+						convertFrom = f;
 					} else {
 						System.out.println("Error: Unknown file type in argument: " + arg);
 						System.exit(-1);
@@ -90,6 +132,21 @@ public class Loader {
 			}
 		}
 		
+		// convert without starting the UI
+		if (convertTo != null) {
+			if (convertFrom == null) {
+				System.out.println("Error: No data file to convert.");
+				System.exit(-1);
+			}
+			try {
+				w.convertData(convertFrom, convertTo);
+			} catch (Exception e) {
+				System.out.println("Error: Exception occured while converting file: " + e.getMessage());
+				System.exit(-1);
+			}
+			System.exit(0);
+		}
+
 		try {
 			SwingUtilities.invokeAndWait(w);
 		} catch (Exception e) {
@@ -98,4 +155,6 @@ public class Loader {
 			System.exit(-1);
 		}
 	}
+
+	private final static int TRACE_SIZE = 256; // number of events kept by "-trace"
 }
@@ -48,6 +48,7 @@ import javax.swing.JToolBar;
 import javax.swing.filechooser.FileFilter;
 
 import org.sump.analyzer.tools.Tool;
+import org.sump.util.Properties;
 
 /**
  * Main frame and starter for Logic Analyzer Client.
@@ -122,6 +123,51 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 		}
 	}
 
+	/**
+	 * Inner class defining a File Filter for binary SLB files.
+	 * 
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class SLBFilter extends FileFilter {
+		public boolean accept(File f) {
+			return (f.isDirectory() || f.getName().toLowerCase().endsWith(".slb"));
+		}
+		public String getDescription() {
+			return ("Sump's Logic Analyzer Binary Files (*.slb)");
+		}
+	}
+
+	/**
+	 * Inner class defining a File Filter for transition compressed SLT files.
+	 * 
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class SLTFilter extends FileFilter {
+		public boolean accept(File f) {
+			return (f.isDirectory() || f.getName().toLowerCase().endsWith(".slt"));
+		}
+		public String getDescription() {
+			return ("Sump's Logic Analyzer Transition Files (*.slt)");
+		}
+	}
+
+	/**
+	 * Inner class defining a File Filter for value change dump files.
+	 * 
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class VCDFilter extends FileFilter {
+		public boolean accept(File f) {
+			return (f.isDirectory() || f.getName().toLowerCase().endsWith(".vcd"));
+		}
+		public String getDescription() {
+			return ("Value Change Dump Files (*.vcd)");
+		}
+	}
+
 	/**
 	 * Inner class defining a File Filter for SLP files.
 	 * 
@@ -144,6 +190,8 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 	public MainWindow() {
 		super();
 		project = new Project();
+		protocolTrace = null;
+		metricsLog = null;
 	}
 	
 	/**
@@ -253,12 +301,18 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 		frame.setVisible(true);
 
 		fileChooser = new JFileChooser();
+		fileChooser.addChoosableFileFilter((FileFilter) new VCDFilter());
+		fileChooser.addChoosableFileFilter((FileFilter) new SLTFilter());
+		fileChooser.addChoosableFileFilter((FileFilter) new SLBFilter());
 		fileChooser.addChoosableFileFilter((FileFilter) new SLAFilter());
 
 		projectChooser = new JFileChooser();
 		projectChooser.addChoosableFileFilter((FileFilter) new SLPFilter());
 		
 		controller = new DeviceController();
+		controller.setCaptureListener(diagram);
+		controller.setProtocolTrace(protocolTrace);
+		controller.setMetricsLog(metricsLog);
 		project.addConfigurable(controller);
 
 	}
@@ -287,7 +341,15 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 				if (fileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
 					File file = fileChooser.getSelectedFile();
 					System.out.println("Saving: " + file.getName() + ".");
-					diagram.getCapturedData().writeToFile(file);
+					try {
+						diagram.getCapturedData().writeToFile(file, diagram.getLabels());
+					} catch (IOException e) {
+						JOptionPane.showMessageDialog(frame,
+							"Error while saving \"" + file.getName() + "\":\n\n" + e.getMessage(),
+							"Save Error",
+							JOptionPane.ERROR_MESSAGE
+						);
+					}
 				}
 
 			} else if (label.equals("Open Project...")) {
@@ -305,13 +367,22 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 				}
 			
 			} else if (label.equals("Capture...")) {
+				CapturedData previous = diagram.getCapturedData();
 				if (controller.showCaptureDialog(frame) == DeviceController.DONE) {
 					diagram.setCapturedData(controller.getDeviceData());
+					statusChanged("Capture: " + controller.getMetrics());
+				} else {
+					// drop partially received data
+					diagram.setCapturedData(previous);
 				}
 
 			} else if (label.equals("Repeat Capture")) {
+				CapturedData previous = diagram.getCapturedData();
 				if (controller.showCaptureProgress(frame) == DeviceController.DONE) {
 					diagram.setCapturedData(controller.getDeviceData());
+					statusChanged("Capture: " + controller.getMetrics());
+				} else {
+					diagram.setCapturedData(previous);
 				}
 
 			} else if (label.equals("Exit")) {
@@ -380,7 +451,39 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 	 */
 	public void loadData(File file) throws IOException {
 		System.out.println("Opening: " + file.getName());
-		diagram.setCapturedData(new CapturedData(file));
+		if (VcdReader.isVcd(file)) {
+			// value change dumps name their signals, which become the labels of the channels
+			VcdReader reader = new VcdReader(file);
+			diagram.setCapturedData(reader.read());
+			diagram.setLabels(reader.getLabels());
+		} else {
+			diagram.setCapturedData(new CapturedData(file));
+		}
+	}
+	
+	/**
+	 * Converts the given data file to another file, whose format is given by its extension.
+	 * Channel labels are kept if the new format supports them. They are taken from value change dumps,
+	 * otherwise from the properties of a project loaded before. Does not need the GUI to be created.
+	 * @param from data file to convert
+	 * @param to file to write to
+	 * @throws IOException when an IO error occurs
+	 */
+	public void convertData(File from, File to) throws IOException {
+		System.out.println("Converting: " + from.getName() + " to " + to.getName());
+		Properties properties = project.getProperties();
+		String[] labels = new String[32];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = properties.getProperty("DiagramLabels.channel" + i);
+		CapturedData data;
+		if (VcdReader.isVcd(from)) {
+			VcdReader reader = new VcdReader(from);
+			data = reader.read();
+			labels = reader.getLabels();
+		} else {
+			data = new CapturedData(from);
+		}
+		data.writeToFile(to, labels);
 	}
 	
 	/**
@@ -393,6 +496,28 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 		project.load(file);
 	}
 	
+	/**
+	 * Sets the trace to be informed about all communication with the device.
+	 * May be called before the GUI has been created.
+	 * @param trace trace to use or <code>null</code> to disable tracing
+	 */
+	public void setProtocolTrace(ProtocolTrace trace) {
+		protocolTrace = trace;
+		if (controller != null)
+			controller.setProtocolTrace(trace);
+	}
+	
+	/**
+	 * Sets a file the metrics of every completed capture are appended to.
+	 * May be called before the GUI has been created.
+	 * @param file log file or <code>null</code> to disable logging to file
+	 */
+	public void setMetricsLog(File file) {
+		metricsLog = file;
+		if (controller != null)
+			controller.setMetricsLog(file);
+	}
+	
 	/**
 	 * Starts GUI creation and displays it.
 	 * Must be called be Swing event dispatcher thread.
@@ -414,6 +539,8 @@ public final class MainWindow extends WindowAdapter implements Runnable, ActionL
 	private JFileChooser fileChooser;
 	private JFileChooser projectChooser;
 	private DeviceController controller;
+	private ProtocolTrace protocolTrace;
+	private File metricsLog;
 	private Diagram diagram;
 	private Project project;
 	private JLabel status;
@@ -0,0 +1,250 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.IOException;
+
+/**
+ * Runs several devices at the same time and merges their data into a single capture
+ * with 32 channels per device.
+ * <p>
+ * This is intended for analyzers sharing an external clock. Each device runs in its own thread
+ * with its own transport, so reading out all devices takes as long as reading the slowest one.
+ * Captures are aligned on their trigger positions, so the trigger signal should be connected
+ * to all devices. Only the samples available from all devices are kept.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class MultiDeviceCapture extends Object {
+
+	/**
+	 * Creates a capture driving the given devices.
+	 * The devices must be attached and configured.
+	 * @param devices devices to run; the first device provides rate and is run in the calling thread
+	 */
+	public MultiDeviceCapture(Device[] devices) {
+		this.devices = devices;
+		this.listener = null;
+	}
+
+	/**
+	 * Sets the listener to be informed about samples while they arrive.
+	 * Every device reports its progress, but only samples of the first device are streamed
+	 * and only as far as all devices have received them.
+	 * Replaces the capture listeners of all devices when <code>run()</code> is called.
+	 * @param listener listener to inform or <code>null</code> to disable streaming
+	 */
+	public void setCaptureListener(CaptureListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Runs all devices in parallel and merges their data.
+	 * If one device fails, all others are stopped.
+	 * @return merged data with channels 32*n to 32*n+31 taken from device n
+	 * @throws IOException when writing to or reading from a device fails
+	 * @throws InterruptedException if a read time out occurs or stop() was called before trigger match
+	 */
+	public CapturedData run() throws IOException, InterruptedException {
+		Progress progress = listener != null ? new Progress(devices.length) : null;
+		for (int i = 0; i < devices.length; i++)
+			devices[i].setCaptureListener(progress != null ? progress.getListener(i) : null);
+
+		Runner[] runners = new Runner[devices.length];
+		Thread[] threads = new Thread[devices.length];
+		for (int i = 1; i < devices.length; i++) {
+			runners[i] = new Runner(devices[i]);
+			threads[i] = new Thread(runners[i], "Device " + i);
+			threads[i].start();
+		}
+
+		runners[0] = new Runner(devices[0]);
+		runners[0].run();
+		if (runners[0].failure != null)
+			stop();
+
+		boolean interrupted = false;
+		for (int i = 1; i < devices.length; i++) {
+			while (threads[i].isAlive()) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					// keep waiting, but make sure the others give up
+					interrupted = true;
+					stop();
+				}
+			}
+			if (runners[i].failure != null)
+				stop();
+		}
+
+		for (int i = 0; i < devices.length; i++) {
+			Exception e = runners[i].failure;
+			if (e instanceof IOException)
+				throw (IOException)e;
+			if (e instanceof InterruptedException)
+				throw (InterruptedException)e;
+			if (e != null)
+				throw new IOException("Device " + i + " failed: " + e.getMessage());
+		}
+		if (interrupted)
+			throw new InterruptedException("Capture interrupted.");
+
+		CapturedData[] data = new CapturedData[devices.length];
+		for (int i = 0; i < devices.length; i++)
+			data[i] = runners[i].data;
+		return (merge(data));
+	}
+
+	/**
+	 * Informs all devices that they are supposed to stop.
+	 */
+	public void stop() {
+		for (int i = 0; i < devices.length; i++)
+			devices[i].stop();
+	}
+
+	/**
+	 * Merges captures of several devices into one.
+	 * If all captures contain trigger data, they are aligned on their trigger positions,
+	 * otherwise on their first sample. Samples not available from all captures are dropped.
+	 * @param data captures to merge; the first one provides rate
+	 * @return merged capture with channels 32*n to 32*n+31 taken from capture n
+	 */
+	public static CapturedData merge(CapturedData[] data) {
+		boolean triggered = true;
+		for (int i = 0; i < data.length; i++)
+			triggered &= data[i].hasTriggerData();
+
+		// determine number of samples available before and after the trigger in all captures
+		int before = Integer.MAX_VALUE;
+		int after = Integer.MAX_VALUE;
+		for (int i = 0; i < data.length; i++) {
+			int position = triggered ? data[i].triggerPosition : 0;
+			before = Math.min(before, position);
+			after = Math.min(after, (int)data[i].samples.getSize() - position);
+		}
+
+		int[][] words = new int[data.length][before + after];
+		int[] enabledWords = new int[data.length];
+		for (int i = 0; i < data.length; i++) {
+			int position = triggered ? data[i].triggerPosition : 0;
+			data[i].samples.getValues(position - before, before + after, 0, words[i], 0);
+			enabledWords[i] = data[i].enabledChannels;
+		}
+
+		return (new CapturedData(
+			words,
+			triggered ? before : CapturedData.NOT_AVAILABLE,
+			data[0].rate,
+			32 * data.length,
+			enabledWords
+		));
+	}
+
+	/**
+	 * Combines the progress reported by all devices into updates for the capture listener.
+	 */
+	private class Progress {
+
+		/**
+		 * Creates a new progress for the given number of devices.
+		 * @param count number of devices
+		 */
+		public Progress(int count) {
+			first = new int[count];
+			for (int i = 0; i < count; i++)
+				first[i] = Integer.MAX_VALUE;
+			data = null;
+		}
+
+		/**
+		 * Returns the listener to attach to the given device.
+		 * @param index index of device
+		 * @return listener reporting progress of the device
+		 */
+		public CaptureListener getListener(final int index) {
+			return (new CaptureListener() {
+				public void samplesReceived(CapturedData data, int first) {
+					update(index, data, first);
+				}
+			});
+		}
+
+		/**
+		 * Records the progress of a device and informs the listener about samples received by all devices.
+		 * @param index index of device
+		 * @param received captured data of device being filled
+		 * @param oldest index of the oldest sample received by the device so far
+		 */
+		private void update(int index, CapturedData received, int oldest) {
+			CapturedData streamed;
+			int valid = 0;
+			synchronized (this) {
+				first[index] = oldest;
+				if (index == 0)
+					data = received;
+				streamed = data;
+				for (int i = 0; i < first.length; i++)
+					valid = Math.max(valid, first[i]);
+			}
+			if (streamed != null && valid < streamed.samples.getSize())
+				listener.samplesReceived(streamed, valid);
+		}
+
+		private int[] first;
+		private CapturedData data;
+	}
+
+	/**
+	 * Runs a single device and keeps its result.
+	 */
+	private class Runner implements Runnable {
+
+		/**
+		 * Creates a new runner.
+		 * @param device device to run
+		 */
+		public Runner(Device device) {
+			this.device = device;
+			this.data = null;
+			this.failure = null;
+		}
+
+		/**
+		 * Runs the device, keeping either the captured data or the exception that made it fail.
+		 */
+		public void run() {
+			try {
+				data = device.run();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		private Device device;
+		private CapturedData data;
+		private Exception failure;
+	}
+
+	private Device[] devices;
+	private CaptureListener listener;
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Sample store keeping only the enabled channel groups of single word samples.
+ * <p>
+ * The enabled groups are packed into consecutive bytes in ascending order, so
+ * one enabled group is stored in a <code>byte</code>, two in a <code>short</code>
+ * and more in an <code>int</code> per sample. This is the order the device transmits the groups in.
+ * Values are unpacked to their channel positions when read, disabled groups read as 0.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class PackedSampleStore extends Object implements SampleStore {
+
+	/**
+	 * Creates a store for the given number of samples, all set to 0.
+	 * @param size number of samples
+	 * @param shifts bit offsets of the enabled groups in ascending order
+	 * @param groups number of enabled groups (1 to 4)
+	 */
+	public PackedSampleStore(int size, int[] shifts, int groups) {
+		this.size = size;
+		this.groups = groups;
+		this.shifts = new int[groups];
+		System.arraycopy(shifts, 0, this.shifts, 0, groups);
+
+		// groups next to each other only need a single shift to unpack
+		contiguous = true;
+		for (int j = 1; j < groups; j++)
+			if (shifts[j] != shifts[0] + 8 * j)
+				contiguous = false;
+		shift = shifts[0];
+
+		if (groups == 1)
+			bytes = new byte[size];
+		else if (groups == 2)
+			shorts = new short[size];
+		else
+			ints = new int[size];
+	}
+
+	/**
+	 * Returns the number of bytes used per sample.
+	 * @return 1, 2 or 4
+	 */
+	public int getWidth() {
+		return (bytes != null ? 1 : shorts != null ? 2 : 4);
+	}
+
+	/**
+	 * Sets the packed value of a sample.
+	 * @param index index of sample
+	 * @param packed enabled groups of the sample, first enabled group in bits 0 to 7
+	 */
+	public void setPacked(int index, int packed) {
+		if (bytes != null)
+			bytes[index] = (byte)packed;
+		else if (shorts != null)
+			shorts[index] = (short)packed;
+		else
+			ints[index] = packed;
+	}
+
+	/**
+	 * Returns the packed value of a sample.
+	 * @param index index of sample
+	 * @return enabled groups of the sample, first enabled group in bits 0 to 7
+	 */
+	public int getPacked(int index) {
+		if (bytes != null)
+			return (bytes[index] & 0xff);
+		else if (shorts != null)
+			return (shorts[index] & 0xffff);
+		else
+			return (ints[index]);
+	}
+
+	/**
+	 * Moves the groups of a packed value to their channel positions.
+	 * @param packed packed value
+	 * @return unpacked value
+	 */
+	private int unpack(int packed) {
+		if (contiguous)
+			return (packed << shift);
+		int value = 0;
+		for (int j = 0; j < groups; j++)
+			value |= ((packed >>> (8 * j)) & 0xff) << shifts[j];
+		return (value);
+	}
+
+	public long getSize() {
+		return (size);
+	}
+
+	public int getWordCount() {
+		return (1);
+	}
+
+	public int getValue(long index) {
+		return (unpack(getPacked((int)index)));
+	}
+
+	public int getValue(long index, int word) {
+		return (unpack(getPacked((int)index)));
+	}
+
+	public void getValues(long from, int count, int word, int[] buffer, int offset) {
+		int start = (int)from;
+		if (bytes != null)
+			for (int i = 0; i < count; i++)
+				buffer[offset + i] = bytes[start + i] & 0xff;
+		else if (shorts != null)
+			for (int i = 0; i < count; i++)
+				buffer[offset + i] = shorts[start + i] & 0xffff;
+		else
+			System.arraycopy(ints, start, buffer, offset, count);
+
+		if (contiguous) {
+			if (shift != 0)
+				for (int i = 0; i < count; i++)
+					buffer[offset + i] <<= shift;
+		} else {
+			for (int i = 0; i < count; i++)
+				buffer[offset + i] = unpack(buffer[offset + i]);
+		}
+	}
+
+	private int size;
+	private int groups;
+	private int[] shifts;
+	private boolean contiguous;
+	private int shift;
+	private byte[] bytes;
+	private short[] shorts;
+	private int[] ints;
+}
@@ -0,0 +1,305 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sample store reading samples from a file in pages when they are first accessed.
+ * <p>
+ * The file must contain each word of all samples as consecutive little-endian values of 1, 2 or 4 bytes,
+ * one word after the other. Opening a store only checks the file length, so it takes the same time for any file size.
+ * Pages of <code>PAGE_SIZE</code> samples are read on demand and kept in a cache, dropping the least recently used
+ * page when the cache is full. The cache size is set for all stores using <code>setCacheSize()</code>.
+ * <p>
+ * When pages are accessed in ascending order, as done by decoders and by scrolling through the diagram,
+ * the following pages are read ahead on a separate thread.
+ * The file stays open as long as the store is in use.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class PagedSampleStore extends Object implements SampleStore {
+	/** number of bits of a sample index addressing a sample within its page */
+	public final static int PAGE_BITS = 16;
+	/** number of samples per page */
+	public final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+	/**
+	 * Opens a store on the given file.
+	 * @param file file containing the samples
+	 * @param offset position of the first sample of word 0 in the file
+	 * @param size number of samples
+	 * @param wordCount number of words per sample
+	 * @param width number of bytes per word (1, 2 or 4)
+	 * @throws IOException when the file cannot be opened or is too short
+	 */
+	public PagedSampleStore(File file, long offset, long size, int wordCount, int width) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		if (offset + size * wordCount * width > channel.size()) {
+			raf.close();
+			throw new IOException("File appears to be corrupted.");
+		}
+		this.offset = offset;
+		this.size = size;
+		this.wordCount = wordCount;
+		this.width = width;
+		pageCount = (size + PAGE_SIZE - 1) >>> PAGE_BITS;
+		buffer = ByteBuffer.allocate(PAGE_SIZE * width).order(ByteOrder.LITTLE_ENDIAN);
+		lastKey = -1;
+		sequentialKey = -1;
+		long bytes = Math.min(cacheSize, Runtime.getRuntime().maxMemory() / 4);
+		pages = new PageCache((int)Math.max(MIN_PAGES, bytes / (4 * PAGE_SIZE)));
+	}
+
+	/**
+	 * Sets the memory used by the page cache of each store opened afterwards.
+	 * The cache never takes more than a quarter of the maximum heap size.
+	 * @param bytes cache size in bytes
+	 */
+	public static void setCacheSize(long bytes) {
+		cacheSize = bytes;
+	}
+
+	/**
+	 * Returns the memory used by the page cache of each store opened afterwards.
+	 * @return cache size in bytes
+	 */
+	public static long getCacheSize() {
+		return (cacheSize);
+	}
+
+	/**
+	 * Returns a page, reading it from the file if it is not cached.
+	 * @param word index of word
+	 * @param page index of page within word
+	 * @return array holding the given word of samples <code>page * PAGE_SIZE</code> and following
+	 */
+	private synchronized int[] getPage(int word, long page) {
+		long key = word * pageCount + page;
+		if (key == lastKey)
+			return (lastPage);
+
+		Long cacheKey = Long.valueOf(key);
+		int[] values = (int[])pages.get(cacheKey);
+		if (values == null) {
+			values = readPage(word, page, buffer);
+			pages.put(cacheKey, values);
+		}
+
+		// moving on to the next page of a word starts reading ahead
+		if (key == sequentialKey + 1 && page + 1 < pageCount)
+			startReadAhead(word, page + 1);
+		sequentialKey = key;
+
+		lastKey = key;
+		lastPage = values;
+		return (values);
+	}
+
+	/**
+	 * Reads a page from the file.
+	 * @param word index of word
+	 * @param page index of page within word
+	 * @param buffer buffer of <code>PAGE_SIZE * width</code> bytes to read the page into
+	 * @return samples of the page
+	 */
+	private int[] readPage(int word, long page, ByteBuffer buffer) {
+		long first = page << PAGE_BITS;
+		int count = (int)Math.min(PAGE_SIZE, size - first);
+		long position = offset + (word * size + first) * width;
+
+		buffer.clear();
+		buffer.limit(count * width);
+		try {
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					throw new IOException("Unexpected end of file.");
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read capture file: " + e.getMessage());
+		}
+		buffer.flip();
+
+		int[] values = new int[count];
+		if (width == 4) {
+			buffer.asIntBuffer().get(values);
+		} else if (width == 2) {
+			for (int i = 0; i < count; i++)
+				values[i] = buffer.getShort() & 0xffff;
+		} else {
+			for (int i = 0; i < count; i++)
+				values[i] = buffer.get() & 0xff;
+		}
+		return (values);
+	}
+
+	/**
+	 * Starts reading the pages following the given one on a separate thread, unless that is already going on.
+	 * Must be called while holding the lock of the store.
+	 * @param word index of word
+	 * @param page index of first page to read
+	 */
+	private void startReadAhead(int word, long page) {
+		aheadWord = word;
+		aheadPage = page;
+		if (readingAhead)
+			return;
+		readingAhead = true;
+		Thread thread = new Thread(new ReadAhead(), "Page Read Ahead");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public long getSize() {
+		return (size);
+	}
+
+	public int getWordCount() {
+		return (wordCount);
+	}
+
+	public int getValue(long index) {
+		return (getPage(0, index >>> PAGE_BITS)[(int)index & (PAGE_SIZE - 1)]);
+	}
+
+	public int getValue(long index, int word) {
+		return (getPage(word, index >>> PAGE_BITS)[(int)index & (PAGE_SIZE - 1)]);
+	}
+
+	public void getValues(long from, int count, int word, int[] buffer, int offset) {
+		while (count > 0) {
+			int[] page = getPage(word, from >>> PAGE_BITS);
+			int pos = (int)from & (PAGE_SIZE - 1);
+			int n = Math.min(count, PAGE_SIZE - pos);
+			System.arraycopy(page, pos, buffer, offset, n);
+			from += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Cache of pages, dropping the least recently used page when more than the given number of pages are added.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private static class PageCache extends LinkedHashMap {
+
+		/**
+		 * Creates an empty cache.
+		 * @param capacity maximum number of pages kept
+		 */
+		public PageCache(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (size() > capacity);
+		}
+
+		private int capacity;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Reads up to <code>READ_AHEAD</code> pages following the last page requested for read ahead.
+	 * Pages are read without holding the lock of the store, so samples already cached can be accessed meanwhile.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class ReadAhead extends Object implements Runnable {
+
+		public void run() {
+			ByteBuffer aheadBuffer = ByteBuffer.allocate(PAGE_SIZE * width).order(ByteOrder.LITTLE_ENDIAN);
+			int word;
+			long first;
+			long page = -1;
+			while (true) {
+				// determine next page to read, following requests made while reading
+				synchronized (PagedSampleStore.this) {
+					word = aheadWord;
+					first = aheadPage;
+					if (page < first || page >= first + READ_AHEAD)
+						page = first;
+					while (page < first + READ_AHEAD && page < pageCount && pages.containsKey(Long.valueOf(word * pageCount + page)))
+						page++;
+					if (page >= first + READ_AHEAD || page >= pageCount) {
+						readingAhead = false;
+						return;
+					}
+				}
+
+				int[] values;
+				try {
+					values = readPage(word, page, aheadBuffer);
+				} catch (IllegalStateException e) {
+					synchronized (PagedSampleStore.this) {
+						readingAhead = false;
+					}
+					return;
+				}
+
+				// insert without touching the order of pages in use
+				synchronized (PagedSampleStore.this) {
+					Long cacheKey = Long.valueOf(word * pageCount + page);
+					if (!pages.containsKey(cacheKey))
+						pages.put(cacheKey, values);
+				}
+				page++;
+			}
+		}
+	}
+
+	/** number of pages read ahead of a sequential access */
+	private final static int READ_AHEAD = 4;
+	/** minimum number of pages cached, so read ahead pages are not dropped before they are used */
+	private final static int MIN_PAGES = 2 * READ_AHEAD + 2;
+
+	private static long cacheSize = 64 * 1024 * 1024;
+
+	private FileChannel channel;
+	private long offset;
+	private long size;
+	private int wordCount;
+	private int width;
+	private long pageCount;
+	private ByteBuffer buffer;
+	private PageCache pages;
+	private long lastKey;
+	private int[] lastPage;
+	private long sequentialKey;
+	private int aheadWord;
+	private long aheadPage;
+	private boolean readingAhead;
+}
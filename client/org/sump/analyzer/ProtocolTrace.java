@@ -0,0 +1,42 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Receives a record of all communication with the device.
+ * Implementations must be thread safe, as commands and received data are reported from different threads.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public interface ProtocolTrace {
+	/**
+	 * Called for each command sent to the device.
+	 * @param opcode one byte operation code
+	 * @param data four byte data portion for long commands (opcode &gt;= 0x80), 0 for short commands
+	 */
+	public void commandSent(int opcode, int data);
+
+	/**
+	 * Called for each block of data received from the device.
+	 * @param count number of bytes received
+	 */
+	public void dataReceived(int count);
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.PrintStream;
+
+/**
+ * Protocol trace keeping the most recent events in memory.
+ * Once the buffer is full, the oldest events are overwritten.
+ * Events are stored as numbers and only formatted when printed.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class ProtocolTraceBuffer extends Object implements ProtocolTrace {
+
+	/**
+	 * Creates a new trace buffer.
+	 * @param capacity number of events to keep
+	 */
+	public ProtocolTraceBuffer(int capacity) {
+		times = new long[capacity];
+		opcodes = new int[capacity];
+		data = new int[capacity];
+		start = System.currentTimeMillis();
+		count = 0;
+	}
+
+	public synchronized void commandSent(int opcode, int data) {
+		add(opcode, data);
+	}
+
+	public synchronized void dataReceived(int count) {
+		add(RECEIVED, count);
+	}
+
+	/**
+	 * Removes all events from the buffer.
+	 */
+	public synchronized void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Prints all events in the buffer, oldest first.
+	 * @param out stream to print to
+	 */
+	public synchronized void print(PrintStream out) {
+		int first = (int)Math.max(0, count - times.length);
+		for (long i = first; i < count; i++) {
+			int index = (int)(i % times.length);
+			out.println(format(times[index] - start, opcodes[index], data[index]));
+		}
+	}
+
+	/**
+	 * Formats a single event as one line of text.
+	 * @param time time of event in ms since start of trace
+	 * @param opcode operation code of command sent or <code>RECEIVED</code>
+	 * @param data data portion of command sent or number of bytes received
+	 * @return formatted event
+	 */
+	static String format(long time, int opcode, int data) {
+		String prefix = Long.toString(time);
+		prefix = "        ".substring(Math.min(8, prefix.length())) + prefix;
+		if (opcode == RECEIVED)
+			return (prefix + " < " + data + " bytes");
+		return (prefix + " > " + CommandEncoder.describe(opcode, data));
+	}
+
+	/**
+	 * Stores an event.
+	 * @param opcode operation code of command sent or <code>RECEIVED</code>
+	 * @param value data portion of command sent or number of bytes received
+	 */
+	private void add(int opcode, int value) {
+		int index = (int)(count % times.length);
+		times[index] = System.currentTimeMillis();
+		opcodes[index] = opcode;
+		data[index] = value;
+		count++;
+	}
+
+	/** opcode used to mark received data */
+	final static int RECEIVED = -1;
+
+	private long[] times;
+	private int[] opcodes;
+	private int[] data;
+	private long start;
+	private long count;
+}
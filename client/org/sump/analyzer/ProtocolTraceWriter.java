@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Protocol trace writing all events to a text file.
+ * Each event is written as one line, starting with the time in ms since the trace was created.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class ProtocolTraceWriter extends Object implements ProtocolTrace {
+
+	/**
+	 * Creates a new trace writing to the given file.
+	 * An existing file will be overwritten.
+	 * @param file file to write trace to
+	 * @throws IOException if the file cannot be created
+	 */
+	public ProtocolTraceWriter(File file) throws IOException {
+		writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		start = System.currentTimeMillis();
+	}
+
+	public synchronized void commandSent(int opcode, int data) {
+		write(opcode, data);
+	}
+
+	public synchronized void dataReceived(int count) {
+		write(ProtocolTraceBuffer.RECEIVED, count);
+	}
+
+	/**
+	 * Closes the trace file.
+	 */
+	public synchronized void close() {
+		writer.close();
+	}
+
+	/**
+	 * Writes a single event.
+	 * Data is flushed after each event, so the file is complete even if the client terminates.
+	 * @param opcode operation code of command sent or <code>ProtocolTraceBuffer.RECEIVED</code>
+	 * @param data data portion of command sent or number of bytes received
+	 */
+	private void write(int opcode, int data) {
+		writer.println(ProtocolTraceBuffer.format(System.currentTimeMillis() - start, opcode, data));
+		writer.flush();
+	}
+
+	private PrintWriter writer;
+	private long start;
+}
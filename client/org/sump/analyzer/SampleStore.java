@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Storage for the samples of a capture.
+ * <p>
+ * Samples are addressed by long indices, so stores are not limited to the size of a Java array.
+ * Each sample consists of one or more 32bit words; word 0 holds channels 0 to 31, word 1 channels 32 to 63 and so on.
+ * Stores hide how samples are kept, which may be a plain array, several arrays or pages of a file.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public interface SampleStore {
+	/**
+	 * Returns the number of samples.
+	 * @return number of samples
+	 */
+	public long getSize();
+
+	/**
+	 * Returns the number of 32bit words per sample.
+	 * @return number of words
+	 */
+	public int getWordCount();
+
+	/**
+	 * Returns the first word of a sample.
+	 * @param index index of sample
+	 * @return channels 0 to 31 of the sample
+	 */
+	public int getValue(long index);
+
+	/**
+	 * Returns a word of a sample.
+	 * @param index index of sample
+	 * @param word index of word
+	 * @return channels 32*word to 32*word+31 of the sample
+	 */
+	public int getValue(long index, int word);
+
+	/**
+	 * Copies a word of consecutive samples into the given buffer.
+	 * @param from index of first sample
+	 * @param count number of samples to copy
+	 * @param word index of word
+	 * @param buffer buffer receiving the values
+	 * @param offset position in buffer for the first value
+	 */
+	public void getValues(long from, int count, int word, int[] buffer, int offset);
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+/**
+ * Multi-resolution minimum and maximum of the byte value of groups of 8 channels, used to draw zoomed out scope views.
+ * <p>
+ * On level k the samples are divided into buckets of 2^k samples. For each group and bucket
+ * the smallest and largest value of the group within the bucket are kept as one byte each.
+ * The finest level is computed from the samples, each coarser level from the one below.
+ * Levels are built separately for each group on first use, so only groups shown as scope take memory.
+ * The finest level is chosen so that it has at most <code>MAX_BUCKETS</code> buckets, which limits
+ * a group to 4MB for all levels.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class ScopeSummary extends Object {
+
+	/**
+	 * Creates an empty summary for the given data.
+	 * Data must not change afterwards.
+	 * @param data data to summarize
+	 */
+	public ScopeSummary(CapturedData data) {
+		samples = data.samples;
+		size = samples.getSize();
+
+		baseLevel = MIN_LEVEL;
+		while ((size >> baseLevel) > MAX_BUCKETS)
+			baseLevel++;
+		topLevel = baseLevel;
+		while ((size - 1) >> topLevel > 0)
+			topLevel++;
+
+		minimum = new byte[4 * samples.getWordCount()][][];
+		maximum = new byte[4 * samples.getWordCount()][][];
+	}
+
+	/**
+	 * Builds all levels of a group unless already done. Must be called before reading values of the group.
+	 * @param group group number, group 4 is channels 32 to 39
+	 */
+	public synchronized void build(int group) {
+		if (minimum[group] != null)
+			return;
+
+		byte[][] min = new byte[topLevel - baseLevel + 1][];
+		byte[][] max = new byte[topLevel - baseLevel + 1][];
+		int buckets = (int)(((size - 1) >> baseLevel) + 1);
+		min[0] = new byte[buckets];
+		max[0] = new byte[buckets];
+
+		// finest level from samples, blocks hold whole buckets
+		int shift = 8 * (group % 4);
+		int bucketSize = 1 << baseLevel;
+		int blockSize = Math.max(BLOCK_SIZE, bucketSize);
+		int[] block = new int[blockSize];
+		for (long from = 0; from < size; from += blockSize) {
+			int count = (int)Math.min(blockSize, size - from);
+			samples.getValues(from, count, group / 4, block, 0);
+			for (int i = 0; i < count; i += bucketSize) {
+				int end = Math.min(count, i + bucketSize);
+				int lo = 255, hi = 0;
+				for (int j = i; j < end; j++) {
+					int value = (block[j] >>> shift) & 0xff;
+					if (value < lo)
+						lo = value;
+					if (value > hi)
+						hi = value;
+				}
+				int bucket = (int)((from + i) >> baseLevel);
+				min[0][bucket] = (byte)lo;
+				max[0][bucket] = (byte)hi;
+			}
+		}
+
+		// coarser levels from the level below
+		for (int l = 1; l < min.length; l++) {
+			byte[] lower = min[l - 1];
+			min[l] = new byte[(lower.length + 1) >>> 1];
+			max[l] = new byte[(lower.length + 1) >>> 1];
+			for (int i = 0; i < min[l].length; i++) {
+				int j = Math.min(2 * i + 1, lower.length - 1);
+				min[l][i] = (byte)Math.min(min[l - 1][2 * i] & 0xff, min[l - 1][j] & 0xff);
+				max[l][i] = (byte)Math.max(max[l - 1][2 * i] & 0xff, max[l - 1][j] & 0xff);
+			}
+		}
+
+		minimum[group] = min;
+		maximum[group] = max;
+	}
+
+	/**
+	 * Returns the level best suited to draw the given zoom factor, that is the coarsest level whose buckets are at most one pixel wide.
+	 * @param scale width of a sample in pixels
+	 * @return level or -1 if there are so few samples per pixel that they are drawn without summary
+	 */
+	public int getLevel(double scale) {
+		int level = 0;
+		while ((1L << (level + 1)) * scale <= 1)
+			level++;
+		if (level < baseLevel)
+			return (-1);
+		return (Math.min(level, topLevel));
+	}
+
+	/**
+	 * Returns the smallest value of a group within a bucket.
+	 * @param group group number, must have been built
+	 * @param level level between base and top level
+	 * @param bucket index of bucket, containing samples <code>bucket * 2^level</code> and following
+	 * @return smallest value
+	 */
+	public int getMinimum(int group, int level, int bucket) {
+		return (minimum[group][level - baseLevel][bucket] & 0xff);
+	}
+
+	/**
+	 * Returns the largest value of a group within a bucket.
+	 * @param group group number, must have been built
+	 * @param level level between base and top level
+	 * @param bucket index of bucket, containing samples <code>bucket * 2^level</code> and following
+	 * @return largest value
+	 */
+	public int getMaximum(int group, int level, int bucket) {
+		return (maximum[group][level - baseLevel][bucket] & 0xff);
+	}
+
+	/** finest level computed */
+	private final static int MIN_LEVEL = 2;
+	/** maximum number of buckets on the finest level */
+	private final static int MAX_BUCKETS = 1 << 20;
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+
+	private SampleStore samples;
+	private long size;
+	private int baseLevel;
+	private int topLevel;
+	private byte[][][] minimum;
+	private byte[][][] maximum;
+}
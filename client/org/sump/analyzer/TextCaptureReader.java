@@ -0,0 +1,359 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads captured data from files in text format.
+ * <p>
+ * The file is memory mapped and its bytes are scanned directly using a lookup table for hex digits.
+ * Apart from the header no objects are created per line. Each line may contain any number of hex digits;
+ * the last 8 digits form the first word, the 8 digits before them the second word and so on.
+ * This way files written for 8, 16, 24 or 32 channels are read correctly, whether or not leading zeros were written.
+ * <p>
+ * Large files are split into chunks at line boundaries, which are parsed in parallel.
+ * A first pass counts the lines of each chunk to find the index of its first sample,
+ * a second pass parses the samples.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class TextCaptureReader extends Object {
+
+	/**
+	 * Reads captured data from the given file.
+	 * @param file file to read from
+	 * @return captured data read from file
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	public static CapturedData read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("File is too large.");
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			return (new TextCaptureReader(map).parse());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Creates a new reader for the given file contents.
+	 * @param map file contents
+	 */
+	private TextCaptureReader(MappedByteBuffer map) {
+		this.map = map;
+		this.end = map.limit();
+	}
+
+	/**
+	 * Parses the header and all samples.
+	 * @return captured data
+	 * @throws IOException when the file is corrupted
+	 */
+	private CapturedData parse() throws IOException {
+		int size = 0, r = -1, t = -1, channels = 32, enabledChannels = -1;
+		String enabledWordList = null;
+
+		int pos = 0;
+		while (pos < end && map.get(pos) == ';') {
+			int lineEnd = pos;
+			while (lineEnd < end && map.get(lineEnd) != '\n')
+				lineEnd++;
+			byte[] bytes = new byte[lineEnd - pos];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = map.get(pos + i);
+			String line = new String(bytes, "US-ASCII").trim();
+			pos = lineEnd + 1;
+
+			try {
+				if (line.startsWith(";Size: "))
+					size = Integer.parseInt(line.substring(7));
+				else if (line.startsWith(";Rate: "))
+					r = Integer.parseInt(line.substring(7));
+				else if (line.startsWith(";Channels: "))
+					channels = Integer.parseInt(line.substring(11));
+				else if (line.startsWith(";TriggerPosition: "))
+					t = Integer.parseInt(line.substring(18));
+				else if (line.startsWith(";EnabledChannels: "))
+					enabledChannels = Integer.parseInt(line.substring(18));
+				else if (line.startsWith(";EnabledChannelWords: "))
+					enabledWordList = line.substring(22);
+			} catch (NumberFormatException E) {
+				throw new IOException("Invalid header encountered.");
+			}
+		}
+		if (pos >= end)
+			throw new IOException("File appears to be corrupted.");
+
+		// each sample takes at least two bytes
+		if (size <= 0 || size > (end - pos + 1) / 2)
+			throw new IOException("Invalid size encountered.");
+
+		int wordCount = Math.max(1, (channels + 31) / 32);
+		// small captures are read into one array per word, large ones into chunks
+		this.size = size;
+		SampleStore samples;
+		chunks = new int[wordCount][][];
+		if (size <= ChunkedSampleStore.CHUNK_SIZE) {
+			int[][] words = new int[wordCount][size];
+			for (int w = 0; w < wordCount; w++)
+				chunks[w] = new int[][] { words[w] };
+			chunkBits = 31;
+			samples = new ArraySampleStore(words);
+		} else {
+			ChunkedSampleStore store = new ChunkedSampleStore(size, wordCount);
+			for (int w = 0; w < wordCount; w++) {
+				chunks[w] = new int[(int)(((long)size + ChunkedSampleStore.CHUNK_SIZE - 1) >>> ChunkedSampleStore.CHUNK_BITS)][];
+				for (int c = 0; c < chunks[w].length; c++)
+					chunks[w][c] = store.getChunk(w, c);
+			}
+			chunkBits = ChunkedSampleStore.CHUNK_BITS;
+			samples = store;
+		}
+		int[] enabledWords = new int[wordCount];
+		enabledWords[0] = enabledChannels;
+		try {
+			if (enabledWordList != null) {
+				String[] list = enabledWordList.split(" ");
+				for (int w = 0; w < wordCount && w < list.length; w++)
+					enabledWords[w] = Integer.parseInt(list[w]);
+			}
+		} catch (NumberFormatException E) {
+			throw new IOException("Invalid header encountered.");
+		}
+
+		// split data into chunks starting at line boundaries
+		int chunkCount = 1;
+		if (end - pos > PARALLEL_THRESHOLD)
+			chunkCount = Math.min(MAX_CHUNKS, Runtime.getRuntime().availableProcessors());
+		Chunk[] chunks = new Chunk[chunkCount];
+		int chunkStart = pos;
+		for (int i = 0; i < chunkCount; i++) {
+			int chunkEnd = end;
+			if (i < chunkCount - 1) {
+				chunkEnd = Math.max(chunkStart, pos + (int)((long)(end - pos) * (i + 1) / chunkCount));
+				while (chunkEnd < end && map.get(chunkEnd - 1) != '\n')
+					chunkEnd++;
+			}
+			chunks[i] = new Chunk(chunkStart, chunkEnd);
+			chunkStart = chunkEnd;
+		}
+
+		// count lines, then parse
+		runChunks(chunks);
+		int first = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			chunks[i].first = first;
+			first += chunks[i].lines;
+		}
+		runChunks(chunks);
+
+		return (new CapturedData(samples, t, r, channels, enabledWords));
+	}
+
+	/**
+	 * Runs the current pass of all chunks. The first chunk is run in the calling thread.
+	 * @param chunks chunks to run
+	 * @throws IOException when a chunk contains invalid data
+	 */
+	private void runChunks(Chunk[] chunks) throws IOException {
+		Thread[] threads = new Thread[chunks.length];
+		for (int i = 1; i < chunks.length; i++) {
+			threads[i] = new Thread(chunks[i], "Parser " + i);
+			threads[i].start();
+		}
+		chunks[0].run();
+
+		boolean interrupted = false;
+		for (int i = 1; i < chunks.length; i++) {
+			while (threads[i].isAlive()) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		for (int i = 0; i < chunks.length; i++)
+			if (chunks[i].failure != null)
+				throw chunks[i].failure;
+	}
+
+	/**
+	 * Part of the file consisting of complete lines.
+	 * On its first run it counts the samples, on the second run it parses them.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class Chunk implements Runnable {
+
+		/**
+		 * Creates a chunk for the given range of the file.
+		 * @param start offset of first byte of the chunk
+		 * @param end offset of first byte after the chunk
+		 */
+		public Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+			this.first = -1;
+			this.lines = 0;
+			this.failure = null;
+		}
+
+		/**
+		 * Counts the samples if their index is not known yet, parses them otherwise.
+		 */
+		public void run() {
+			if (first < 0)
+				count();
+			else
+				try {
+					parse();
+				} catch (IOException e) {
+					failure = e;
+				}
+		}
+
+		/**
+		 * Counts all lines containing a sample.
+		 */
+		private void count() {
+			int lines = 0;
+			boolean empty = true;
+			for (int pos = start; pos < end; pos++) {
+				int type = TYPE[map.get(pos) & 0xff];
+				if (type == NEWLINE) {
+					if (!empty)
+						lines++;
+					empty = true;
+				} else if (type != SPACE) {
+					empty = false;
+				}
+			}
+			if (!empty)
+				lines++;
+			this.lines = lines;
+		}
+
+		/**
+		 * Parses all samples of this chunk into the arrays of the sample store.
+		 * Each digit shifts all words of the current sample left by one digit.
+		 * The first word is kept in a local variable, the others in an array.
+		 * @throws IOException when an invalid character is found
+		 */
+		private void parse() throws IOException {
+			int wordCount = chunks.length;
+			int mask = (1 << chunkBits) - 1;
+			int[] acc = new int[wordCount];
+			int index = first;
+			boolean empty = true;
+			int v = 0;
+
+			for (int pos = start; pos < end && index < size; pos++) {
+				int type = TYPE[map.get(pos) & 0xff];
+				if (type >= 0) {
+					if (wordCount > 1) {
+						for (int w = wordCount - 1; w > 1; w--)
+							acc[w] = acc[w] << 4 | acc[w - 1] >>> 28;
+						acc[1] = acc[1] << 4 | v >>> 28;
+					}
+					v = v << 4 | type;
+					empty = false;
+				} else if (type == NEWLINE) {
+					if (!empty) {
+						int chunk = index >>> chunkBits;
+						int offset = index & mask;
+						chunks[0][chunk][offset] = v;
+						for (int w = 1; w < wordCount; w++) {
+							chunks[w][chunk][offset] = acc[w];
+							acc[w] = 0;
+						}
+						index++;
+						v = 0;
+					}
+					empty = true;
+				} else if (type != SPACE) {
+					throw new IOException("Invalid data encountered.");
+				}
+			}
+			if (!empty && index < size) {
+				chunks[0][index >>> chunkBits][index & mask] = v;
+				for (int w = 1; w < wordCount; w++)
+					chunks[w][index >>> chunkBits][index & mask] = acc[w];
+			}
+		}
+
+		private int start;
+		private int end;
+		private int first;
+		private int lines;
+		private IOException failure;
+	}
+
+	/** character type of a line break */
+	private final static int NEWLINE = -1;
+	/** character type of white space that may surround samples */
+	private final static int SPACE = -2;
+	/** character type of characters not allowed in data lines */
+	private final static int INVALID = -3;
+	/** character types indexed by byte value: value of hex digits, or one of the negative types */
+	private final static int[] TYPE = new int[256];
+	static {
+		for (int i = 0; i < TYPE.length; i++)
+			TYPE[i] = INVALID;
+		for (int i = 0; i < 10; i++)
+			TYPE['0' + i] = i;
+		for (int i = 0; i < 6; i++) {
+			TYPE['a' + i] = 10 + i;
+			TYPE['A' + i] = 10 + i;
+		}
+		TYPE['\n'] = NEWLINE;
+		TYPE['\r'] = SPACE;
+		TYPE[' '] = SPACE;
+		TYPE['\t'] = SPACE;
+	}
+
+	/** minimum number of data bytes to parse files in parallel */
+	private final static int PARALLEL_THRESHOLD = 256 * 1024;
+	/** maximum number of chunks parsed in parallel */
+	private final static int MAX_CHUNKS = 8;
+
+	private MappedByteBuffer map;
+	private int end;
+	private int size;
+	/** arrays receiving the samples, indexed by word, chunk and position within chunk */
+	private int[][][] chunks;
+	/** number of bits of a sample index addressing a sample within its chunk */
+	private int chunkBits;
+}
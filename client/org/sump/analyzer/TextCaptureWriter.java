@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes captured data to files in text format.
+ * <p>
+ * Samples are encoded into a reusable byte buffer using a lookup table for hex digits
+ * and the buffer is written through a file channel whenever it is full.
+ * Only as many digits are written as the highest enabled channel group of a word needs;
+ * all but the most significant word are always written with 8 digits.
+ * Lines are always terminated by a single line feed.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class TextCaptureWriter extends Object {
+
+	/**
+	 * Writes the given data to the given file.
+	 * @param data data to write
+	 * @param file file to write to
+	 * @throws IOException when writing to file failes
+	 */
+	public static void write(CapturedData data, File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			new TextCaptureWriter(out.getChannel()).write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a new writer for the given channel.
+	 * @param channel channel to write to
+	 */
+	private TextCaptureWriter(FileChannel channel) {
+		this.channel = channel;
+		this.bytes = new byte[BUFFER_SIZE];
+		this.buffer = ByteBuffer.wrap(bytes);
+		this.pos = 0;
+	}
+
+	/**
+	 * Writes header and all samples of the given data.
+	 * @param data data to write
+	 * @throws IOException when writing to file failes
+	 */
+	private void write(CapturedData data) throws IOException {
+		SampleStore samples = data.samples;
+		int wordCount = samples.getWordCount();
+		long size = samples.getSize();
+
+		writeLine(";Size: " + size);
+		writeLine(";Rate: " + data.rate);
+		writeLine(";Channels: " + data.channels);
+		writeLine(";EnabledChannels: " + data.enabledChannels);
+		if (wordCount > 1) {
+			StringBuffer line = new StringBuffer(";EnabledChannelWords:");
+			for (int w = 0; w < wordCount; w++)
+				line.append(" " + data.enabledWords[w]);
+			writeLine(line.toString());
+		}
+		if (data.triggerPosition >= 0)
+			writeLine(";TriggerPosition: " + data.triggerPosition);
+
+		int topShift = 4 * (getDigits(data.enabledWords[wordCount - 1], wordCount > 1 ? 32 : data.channels) - 1);
+		int lineLength = 8 * (wordCount - 1) + topShift / 4 + 2;
+		byte[] bytes = this.bytes;
+		int pos = this.pos;
+
+		// samples are fetched from the store in blocks
+		int[][] block = new int[wordCount][BLOCK_SIZE];
+		int[] top = block[wordCount - 1];
+		for (long from = 0; from < size; from += BLOCK_SIZE) {
+			int count = (int)Math.min(BLOCK_SIZE, size - from);
+			for (int w = 0; w < wordCount; w++)
+				samples.getValues(from, count, w, block[w], 0);
+
+			for (int i = 0; i < count; i++) {
+				if (pos + lineLength > bytes.length) {
+					this.pos = pos;
+					flush();
+					pos = 0;
+				}
+				int value = top[i];
+				for (int shift = topShift; shift >= 0; shift -= 4)
+					bytes[pos++] = HEX[(value >>> shift) & 0xf];
+				for (int w = wordCount - 2; w >= 0; w--) {
+					value = block[w][i];
+					for (int shift = 28; shift >= 0; shift -= 4)
+						bytes[pos++] = HEX[(value >>> shift) & 0xf];
+				}
+				bytes[pos++] = '\n';
+			}
+		}
+
+		this.pos = pos;
+		flush();
+	}
+
+	/**
+	 * Returns the number of hex digits needed to write the enabled channel groups of a word.
+	 * @param enabledChannels bit mask of enabled channels of the word
+	 * @param channels number of channels of the word
+	 * @return number of digits (2, 4, 6 or 8)
+	 */
+	private static int getDigits(int enabledChannels, int channels) {
+		int digits = 8;
+		while (digits > 2 && (enabledChannels >>> (4 * digits - 8)) == 0)
+			digits -= 2;
+		return (Math.min(digits, Math.max(2, (channels + 7) / 8 * 2)));
+	}
+
+	/**
+	 * Writes a header line.
+	 * @param line line to write without line terminator
+	 * @throws IOException when writing to file failes
+	 */
+	private void writeLine(String line) throws IOException {
+		if (pos + line.length() + 1 > bytes.length)
+			flush();
+		for (int i = 0; i < line.length(); i++)
+			bytes[pos++] = (byte)line.charAt(i);
+		bytes[pos++] = '\n';
+	}
+
+	/**
+	 * Writes the buffered bytes to the file channel.
+	 * @throws IOException when writing to file failes
+	 */
+	private void flush() throws IOException {
+		buffer.clear();
+		buffer.limit(pos);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		pos = 0;
+	}
+
+	/** ascii codes of hex digits indexed by nibble value */
+	private final static byte[] HEX = {
+		'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+	};
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+	/** size of the encoding buffer in bytes */
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private FileChannel channel;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	private int pos;
+}
@@ -0,0 +1,296 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * Cache of offscreen images holding parts of a rendered diagram.
+ * <p>
+ * A diagram is split into tiles of <code>TILE_WIDTH</code> pixels covering its full height.
+ * Tiles are identified by the scale they were rendered at, their index from the left of the diagram
+ * and a hash of the display settings used, so tiles of previous zoom levels stay valid when zooming back.
+ * The cache keeps tiles up to a given number of bytes and drops the least recently used tile when full.
+ * Images of dropped tiles are reused for new tiles of the same size.
+ * <p>
+ * Each tile is divided into horizontal bands, which are rendered separately, usually on other threads.
+ * A band is <code>MISSING</code> until it is requested, then <code>QUEUED</code>, <code>RENDERING</code>
+ * and finally <code>DONE</code>. Bands of tiles that are no longer visible when their rendering would start
+ * are reset to <code>MISSING</code> instead, so they are requested again once they become visible.
+ * Bands whose rendering failed are reset to <code>MISSING</code> as well.
+ * <p>
+ * Lookups do not allocate any objects, so the cache can be used on every repaint.
+ * All methods may be called from any thread.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class TileCache extends Object {
+	/** width of a tile in pixels */
+	public final static int TILE_WIDTH = 256;
+	/** band has not been requested or was not rendered as it was no longer visible */
+	public final static int MISSING = 0;
+	/** band is waiting to be rendered */
+	public final static int QUEUED = 1;
+	/** band is being rendered */
+	public final static int RENDERING = 2;
+	/** band can be drawn */
+	public final static int DONE = 3;
+
+	/**
+	 * Creates an empty cache.
+	 * @param maxBytes maximum number of bytes used by tile images
+	 */
+	public TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		tiles = new ArrayList();
+		bytes = 0;
+		clock = 0;
+		visibleFirst = 0;
+		visibleLast = -1;
+	}
+
+	/**
+	 * Returns a tile if it is cached.
+	 * @param scale scale the tile was rendered at
+	 * @param index index of the tile
+	 * @param settings hash of the display settings the tile was rendered with
+	 * @param bands top of each band followed by the height of the tile, only tiles created with the same array match
+	 * @return tile or <code>null</code> if it is not cached
+	 */
+	public synchronized Tile get(double scale, int index, int settings, int[] bands) {
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile tile = (Tile)tiles.get(i);
+			if (tile.index == index && tile.scale == scale && tile.settings == settings && tile.bands == bands) {
+				tile.used = ++clock;
+				return (tile);
+			}
+		}
+		return (null);
+	}
+
+	/**
+	 * Adds a tile with all bands missing to the cache.
+	 * Least recently used tiles are dropped until the new tile fits.
+	 * @param scale scale the tile is rendered at
+	 * @param index index of the tile
+	 * @param settings hash of the display settings the tile is rendered with
+	 * @param bands top of each band followed by the height of the tile
+	 * @return new tile
+	 */
+	public synchronized Tile create(double scale, int index, int settings, int[] bands) {
+		int height = bands[bands.length - 1];
+		long needed = 4L * TILE_WIDTH * height;
+		BufferedImage image = null;
+		while (bytes + needed > maxBytes && !tiles.isEmpty()) {
+			Tile oldest = (Tile)tiles.get(0);
+			for (int i = 1; i < tiles.size(); i++) {
+				Tile tile = (Tile)tiles.get(i);
+				if (tile.used < oldest.used)
+					oldest = tile;
+			}
+			tiles.remove(oldest);
+			oldest.dropped = true;
+			bytes -= 4L * TILE_WIDTH * oldest.image.getHeight();
+			// images still being rendered into are left to the renderer
+			if (oldest.image.getHeight() == height && !oldest.isRendering())
+				image = oldest.image;
+		}
+		if (image == null)
+			image = new BufferedImage(TILE_WIDTH, height, BufferedImage.TYPE_INT_RGB);
+
+		Tile tile = new Tile();
+		tile.image = image;
+		tile.scale = scale;
+		tile.index = index;
+		tile.settings = settings;
+		tile.bands = bands;
+		tile.state = new int[bands.length - 1];
+		tile.used = ++clock;
+		tiles.add(tile);
+		bytes += needed;
+		return (tile);
+	}
+
+	/**
+	 * Returns the state of a band and marks it as queued if it was missing.
+	 * The caller has to queue the band for rendering when <code>MISSING</code> is returned.
+	 * @param tile tile containing the band
+	 * @param band index of the band
+	 * @return state of the band before the call
+	 */
+	public synchronized int request(Tile tile, int band) {
+		int state = tile.state[band];
+		if (state == MISSING)
+			tile.state[band] = QUEUED;
+		return (state);
+	}
+
+	/**
+	 * Marks a queued band as being rendered, unless its tile is no longer cached or visible.
+	 * @param tile tile containing the band
+	 * @param band index of the band
+	 * @return <code>true</code> if the band needs to be rendered, <code>false</code> if it is to be skipped
+	 */
+	public synchronized boolean start(Tile tile, int band) {
+		if (tile.dropped || tile.state[band] != QUEUED)
+			return (false);
+		if (tile.scale != visibleScale || tile.settings != visibleSettings || tile.index < visibleFirst || tile.index > visibleLast) {
+			tile.state[band] = MISSING;
+			return (false);
+		}
+		tile.state[band] = RENDERING;
+		return (true);
+	}
+
+	/**
+	 * Marks a band as rendered.
+	 * @param tile tile containing the band
+	 * @param band index of the band
+	 */
+	public synchronized void finish(Tile tile, int band) {
+		tile.state[band] = DONE;
+	}
+
+	/**
+	 * Marks a band as missing after its rendering failed, so it is requested again.
+	 * @param tile tile containing the band
+	 * @param band index of the band
+	 */
+	public synchronized void fail(Tile tile, int band) {
+		tile.state[band] = MISSING;
+	}
+
+	/**
+	 * Sets the range of tiles currently visible. Bands of other tiles are not rendered.
+	 * @param scale scale of visible tiles
+	 * @param settings hash of the display settings of visible tiles
+	 * @param first index of the first visible tile
+	 * @param last index of the last visible tile
+	 */
+	public synchronized void setVisible(double scale, int settings, int first, int last) {
+		visibleScale = scale;
+		visibleSettings = settings;
+		visibleFirst = first;
+		visibleLast = last;
+	}
+
+	/**
+	 * Draws a band of a tile scaled from rendered bands of tiles at other scales, as far as those are cached.
+	 * Used in place of a band that is not rendered yet.
+	 * @param g graphics context to draw on, using diagram coordinates
+	 * @param tile tile to draw
+	 * @param band index of the band
+	 * @param offset x position of the first sample in the diagram
+	 */
+	public synchronized void drawScaled(Graphics g, Tile tile, int band, int offset) {
+		int x0 = tile.index * TILE_WIDTH;
+		int top = tile.bands[band];
+		int bottom = tile.bands[band + 1];
+		for (int i = 0; i < tiles.size(); i++) {
+			Tile other = (Tile)tiles.get(i);
+			if (other.scale == tile.scale || other.settings != tile.settings || other.bands != tile.bands || other.state[band] != DONE)
+				continue;
+
+			// part of the other tile showing the samples of this tile
+			double factor = other.scale / tile.scale;
+			int ox0 = other.index * TILE_WIDTH;
+			int from = Math.max(ox0, (int)Math.floor(offset + (x0 - offset) * factor));
+			int to = Math.min(ox0 + TILE_WIDTH, (int)Math.ceil(offset + (x0 + TILE_WIDTH - offset) * factor));
+			if (from >= to)
+				continue;
+
+			int dx0 = (int)(offset + (from - offset) / factor);
+			int dx1 = (int)(offset + (to - offset) / factor);
+			g.drawImage(other.image, dx0, top, dx1, bottom, from - ox0, top, to - ox0, bottom, null);
+		}
+	}
+
+	/**
+	 * Drops all tiles. Must be called whenever the data shown in the tiles changes.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < tiles.size(); i++)
+			((Tile)tiles.get(i)).dropped = true;
+		tiles.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Rendered tile, its key and the state of its bands.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	public static class Tile {
+
+		/**
+		 * Returns the image holding the tile.
+		 * @return image of the tile
+		 */
+		public BufferedImage getImage() {
+			return (image);
+		}
+
+		/**
+		 * Returns the index of the tile.
+		 * @return index counting from the left of the diagram
+		 */
+		public int getIndex() {
+			return (index);
+		}
+
+		/**
+		 * Returns the bands of the tile.
+		 * @return top of each band followed by the height of the tile
+		 */
+		public int[] getBands() {
+			return (bands);
+		}
+
+		private boolean isRendering() {
+			for (int i = 0; i < state.length; i++)
+				if (state[i] == RENDERING)
+					return (true);
+			return (false);
+		}
+
+		private BufferedImage image;
+		private double scale;
+		private int index;
+		private int settings;
+		private int[] bands;
+		private int[] state;
+		private long used;
+		private boolean dropped;
+	}
+
+	private ArrayList tiles;
+	private long maxBytes;
+	private long bytes;
+	private long clock;
+	private double visibleScale;
+	private int visibleSettings;
+	private int visibleFirst;
+	private int visibleLast;
+}
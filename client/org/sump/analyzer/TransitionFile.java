@@ -0,0 +1,582 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Capture file storing only the samples at which the value changes ("*.slt").
+ * <p>
+ * The file starts with the magic bytes "SLT1" followed by a header of little-endian 32bit integers:
+ * format version, size, rate, channels, enabled channels, trigger position, number of words,
+ * number of transitions, transitions per index entry, number of index entries and the enabled channels of each word.
+ * <p>
+ * The seek index follows. Entry k describes the state after the first k * <code>INDEX_INTERVAL</code> transitions:
+ * the index of the last sample changed, the offset of the next transition relative to the start of the transitions
+ * and the value of all words. The index is followed by the transitions. Each transition is
+ * the distance in samples to the previous transition followed by the changed bits of each word (new value xor previous value),
+ * all written as unsigned varints of 7 bits per byte, least significant group first.
+ * The first transition sets the value of sample 0 and has a distance of 0.
+ * <p>
+ * Files are memory mapped when opened and only decoded on access. Reading a single value takes a binary search in the index
+ * and decoding at most <code>INDEX_INTERVAL</code> transitions.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class TransitionFile extends Object {
+	/** magic bytes identifying the transition format */
+	public final static byte[] MAGIC = { 'S', 'L', 'T', '1' };
+
+	/**
+	 * Opens the given transition file. Only the header is read.
+	 * @param file file to open
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	public TransitionFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+				throw new IOException("File appears to be corrupted.");
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			in.close();
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		map.position(MAGIC.length);
+		int version = map.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported file version " + version + ".");
+		size = map.getInt();
+		rate = map.getInt();
+		channels = map.getInt();
+		map.getInt(); // enabled channels, repeated as first entry of enabled words
+		triggerPosition = map.getInt();
+		wordCount = map.getInt();
+		transitionCount = map.getInt();
+		indexInterval = map.getInt();
+		indexCount = map.getInt();
+
+		if (size <= 0 || wordCount <= 0 || indexInterval <= 0 || indexCount <= 0 || transitionCount < 0
+			|| (long)HEADER_SIZE + 4L * wordCount + (long)indexCount * 4 * (2 + wordCount) > map.limit()
+		)
+			throw new IOException("File appears to be corrupted.");
+
+		enabledWords = new int[wordCount];
+		for (int w = 0; w < wordCount; w++)
+			enabledWords[w] = map.getInt();
+		indexStart = map.position();
+		dataStart = indexStart + indexCount * 4 * (2 + wordCount);
+	}
+
+	/**
+	 * Returns the number of samples.
+	 * @return number of samples
+	 */
+	public int getSize() {
+		return (size);
+	}
+
+	/**
+	 * Returns the number of transitions, including the one setting the first sample.
+	 * @return number of transitions
+	 */
+	public int getTransitionCount() {
+		return (transitionCount);
+	}
+
+	/**
+	 * Returns the value of the given word at the given sample.
+	 * @param index index of sample
+	 * @param word index of 32bit word
+	 * @return value of word at sample
+	 * @throws IOException when the file is corrupted
+	 */
+	public int getValue(int index, int word) throws IOException {
+		Cursor cursor = new Cursor(index);
+		return (cursor.value[word]);
+	}
+
+	/**
+	 * Decodes the given range of samples.
+	 * @param from index of first sample to decode
+	 * @param count number of samples to decode
+	 * @param words arrays receiving the values of each word, starting at index 0
+	 * @throws IOException when the file is corrupted
+	 */
+	public void read(int from, int count, int[][] words) throws IOException {
+		Cursor cursor = new Cursor(from);
+		int end = from + count;
+		int i = from;
+		while (i < end) {
+			int runEnd = end;
+			if (cursor.hasNext() && cursor.nextSample < end)
+				runEnd = cursor.nextSample;
+			for (int w = 0; w < wordCount; w++)
+				Arrays.fill(words[w], i - from, runEnd - from, cursor.value[w]);
+			i = runEnd;
+			if (i < end)
+				cursor.advance();
+		}
+	}
+
+	/**
+	 * Decodes all samples.
+	 * @return captured data containing all samples
+	 * @throws IOException when the file is corrupted
+	 */
+	public CapturedData toCapturedData() throws IOException {
+		if (size <= ChunkedSampleStore.CHUNK_SIZE) {
+			int[][] words = new int[wordCount][size];
+			read(0, size, words);
+			return (new CapturedData(words, triggerPosition, rate, channels, enabledWords));
+		}
+
+		// large captures are decoded chunk by chunk
+		ChunkedSampleStore samples = new ChunkedSampleStore(size, wordCount);
+		int[][] chunk = new int[wordCount][];
+		for (int c = 0; (long)c * ChunkedSampleStore.CHUNK_SIZE < size; c++) {
+			for (int w = 0; w < wordCount; w++)
+				chunk[w] = samples.getChunk(w, c);
+			read(c * ChunkedSampleStore.CHUNK_SIZE, chunk[0].length, chunk);
+		}
+		return (new CapturedData(samples, triggerPosition, rate, channels, enabledWords));
+	}
+
+	/**
+	 * Returns a sample store decoding samples from this file when they are accessed.
+	 * Samples are not loaded into memory, so this can be used for files with more samples than the heap could hold.
+	 * @return store reading samples from this file
+	 */
+	public SampleStore toSampleStore() {
+		return (new Store());
+	}
+
+	/**
+	 * Returns the captured data stored in this file without decoding it, see <code>toSampleStore()</code>.
+	 * @return captured data reading samples from this file
+	 */
+	public CapturedData toCapturedDataView() {
+		return (new CapturedData(toSampleStore(), triggerPosition, rate, channels, enabledWords));
+	}
+
+	/**
+	 * Writes the given data to the given file in transition format.
+	 * @param data data to write
+	 * @param file file to write to
+	 * @throws IOException when writing to file failes
+	 */
+	public static void write(CapturedData data, File file) throws IOException {
+		SampleStore samples = data.samples;
+		int wordCount = samples.getWordCount();
+		int size = (int)samples.getSize();
+		int[][] block = new int[wordCount][BLOCK_SIZE];
+
+		// count transitions to size index
+		int transitions = 0;
+		int[] value = new int[wordCount];
+		for (int from = 0; from < size; from += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, size - from);
+			for (int w = 0; w < wordCount; w++)
+				samples.getValues(from, count, w, block[w], 0);
+			for (int i = 0; i < count; i++) {
+				boolean changed = (from + i == 0);
+				for (int w = 0; w < wordCount; w++) {
+					changed |= block[w][i] != value[w];
+					value[w] = block[w][i];
+				}
+				if (changed)
+					transitions++;
+			}
+		}
+
+		for (int w = 0; w < wordCount; w++)
+			value[w] = 0;
+		Writer writer = new Writer(file, size, data.rate, data.channels, data.triggerPosition, data.enabledWords, transitions);
+		try {
+			for (int from = 0; from < size; from += BLOCK_SIZE) {
+				int blockCount = Math.min(BLOCK_SIZE, size - from);
+				for (int w = 0; w < wordCount; w++)
+					samples.getValues(from, blockCount, w, block[w], 0);
+
+				for (int i = 0; i < blockCount; i++) {
+					boolean changed = (from + i == 0);
+					for (int w = 0; w < wordCount && !changed; w++)
+						changed = block[w][i] != value[w];
+					if (!changed)
+						continue;
+					for (int w = 0; w < wordCount; w++)
+						value[w] = block[w][i];
+					writer.add(from + i, value);
+				}
+			}
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes an unsigned varint.
+	 * @param bytes buffer to write to
+	 * @param pos position to write at
+	 * @param value value to write
+	 * @return position after written value
+	 */
+	private static int writeVarint(byte[] bytes, int pos, int value) {
+		while ((value & ~0x7f) != 0) {
+			bytes[pos++] = (byte)(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte)value;
+		return (pos);
+	}
+
+	/**
+	 * Writes a transition file from transitions supplied one after the other, so any source can be streamed into a file.
+	 * The number of transitions must be known in advance to reserve space for the index.
+	 * The transitions are written behind the space reserved for header and index, which are written last.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	static class Writer extends Object {
+
+		/**
+		 * Creates the given file and reserves space for header and index.
+		 * @param file file to write to
+		 * @param size number of samples
+		 * @param rate sampling rate (may be <code>CapturedData.NOT_AVAILABLE</code>)
+		 * @param channels number of used channels
+		 * @param triggerPosition position of trigger (may be <code>CapturedData.NOT_AVAILABLE</code>)
+		 * @param enabledWords bit masks identifying used channels for each word
+		 * @param transitions number of transitions that will be added
+		 * @throws IOException when the file cannot be created
+		 */
+		public Writer(File file, int size, int rate, int channels, int triggerPosition, int[] enabledWords, int transitions) throws IOException {
+			this.size = size;
+			this.wordCount = enabledWords.length;
+			this.transitions = transitions;
+			int indexCount = (transitions + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			headerLength = HEADER_SIZE + 4 * wordCount + indexCount * 4 * (2 + wordCount);
+
+			header = ByteBuffer.allocate(headerLength);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(size);
+			header.putInt(rate);
+			header.putInt(channels);
+			header.putInt(enabledWords[0]);
+			header.putInt(triggerPosition);
+			header.putInt(wordCount);
+			header.putInt(transitions);
+			header.putInt(INDEX_INTERVAL);
+			header.putInt(indexCount);
+			for (int w = 0; w < wordCount; w++)
+				header.putInt(enabledWords[w]);
+
+			value = new int[wordCount];
+			bytes = new byte[BUFFER_SIZE];
+			buffer = ByteBuffer.wrap(bytes);
+			out = new FileOutputStream(file);
+			channel = out.getChannel();
+		}
+
+		/**
+		 * Adds a transition. The first transition must be at sample 0.
+		 * @param sample index of sample at which the value changes, larger than that of the previous transition
+		 * @param newValue value of all words from this sample on
+		 * @throws IOException when writing to file failes or more transitions are added than announced
+		 */
+		public void add(int sample, int[] newValue) throws IOException {
+			if (count >= transitions || sample >= size || (count == 0 ? sample != 0 : sample <= this.sample))
+				throw new IOException("Invalid transition at sample " + sample + ".");
+
+			if (count % INDEX_INTERVAL == 0) {
+				if (written + pos > Integer.MAX_VALUE)
+					throw new IOException("Too many transitions for transition format.");
+				header.putInt(this.sample);
+				header.putInt((int)(written + pos));
+				for (int w = 0; w < wordCount; w++)
+					header.putInt(value[w]);
+			}
+			if (pos + 5 * (1 + wordCount) > bytes.length)
+				flush();
+			pos = writeVarint(bytes, pos, sample - this.sample);
+			for (int w = 0; w < wordCount; w++) {
+				pos = writeVarint(bytes, pos, newValue[w] ^ value[w]);
+				value[w] = newValue[w];
+			}
+			this.sample = sample;
+			count++;
+		}
+
+		/**
+		 * Writes the remaining transitions followed by header and index.
+		 * @throws IOException when writing to file failes or less transitions have been added than announced
+		 */
+		public void finish() throws IOException {
+			if (count != transitions)
+				throw new IOException("Missing transitions.");
+			flush();
+			header.flip();
+			long headerWritten = 0;
+			while (header.hasRemaining())
+				headerWritten += channel.write(header, headerWritten);
+		}
+
+		/**
+		 * Closes the file. The file is incomplete unless <code>finish()</code> has been called before.
+		 * @throws IOException when closing the file failes
+		 */
+		public void close() throws IOException {
+			out.close();
+		}
+
+		/**
+		 * Writes the encoded transitions in the buffer behind the space reserved for the header.
+		 * @throws IOException when writing to file failes
+		 */
+		private void flush() throws IOException {
+			buffer.clear();
+			buffer.limit(pos);
+			while (buffer.hasRemaining())
+				written += channel.write(buffer, headerLength + written);
+			pos = 0;
+		}
+
+		private int size;
+		private int wordCount;
+		private int transitions;
+		private int headerLength;
+		private ByteBuffer header;
+		private FileOutputStream out;
+		private FileChannel channel;
+		private byte[] bytes;
+		private ByteBuffer buffer;
+		private long written;
+		private int pos;
+		private int sample;
+		private int count;
+		private int[] value;
+	}
+
+	/**
+	 * Sample store decoding samples from the file on access.
+	 * A cursor is kept between calls, so reading samples in ascending order only decodes each transition once.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class Store extends Object implements SampleStore {
+
+		/**
+		 * Returns a cursor positioned at the given sample, reusing the last one when moving forward.
+		 * When the sample is more than one index entry ahead, a new cursor is positioned using the index instead.
+		 * @param index index of sample
+		 * @return cursor at sample
+		 */
+		private Cursor seek(int index) {
+			try {
+				if (cursor == null || index < cursor.sample) {
+					cursor = new Cursor(index);
+				} else {
+					int steps = 0;
+					while (cursor.hasNext() && cursor.nextSample <= index) {
+						if (++steps > indexInterval) {
+							cursor = new Cursor(index);
+							break;
+						}
+						cursor.advance();
+					}
+				}
+			} catch (IOException e) {
+				cursor = null;
+				throw new IllegalStateException("Cannot decode capture file: " + e.getMessage());
+			}
+			return (cursor);
+		}
+
+		public long getSize() {
+			return (size);
+		}
+
+		public int getWordCount() {
+			return (wordCount);
+		}
+
+		public synchronized int getValue(long index) {
+			return (seek((int)index).value[0]);
+		}
+
+		public synchronized int getValue(long index, int word) {
+			return (seek((int)index).value[word]);
+		}
+
+		public synchronized void getValues(long from, int count, int word, int[] buffer, int offset) {
+			int i = (int)from;
+			int end = i + count;
+			while (i < end) {
+				Cursor c = seek(i);
+				int runEnd = end;
+				if (c.hasNext() && c.nextSample < end)
+					runEnd = c.nextSample;
+				Arrays.fill(buffer, offset + i - (int)from, offset + runEnd - (int)from, c.value[word]);
+				i = runEnd;
+			}
+		}
+
+		private Cursor cursor;
+	}
+
+	/**
+	 * Position within the transitions, holding the value of all words at that position.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class Cursor {
+
+		/**
+		 * Creates a cursor positioned at the given sample.
+		 * The closest index entry is found by binary search, then transitions are applied up to the sample.
+		 * @param index index of sample to position at
+		 * @throws IOException when the file is corrupted
+		 */
+		public Cursor(int index) throws IOException {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Sample " + index + " not in file.");
+
+			int entrySize = 4 * (2 + wordCount);
+			int low = 0, high = indexCount - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (map.getInt(indexStart + mid * entrySize) <= index)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+
+			int entry = indexStart + low * entrySize;
+			sample = map.getInt(entry);
+			pos = dataStart + map.getInt(entry + 4);
+			value = new int[wordCount];
+			for (int w = 0; w < wordCount; w++)
+				value[w] = map.getInt(entry + 8 + 4 * w);
+			transition = low * indexInterval;
+
+			readNextSample();
+			while (hasNext() && nextSample <= index)
+				advance();
+		}
+
+		/**
+		 * Checks if there are transitions left.
+		 * @return <code>true</code> if another transition follows
+		 */
+		public boolean hasNext() {
+			return (transition < transitionCount);
+		}
+
+		/**
+		 * Applies the next transition.
+		 * @throws IOException when the file is corrupted
+		 */
+		public void advance() throws IOException {
+			for (int w = 0; w < wordCount; w++)
+				value[w] ^= readVarint();
+			sample = nextSample;
+			transition++;
+			readNextSample();
+		}
+
+		/**
+		 * Reads the distance of the next transition, if there is one.
+		 * @throws IOException when the file is corrupted
+		 */
+		private void readNextSample() throws IOException {
+			if (hasNext())
+				nextSample = sample + readVarint();
+		}
+
+		/**
+		 * Reads an unsigned varint at the current position.
+		 * @return value read
+		 * @throws IOException when the file is corrupted
+		 */
+		private int readVarint() throws IOException {
+			int result = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				if (pos >= map.limit())
+					throw new IOException("File appears to be corrupted.");
+				int b = map.get(pos++);
+				result |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return (result);
+			}
+			throw new IOException("File appears to be corrupted.");
+		}
+
+		private int pos;
+		private int transition;
+		private int sample;
+		private int nextSample;
+		private int[] value;
+	}
+
+	/** version of the transition format */
+	private final static int VERSION = 1;
+	/** length of the header without the enabled channels of each word */
+	private final static int HEADER_SIZE = 44;
+	/** number of transitions between two index entries */
+	private final static int INDEX_INTERVAL = 256;
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+	/** size of the encoding buffer in bytes */
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private MappedByteBuffer map;
+	private int size;
+	private int rate;
+	private int channels;
+	private int triggerPosition;
+	private int wordCount;
+	private int transitionCount;
+	private int indexInterval;
+	private int indexCount;
+	private int[] enabledWords;
+	private int indexStart;
+	private int dataStart;
+}
@@ -0,0 +1,701 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Reads captured data from Value Change Dump files ("*.vcd") as written by simulators.
+ * <p>
+ * Each bit of each declared variable becomes a channel, in order of declaration. Variables sharing an identifier
+ * are only mapped once. Values x and z are read as 0, real variables are ignored.
+ * The reference names of the variables are provided as channel labels.
+ * <p>
+ * Files written by <code>VcdWriter</code> are recognized by their version. For them, sample rate, trigger position
+ * and number of channels are taken from the comments and each channel keeps the number its identifier was
+ * derived from, so the capture is restored as it was written.
+ * <p>
+ * The file is streamed through a fixed size buffer twice, so the memory used does not depend on the file size.
+ * The first pass finds the number of transitions and the greatest common divisor of their times, which becomes
+ * the sample period. The second pass writes the transitions to a temporary transition file.
+ * Small captures are then decoded into memory, larger ones are read from the temporary file on access.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class VcdReader extends Object {
+
+	/**
+	 * Checks if the given file looks like a value change dump, that is its first non blank character is '$'.
+	 * @param file file to check
+	 * @return <code>true</code> if the file seems to be a value change dump
+	 * @throws IOException when reading from file failes
+	 */
+	public static boolean isVcd(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] head = new byte[256];
+			int count = in.read(head);
+			for (int i = 0; i < count; i++)
+				if (head[i] > ' ')
+					return (head[i] == '$');
+			return (false);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Creates a reader for the given file.
+	 * @param file file to read
+	 */
+	public VcdReader(File file) {
+		this.file = file;
+		bytes = new byte[BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Reads all samples.
+	 * @return captured data read from file
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	public CapturedData read() throws IOException {
+		ids = new HashMap();
+		idChannels = new int[128];
+		idWidths = new int[128];
+		names = new ArrayList();
+		timescale = 1000000; // 1ns in femtoseconds, used when there is no declaration
+		period = 0;
+		client = false;
+		sampleRate = 0;
+		triggerPosition = CapturedData.NOT_AVAILABLE;
+		declaredChannels = 0;
+
+		// first pass finds declarations, number of transitions and sample period
+		parse(null);
+		if (names.isEmpty())
+			throw new IOException("No signals found.");
+		if (transitions == 0)
+			commitInitial();
+		long span = lastTime - firstTime;
+		if (client && sampleRate != 0)
+			// the written sample period, which is not necessarily the greatest common divisor of all changes
+			period = (sampleRate < 0) ? 1 : Math.max(1, Math.round(1e15 / ((double)timescale * sampleRate)));
+		else
+			period = gcd(period, span);
+		if (period == 0)
+			period = 1;
+		if (span / period >= Integer.MAX_VALUE)
+			throw new IOException("Time span of value change dump is too large.");
+		int size = (int)(span / period) + 1;
+
+		int channels = getChannelCount();
+		int wordCount = (channels + 31) / 32;
+		int[] enabledWords = new int[wordCount];
+		for (int c = 0; c < names.size(); c++)
+			if (names.get(c) != null)
+				enabledWords[c / 32] |= 1 << (c % 32);
+
+		int rate = CapturedData.NOT_AVAILABLE;
+		if (client && sampleRate != 0) {
+			rate = (sampleRate < 0) ? CapturedData.NOT_AVAILABLE : sampleRate;
+		} else {
+			double frequency = 1e15 / ((double)timescale * period);
+			if (frequency >= 1 && frequency <= Integer.MAX_VALUE)
+				rate = (int)Math.round(frequency);
+		}
+		int trigger = (triggerPosition >= 0 && triggerPosition < size) ? triggerPosition : CapturedData.NOT_AVAILABLE;
+
+		// second pass writes transitions
+		File temporary = File.createTempFile("vcd", ".slt");
+		temporary.deleteOnExit();
+		TransitionFile.Writer writer = new TransitionFile.Writer(temporary, size, rate, channels, trigger, enabledWords, transitions);
+		try {
+			parse(writer);
+			if (transitions == 0)
+				commitInitial();
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+
+		TransitionFile transitionFile = new TransitionFile(temporary);
+		if (size <= ChunkedSampleStore.CHUNK_SIZE) {
+			CapturedData data = transitionFile.toCapturedData();
+			temporary.delete();
+			return (data);
+		}
+		return (transitionFile.toCapturedDataView());
+	}
+
+	/**
+	 * Returns the names of all channels. Only valid after <code>read()</code>.
+	 * Channels not declared and channels written without label by this client have <code>null</code> names.
+	 * @return reference names of the variables, with bit index for variables of more than one bit
+	 */
+	public String[] getLabels() {
+		String[] labels = new String[names.size()];
+		for (int c = 0; c < labels.length; c++) {
+			String name = (String)names.get(c);
+			if (!(client && ("channel" + c).equals(name)))
+				labels[c] = name;
+		}
+		return (labels);
+	}
+
+	/**
+	 * Returns the number of channels, which covers all declared channels.
+	 * @return number of channels
+	 */
+	private int getChannelCount() {
+		return (Math.max(names.size(), declaredChannels));
+	}
+
+	/**
+	 * Parses the whole file.
+	 * @param writer writer to receive transitions or <code>null</code> if declarations are to be collected and transitions counted
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	private void parse(TransitionFile.Writer writer) throws IOException {
+		this.writer = writer;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			channel = in.getChannel();
+			start = 0;
+			end = 0;
+			eof = false;
+			transitions = 0;
+			value = null;
+
+			parseDeclarations();
+			int wordCount = (getChannelCount() + 31) / 32;
+			value = new int[wordCount];
+			committed = new int[wordCount];
+			parseChanges();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the declarations up to <code>$enddefinitions</code>.
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	private void parseDeclarations() throws IOException {
+		while (nextToken()) {
+			if (!tokenIs("$var") && !tokenIs("$timescale") && !tokenIs("$version") && !tokenIs("$comment") && !tokenIs("$enddefinitions")) {
+				if (token[tokenStart] == '$' && !tokenIs("$end"))
+					skipToEnd();
+				continue;
+			}
+
+			if (tokenIs("$enddefinitions")) {
+				skipToEnd();
+				return;
+
+			} else if (tokenIs("$timescale")) {
+				StringBuffer sb = new StringBuffer();
+				while (nextToken() && !tokenIs("$end"))
+					sb.append(tokenString());
+				if (writer == null)
+					timescale = parseTimescale(sb.toString());
+
+			} else if (tokenIs("$version")) {
+				String text = readText();
+				if (writer == null)
+					client = text.startsWith(VcdWriter.VERSION);
+
+			} else if (tokenIs("$comment")) {
+				String text = readText();
+				if (writer == null && client)
+					parseComment(text);
+
+			} else {
+				// $var type size identifier reference [range] $end
+				ArrayList fields = new ArrayList();
+				while (nextToken() && !tokenIs("$end"))
+					fields.add(tokenString());
+				if (writer != null)
+					continue;
+				if (fields.size() < 4)
+					throw new IOException("Invalid variable declaration.");
+				if (fields.get(0).equals("real") || fields.get(0).equals("realtime"))
+					continue;
+				int width;
+				try {
+					width = Integer.parseInt((String)fields.get(1));
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid variable declaration.");
+				}
+				String id = (String)fields.get(2);
+				if (width <= 0 || ids.containsKey(id))
+					continue;
+				declare(id, width, (String)fields.get(3), fields.size() > 4 ? (String)fields.get(4) : null);
+			}
+		}
+		throw new IOException("File appears to be corrupted.");
+	}
+
+	/**
+	 * Takes sample rate, trigger position or number of channels from a comment written by this client.
+	 * Comments not understood are ignored.
+	 * @param text text of comment
+	 */
+	private void parseComment(String text) {
+		try {
+			if (text.startsWith(VcdWriter.SAMPLED_AT) && text.endsWith("Hz")) {
+				int rate = Integer.parseInt(text.substring(VcdWriter.SAMPLED_AT.length(), text.length() - 2));
+				if (rate > 0)
+					sampleRate = rate;
+			} else if (text.startsWith(VcdWriter.NO_TIMING)) {
+				sampleRate = -1;
+			} else if (text.startsWith(VcdWriter.TRIGGER_AT)) {
+				triggerPosition = Integer.parseInt(text.substring(VcdWriter.TRIGGER_AT.length()));
+			} else if (text.startsWith(VcdWriter.CHANNELS)) {
+				int count = Integer.parseInt(text.substring(VcdWriter.CHANNELS.length()));
+				if (count > 0 && count <= MAX_CHANNELS)
+					declaredChannels = count;
+			}
+		} catch (NumberFormatException e) {
+		}
+	}
+
+	/**
+	 * Assigns channels to a variable.
+	 * Single bit variables of files written by this client get the channel their identifier was derived from.
+	 * @param id identifier used for value changes
+	 * @param width number of bits
+	 * @param reference name of variable
+	 * @param range bit range of variable, like "[7:0]", or <code>null</code>
+	 */
+	private void declare(String id, int width, String reference, String range) {
+		int first = names.size();
+		if (client && width == 1 && range == null && reference.indexOf('[') < 0) {
+			int c = decodeId(id);
+			if (c >= 0 && c < MAX_CHANNELS && (c >= names.size() || names.get(c) == null)) {
+				while (names.size() <= c)
+					names.add(null);
+				names.set(c, reference);
+				ids.put(id, new int[] { c, 1 });
+				if (id.length() == 1) {
+					idChannels[id.charAt(0)] = c;
+					idWidths[id.charAt(0)] = 1;
+				}
+				return;
+			}
+		}
+		ids.put(id, new int[] { first, width });
+		if (id.length() == 1 && id.charAt(0) < 128) {
+			idChannels[id.charAt(0)] = first;
+			idWidths[id.charAt(0)] = width;
+		}
+
+		if (reference.indexOf('[') >= 0 && range == null) {
+			range = reference.substring(reference.indexOf('['));
+			reference = reference.substring(0, reference.indexOf('['));
+		}
+		int msb = width - 1, lsb = 0;
+		if (range != null && range.startsWith("[") && range.endsWith("]")) {
+			try {
+				int colon = range.indexOf(':');
+				if (colon < 0) {
+					msb = lsb = Integer.parseInt(range.substring(1, range.length() - 1).trim());
+				} else {
+					msb = Integer.parseInt(range.substring(1, colon).trim());
+					lsb = Integer.parseInt(range.substring(colon + 1, range.length() - 1).trim());
+				}
+			} catch (NumberFormatException e) {
+				msb = width - 1;
+				lsb = 0;
+			}
+		}
+		for (int i = 0; i < width; i++) {
+			if (width == 1 && range == null)
+				names.add(reference);
+			else
+				names.add(reference + "[" + (msb >= lsb ? lsb + i : lsb - i) + "]");
+		}
+	}
+
+	/**
+	 * Finds the channel an identifier was created from by <code>VcdWriter</code>.
+	 * @param id identifier
+	 * @return channel number or -1 if the identifier is not one created by <code>VcdWriter</code>
+	 */
+	private static int decodeId(String id) {
+		if (id.length() == 0 || id.length() > 3)
+			return (-1);
+		int n = -1;
+		for (int i = id.length() - 1; i >= 0; i--) {
+			int digit = id.charAt(i) - '!';
+			if (digit < 0 || digit >= 94)
+				return (-1);
+			n = (n + 1) * 94 + digit;
+		}
+		return (Arrays.equals(VcdWriter.createId(n), id.getBytes()) ? n : -1);
+	}
+
+	/**
+	 * Parses the value changes following the declarations.
+	 * @throws IOException when reading from file failes or the file is corrupted
+	 */
+	private void parseChanges() throws IOException {
+		boolean timed = false;
+		long time = 0;
+		while (nextToken()) {
+			byte first = token[tokenStart];
+			if (first == '#') {
+				long next = parseTime();
+				if (timed && next < time)
+					throw new IOException("Time " + next + " out of order.");
+				if (timed && next != time)
+					commit(time);
+				time = next;
+				timed = true;
+
+			} else if (first == '0' || first == '1' || first == 'x' || first == 'X' || first == 'z' || first == 'Z') {
+				int[] variable = lookup(tokenStart + 1, tokenEnd);
+				if (variable != null)
+					setScalar(variable[0], variable[1], first == '1');
+
+			} else if (first == 'b' || first == 'B') {
+				int digitsStart = tokenStart + 1;
+				int digitsEnd = tokenEnd;
+				// the identifier may cause the buffer to be compacted, so digits are copied first
+				if (digits.length < digitsEnd - digitsStart)
+					digits = new byte[digitsEnd - digitsStart];
+				System.arraycopy(token, digitsStart, digits, 0, digitsEnd - digitsStart);
+				int count = digitsEnd - digitsStart;
+				if (!nextToken())
+					throw new IOException("File appears to be corrupted.");
+				int[] variable = lookup(tokenStart, tokenEnd);
+				if (variable != null)
+					setVector(variable[0], variable[1], count);
+
+			} else if (first == 'r' || first == 'R') {
+				nextToken(); // real values are not supported
+
+			} else if (tokenIs("$comment")) {
+				skipToEnd();
+			}
+			// other keywords like $dumpvars only group changes
+		}
+		if (timed)
+			commit(time);
+	}
+
+	/**
+	 * Records the current value as transition if it differs from the previously recorded one.
+	 * @param time time of value
+	 * @throws IOException when writing transition failes
+	 */
+	private void commit(long time) throws IOException {
+		boolean changed = (transitions == 0);
+		for (int w = 0; w < value.length && !changed; w++)
+			changed = value[w] != committed[w];
+		if (changed) {
+			if (writer == null) {
+				if (transitions == 0)
+					firstTime = time;
+				else
+					period = gcd(period, time - firstTime);
+			} else {
+				writer.add((int)((time - firstTime) / period), value);
+			}
+			System.arraycopy(value, 0, committed, 0, value.length);
+			transitions++;
+		}
+		lastTime = time;
+	}
+
+	/**
+	 * Records the initial value of files without any time stamps.
+	 * @throws IOException when writing transition failes
+	 */
+	private void commitInitial() throws IOException {
+		firstTime = lastTime = 0;
+		commit(0);
+	}
+
+	/**
+	 * Sets channels of a scalar value change. Wider variables get their other bits cleared.
+	 * @param channel first channel of variable
+	 * @param width number of bits of variable
+	 * @param high new state of first channel
+	 */
+	private void setScalar(int channel, int width, boolean high) {
+		setBit(channel, high);
+		for (int i = 1; i < width; i++)
+			setBit(channel + i, false);
+	}
+
+	/**
+	 * Sets channels of a vector variable from the digits copied before, most significant bit first.
+	 * Missing leading digits are read as 0.
+	 * @param channel first channel of variable
+	 * @param width number of bits of variable
+	 * @param count number of digits
+	 */
+	private void setVector(int channel, int width, int count) {
+		for (int i = 0; i < width; i++)
+			setBit(channel + i, i < count && digits[count - 1 - i] == '1');
+	}
+
+	/**
+	 * Sets a single channel of the current value.
+	 * @param channel channel number
+	 * @param high new state
+	 */
+	private void setBit(int channel, boolean high) {
+		if (high)
+			value[channel >>> 5] |= 1 << (channel & 31);
+		else
+			value[channel >>> 5] &= ~(1 << (channel & 31));
+	}
+
+	/**
+	 * Looks up the variable of an identifier in the token buffer.
+	 * @param from position of first byte of identifier
+	 * @param to position after identifier
+	 * @return first channel and width of variable or <code>null</code> if the identifier has not been declared
+	 * @throws IOException when the identifier cannot be decoded
+	 */
+	private int[] lookup(int from, int to) throws IOException {
+		if (to - from == 1 && token[from] > 0) {
+			int width = idWidths[token[from]];
+			if (width == 0)
+				return (null);
+			single[0] = idChannels[token[from]];
+			single[1] = width;
+			return (single);
+		}
+		return ((int[])ids.get(new String(token, from, to - from, "US-ASCII")));
+	}
+
+	/**
+	 * Parses the time of a time stamp token.
+	 * @return time
+	 * @throws IOException when the time is invalid
+	 */
+	private long parseTime() throws IOException {
+		if (tokenEnd - tokenStart < 2 || tokenEnd - tokenStart > 19)
+			throw new IOException("Invalid time stamp.");
+		long time = 0;
+		for (int i = tokenStart + 1; i < tokenEnd; i++) {
+			int digit = token[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new IOException("Invalid time stamp.");
+			time = 10 * time + digit;
+		}
+		return (time);
+	}
+
+	/**
+	 * Parses a time scale declaration like "10ns".
+	 * @param text declaration without blanks
+	 * @return time unit in femtoseconds
+	 * @throws IOException when the declaration is invalid
+	 */
+	private static long parseTimescale(String text) throws IOException {
+		int i = 0;
+		while (i < text.length() && Character.isDigit(text.charAt(i)))
+			i++;
+		try {
+			long magnitude = Long.parseLong(text.substring(0, i));
+			String unit = text.substring(i);
+			for (int u = 0; u < UNITS.length; u++)
+				if (unit.equals(UNITS[u]))
+					return (magnitude * UNIT_FEMTOSECONDS[u]);
+		} catch (NumberFormatException e) {
+		}
+		throw new IOException("Invalid time scale \"" + text + "\".");
+	}
+
+	/**
+	 * Computes the greatest common divisor. 0 is treated as neutral element.
+	 * @param a first value
+	 * @param b second value
+	 * @return greatest common divisor
+	 */
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return (a);
+	}
+
+	/**
+	 * Reads the next token separated by blanks into <code>token[tokenStart]</code> to <code>token[tokenEnd - 1]</code>.
+	 * @return <code>false</code> if the end of the file has been reached
+	 * @throws IOException when reading from file failes or a token does not fit into the buffer
+	 */
+	private boolean nextToken() throws IOException {
+		// skip blanks
+		while (true) {
+			while (start < end && bytes[start] <= ' ')
+				start++;
+			if (start < end)
+				break;
+			if (!fill())
+				return (false);
+		}
+
+		// find end of token, moving it to the front of the buffer if it is cut off
+		int pos = start;
+		while (true) {
+			while (pos < end && bytes[pos] > ' ')
+				pos++;
+			if (pos < end || eof)
+				break;
+			if (start > 0) {
+				System.arraycopy(bytes, start, bytes, 0, end - start);
+				pos -= start;
+				end -= start;
+				start = 0;
+			} else if (end == bytes.length) {
+				throw new IOException("File appears to be corrupted.");
+			}
+			fill();
+		}
+		token = bytes;
+		tokenStart = start;
+		tokenEnd = pos;
+		start = pos;
+		return (true);
+	}
+
+	/**
+	 * Reads more bytes into the buffer behind the bytes not yet consumed.
+	 * @return <code>false</code> if the end of the file has been reached
+	 * @throws IOException when reading from file failes
+	 */
+	private boolean fill() throws IOException {
+		if (eof)
+			return (false);
+		if (start == end)
+			start = end = 0;
+		buffer.clear();
+		buffer.position(end);
+		int count = channel.read(buffer);
+		if (count < 0) {
+			eof = true;
+			return (false);
+		}
+		end += count;
+		return (true);
+	}
+
+	/**
+	 * Checks if the current token equals the given keyword.
+	 * @param keyword keyword to compare with
+	 * @return <code>true</code> if the token equals the keyword
+	 */
+	private boolean tokenIs(String keyword) {
+		if (tokenEnd - tokenStart != keyword.length())
+			return (false);
+		for (int i = 0; i < keyword.length(); i++)
+			if (token[tokenStart + i] != keyword.charAt(i))
+				return (false);
+		return (true);
+	}
+
+	/**
+	 * Returns the current token as string.
+	 * @return token
+	 * @throws IOException when the token cannot be decoded
+	 */
+	private String tokenString() throws IOException {
+		return (new String(token, tokenStart, tokenEnd - tokenStart, "US-ASCII"));
+	}
+
+	/**
+	 * Reads all tokens up to and including the next <code>$end</code>.
+	 * @return tokens before <code>$end</code> separated by single blanks
+	 * @throws IOException when reading from file failes
+	 */
+	private String readText() throws IOException {
+		StringBuffer sb = new StringBuffer();
+		while (nextToken() && !tokenIs("$end")) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(tokenString());
+		}
+		return (sb.toString());
+	}
+
+	/**
+	 * Skips all tokens up to and including the next <code>$end</code>.
+	 * @throws IOException when reading from file failes
+	 */
+	private void skipToEnd() throws IOException {
+		while (nextToken() && !tokenIs("$end"))
+			;
+	}
+
+	/** time units allowed in time scale declarations */
+	private final static String[] UNITS = { "s", "ms", "us", "ns", "ps", "fs" };
+	/** length of time units in femtoseconds */
+	private final static long[] UNIT_FEMTOSECONDS = { 1000000000000000L, 1000000000000L, 1000000000L, 1000000L, 1000L, 1L };
+	/** highest number of channels restored from files written by this client */
+	private final static int MAX_CHANNELS = 1024;
+	/** size of read buffer in bytes, also limiting the length of a token */
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private File file;
+	private FileChannel channel;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	private int start;
+	private int end;
+	private boolean eof;
+	private byte[] token;
+	private int tokenStart;
+	private int tokenEnd;
+	private byte[] digits = new byte[64];
+	private int[] single = new int[2];
+
+	private HashMap ids;
+	private int[] idChannels;
+	private int[] idWidths;
+	private ArrayList names;
+	private long timescale;
+	private boolean client;
+	private int sampleRate;
+	private int triggerPosition;
+	private int declaredChannels;
+
+	private TransitionFile.Writer writer;
+	private int[] value;
+	private int[] committed;
+	private int transitions;
+	private long firstTime;
+	private long lastTime;
+	private long period;
+}
@@ -0,0 +1,262 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes captured data to Value Change Dump files ("*.vcd") for use with simulation tools.
+ * <p>
+ * Each enabled channel is declared as a single bit wire, named by its label if there is one.
+ * Only the samples at which the value changes are written, each as a time stamp followed by the changed channels.
+ * The time scale is chosen so that the sample period is an integral number of time units, if possible.
+ * Otherwise the period is rounded to picoseconds.
+ * Without timing data each sample takes one nanosecond.
+ * Sample rate, trigger position and number of channels are kept in comments, and each channel's identifier is
+ * derived from its channel number, so <code>VcdReader</code> can restore the capture exactly.
+ * <p>
+ * Like <code>TextCaptureWriter</code>, samples are fetched in blocks and encoded into a reusable byte buffer,
+ * so the memory used does not depend on the size of the capture.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class VcdWriter extends Object {
+
+	/**
+	 * Writes the given data to the given file.
+	 * @param data data to write
+	 * @param file file to write to
+	 * @param labels channel labels, may be <code>null</code> or contain <code>null</code> entries for unlabeled channels
+	 * @throws IOException when writing to file failes
+	 */
+	public static void write(CapturedData data, File file, String[] labels) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			new VcdWriter(out.getChannel()).write(data, labels);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a new writer for the given channel.
+	 * @param channel channel to write to
+	 */
+	private VcdWriter(FileChannel channel) {
+		this.channel = channel;
+		this.bytes = new byte[BUFFER_SIZE];
+		this.buffer = ByteBuffer.wrap(bytes);
+		this.pos = 0;
+	}
+
+	/**
+	 * Writes declarations and all changes of the given data.
+	 * @param data data to write
+	 * @param labels channel labels, may be <code>null</code>
+	 * @throws IOException when writing to file failes
+	 */
+	private void write(CapturedData data, String[] labels) throws IOException {
+		SampleStore samples = data.samples;
+		int wordCount = samples.getWordCount();
+		long size = samples.getSize();
+
+		// determine time scale and length of a sample in time units
+		String unit = "ns";
+		long step = 1;
+		if (data.hasTimingData()) {
+			int u = 0;
+			while (u < UNITS.length && UNIT_TICKS[u] % data.rate != 0)
+				u++;
+			if (u < UNITS.length) {
+				unit = UNITS[u];
+				step = UNIT_TICKS[u] / data.rate;
+			} else {
+				unit = "ps";
+				step = Math.round(1e12 / data.rate);
+			}
+		}
+
+		writeLine("$version " + VERSION + " $end");
+		if (data.hasTimingData())
+			writeLine("$comment " + SAMPLED_AT + data.rate + "Hz $end");
+		else
+			writeLine("$comment " + NO_TIMING + ", time is sample number $end");
+		if (data.hasTriggerData())
+			writeLine("$comment " + TRIGGER_AT + data.triggerPosition + " $end");
+		writeLine("$comment " + CHANNELS + data.channels + " $end");
+		writeLine("$timescale 1" + unit + " $end");
+		writeLine("$scope module capture $end");
+
+		// declare enabled channels
+		byte[][] ids = new byte[32 * wordCount][];
+		for (int c = 0; c < ids.length; c++) {
+			if (c >= data.channels || ((data.enabledWords[c / 32] >>> (c % 32)) & 1) == 0)
+				continue;
+			ids[c] = createId(c);
+			String name = (labels != null && c < labels.length && labels[c] != null) ? labels[c].trim() : "";
+			if (name.length() == 0)
+				name = "channel" + c;
+			writeLine("$var wire 1 " + new String(ids[c], "US-ASCII") + " " + name.replace(' ', '_').replace('\t', '_') + " $end");
+		}
+		writeLine("$upscope $end");
+		writeLine("$enddefinitions $end");
+
+		// samples are fetched from the store in blocks
+		int[][] block = new int[wordCount][BLOCK_SIZE];
+		int[] previous = new int[wordCount];
+		long last = -1;
+		for (long from = 0; from < size; from += BLOCK_SIZE) {
+			int count = (int)Math.min(BLOCK_SIZE, size - from);
+			for (int w = 0; w < wordCount; w++)
+				samples.getValues(from, count, w, block[w], 0);
+
+			for (int i = 0; i < count; i++) {
+				long sample = from + i;
+				boolean changed = (sample == 0);
+				for (int w = 0; w < wordCount && !changed; w++)
+					changed = block[w][i] != previous[w];
+				if (!changed)
+					continue;
+
+				writeTime(sample * step);
+				last = sample;
+				for (int w = 0; w < wordCount; w++) {
+					int value = block[w][i];
+					int diff = (sample == 0) ? -1 : value ^ previous[w];
+					previous[w] = value;
+					while (diff != 0) {
+						int bit = Integer.numberOfTrailingZeros(diff);
+						diff &= diff - 1;
+						byte[] id = ids[32 * w + bit];
+						if (id == null)
+							continue;
+						if (pos + id.length + 2 > bytes.length)
+							flush();
+						bytes[pos++] = (byte)('0' + ((value >>> bit) & 1));
+						for (int k = 0; k < id.length; k++)
+							bytes[pos++] = id[k];
+						bytes[pos++] = '\n';
+					}
+				}
+			}
+		}
+
+		// mark end of capture, so the number of samples is kept
+		if (last < size - 1)
+			writeTime((size - 1) * step);
+
+		flush();
+	}
+
+	/**
+	 * Creates the identifier of a channel using the printable characters from '!' to '~'.
+	 * @param channel channel number
+	 * @return identifier
+	 */
+	static byte[] createId(int channel) {
+		int length = 1;
+		for (int n = channel / 94; n > 0; n = n / 94 - 1)
+			length++;
+		byte[] id = new byte[length];
+		int n = channel;
+		for (int i = 0; i < length; i++) {
+			id[i] = (byte)('!' + n % 94);
+			n = n / 94 - 1;
+		}
+		return (id);
+	}
+
+	/**
+	 * Writes a time stamp.
+	 * @param time time in time units
+	 * @throws IOException when writing to file failes
+	 */
+	private void writeTime(long time) throws IOException {
+		if (pos + 22 > bytes.length)
+			flush();
+		bytes[pos++] = '#';
+		int digitsStart = pos;
+		do {
+			bytes[pos++] = (byte)('0' + time % 10);
+			time /= 10;
+		} while (time > 0);
+		for (int i = digitsStart, j = pos - 1; i < j; i++, j--) {
+			byte b = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = b;
+		}
+		bytes[pos++] = '\n';
+	}
+
+	/**
+	 * Writes a declaration line.
+	 * @param line line to write without line terminator
+	 * @throws IOException when writing to file failes
+	 */
+	private void writeLine(String line) throws IOException {
+		if (pos + line.length() + 1 > bytes.length)
+			flush();
+		for (int i = 0; i < line.length(); i++)
+			bytes[pos++] = (byte)line.charAt(i);
+		bytes[pos++] = '\n';
+	}
+
+	/**
+	 * Writes the buffered bytes to the file channel.
+	 * @throws IOException when writing to file failes
+	 */
+	private void flush() throws IOException {
+		buffer.clear();
+		buffer.limit(pos);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		pos = 0;
+	}
+
+	/** version written to and recognized in files of this client */
+	final static String VERSION = "Sump's Logic Analyzer Client";
+	/** start of comment giving the sample rate */
+	final static String SAMPLED_AT = "sampled at ";
+	/** start of comment marking captures without sample rate */
+	final static String NO_TIMING = "no timing data";
+	/** start of comment giving the trigger position */
+	final static String TRIGGER_AT = "trigger at sample ";
+	/** start of comment giving the number of channels */
+	final static String CHANNELS = "channels ";
+
+	/** time units used for the time scale, from coarse to fine */
+	private final static String[] UNITS = { "s", "ms", "us", "ns", "ps", "fs" };
+	/** number of time units per second */
+	private final static long[] UNIT_TICKS = { 1L, 1000L, 1000000L, 1000000000L, 1000000000000L, 1000000000000000L };
+	/** number of samples fetched from the sample store at once */
+	private final static int BLOCK_SIZE = 16 * 1024;
+	/** size of the encoding buffer in bytes */
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private FileChannel channel;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	private int pos;
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.util.LinkedList;
+
+/**
+ * Runs jobs on a fixed number of daemon threads in the order they were added.
+ * Used to render parts of the diagram without blocking the event dispatch thread.
+ * A job failing with any exception or error is reported and the thread continues with the next job.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class WorkQueue extends Object {
+
+	/**
+	 * Creates a queue and starts its threads.
+	 * @param name name of the threads
+	 * @param threads number of threads
+	 */
+	public WorkQueue(String name, int threads) {
+		jobs = new LinkedList();
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Worker(), name + " " + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Adds a job to the end of the queue.
+	 * @param job job to run
+	 */
+	public void add(Runnable job) {
+		synchronized (jobs) {
+			jobs.addLast(job);
+			jobs.notify();
+		}
+	}
+
+	/**
+	 * Removes all jobs not yet started.
+	 */
+	public void clear() {
+		synchronized (jobs) {
+			jobs.clear();
+		}
+	}
+
+	/**
+	 * Takes jobs from the queue and runs them.
+	 * 
+	 * @version 0.7
+	 * @author Michael "Mr. Sump" Poppitz
+	 *
+	 */
+	private class Worker implements Runnable {
+		public void run() {
+			while (true) {
+				Runnable job;
+				synchronized (jobs) {
+					while (jobs.isEmpty()) {
+						try {
+							jobs.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					job = (Runnable)jobs.removeFirst();
+				}
+				try {
+					job.run();
+				} catch (Throwable t) {
+					// errors like running out of memory must not end the thread, or the queue stops working for good
+					System.out.println("Error: Job failed on thread \"" + Thread.currentThread().getName() + "\": " + t);
+					t.printStackTrace(System.out);
+				}
+			}
+		}
+	}
+
+	private LinkedList jobs;
+}
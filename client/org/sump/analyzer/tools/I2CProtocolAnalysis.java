@@ -275,32 +275,39 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			System.out.println("lineAmask = 0x" + Integer.toHexString(lineAmask));
 			System.out.println("lineBmask = 0x" + Integer.toHexString(lineBmask));
 			
+			/*
+			 * The lines only change at their edges, so only the first sample and
+			 * the samples where one of the lines changes need to be visited.
+			 * e is the position of the next change to visit.
+			 */
+			int[] changes = analysisData.getEdgeIndex().getChanges(0, lineAmask | lineBmask);
+			int e = 0;
 			
 			/*
 			 * first of all scan both lines until they are high (IDLE), then
 			 * the first line that goes low is the SDA line (START condition).
 			 */
-			for(a = 0; a < analysisData.values.length; a++)
+			for(a = 0; a >= 0; a = (e < changes.length) ? changes[e++] : -1)
 			{
-				if((analysisData.values[a] & (lineAmask | lineBmask)) == (lineAmask | lineBmask))
+				if((analysisData.samples.getValue(a) & (lineAmask | lineBmask)) == (lineAmask | lineBmask))
 				{
 					// IDLE found here
 					break;
 				}
 			}
-			if(a == analysisData.values.length)
+			if(a < 0)
 			{
 				// no idle state could be found
 				return;
 			}
 			// a is now the start of idle, now find the first start condition
-			for(; a < analysisData.values.length; a++)
+			for(; a >= 0; a = (e < changes.length) ? changes[e++] : -1)
 			{
-				if(((analysisData.values[a] & (lineAmask | lineBmask)) != (lineAmask | lineBmask)) &&
-						((analysisData.values[a] & (lineAmask | lineBmask)) != 0))
+				if(((analysisData.samples.getValue(a) & (lineAmask | lineBmask)) != (lineAmask | lineBmask)) &&
+						((analysisData.samples.getValue(a) & (lineAmask | lineBmask)) != 0))
 				{
 					// one line is low
-					if((analysisData.values[a] & lineAmask) == 0)
+					if((analysisData.samples.getValue(a) & lineAmask) == 0)
 					{
 						// lineA is low and lineB is high here: lineA = SDA, lineB = SCL
 						sdaMask = lineAmask;
@@ -321,7 +328,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 					break;
 				}
 			}
-			if(a == analysisData.values.length)
+			if(a < 0)
 			{
 				// no start condition could be found
 				return;
@@ -342,20 +349,22 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			 * condition is not at a byte boundary a bus error is detected. So we have to
 			 * scan for SCL rises and for SDA changes during SCL is high.
 			 * Each byte is followed by a 9th bit (ACK/NACK).
+			 * Between two changes both lines keep their values, so b and c
+			 * hold the values of the sample before the change.
 			 */
-			b = analysisData.values[a] & sclMask;
-			c = analysisData.values[a] & sdaMask;
+			b = analysisData.samples.getValue(a) & sclMask;
+			c = analysisData.samples.getValue(a) & sdaMask;
 			d = 8;
 			sdaValue = 0;
-			while(a < analysisData.values.length-1)
+			while(e < changes.length)
 			{
-				a++;
+				a = changes[e++];
 				
 				// detect SCL rise
-				if((analysisData.values[a] & sclMask) > b)
+				if((analysisData.samples.getValue(a) & sclMask) > b)
 				{
 					// SCL rises
-					if((analysisData.values[a] & sdaMask) != c)
+					if((analysisData.samples.getValue(a) & sdaMask) != c)
 					{
 						// SDA changes too, bus error
 						decodedData.addElement(new I2CProtocolAnalysisDataSet(a, "BUS-ERROR"));
@@ -367,7 +376,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 						if(d == 0)
 						{
 							// read the ACK/NACK state
-							if((analysisData.values[a] & sdaMask) != 0)
+							if((analysisData.samples.getValue(a) & sdaMask) != 0)
 							{
 								// NACK
 								if(detectNACK.isSelected()) {
@@ -387,7 +396,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 						else
 						{
 							d--;
-							if((analysisData.values[a] & sdaMask) != 0)
+							if((analysisData.samples.getValue(a) & sdaMask) != 0)
 							{
 								sdaValue |= (1 << d);
 							}
@@ -403,7 +412,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 				}
 				
 				// detect SDA change when SCL high
-				if(((analysisData.values[a] & sclMask) == sclMask) && ((analysisData.values[a] & sdaMask) != c))
+				if(((analysisData.samples.getValue(a) & sclMask) == sclMask) && ((analysisData.samples.getValue(a) & sdaMask) != c))
 				{
 					// SDA changes here
 					if(d < 7)
@@ -414,7 +423,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 					}
 					else
 					{
-						if((analysisData.values[a] & sdaMask) > c)
+						if((analysisData.samples.getValue(a) & sdaMask) > c)
 						{
 							// SDA rises, this is a stop condition
 							if(detectSTOP.isSelected()) {
@@ -433,8 +442,8 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 					}
 				}
 				
-				b = analysisData.values[a] & sclMask;
-				c = analysisData.values[a] & sdaMask;
+				b = analysisData.samples.getValue(a) & sclMask;
+				c = analysisData.samples.getValue(a) & sdaMask;
 			}
 
 			outText.setText(toHtmlPage(false));
@@ -45,6 +45,7 @@ import javax.swing.table.DefaultTableModel;
 
 import org.sump.analyzer.CapturedData;
 import org.sump.analyzer.Configurable;
+import org.sump.analyzer.EdgeIndex;
 import org.sump.util.Properties;
 
 public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
@@ -257,6 +258,8 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			int sckmask = (1 << sck.getSelectedIndex());
 			int misomask = (1 << miso.getSelectedIndex());
 			int mosimask = (1 << mosi.getSelectedIndex());
+			EdgeIndex edgeIndex = analysisData.getEdgeIndex();
+			int[] sckEdges = edgeIndex.getEdges(sck.getSelectedIndex());
 			
 			System.out.println("csmask   = 0x" + Integer.toHexString(csmask));
 			System.out.println("sckmask  = 0x" + Integer.toHexString(sckmask));
@@ -269,19 +272,18 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			 * no edge could be found, the position of the trigger
 			 * is used for start of analysis. If no trigger and no
 			 * edge is found the analysis fails.
+			 * Edges alternate, so the first falling edge is either the first
+			 * or the second edge of the CS line.
 			 */
-			a = analysisData.values[0] & csmask;
+			int[] csEdges = edgeIndex.getEdges(cs.getSelectedIndex());
+			a = ((analysisData.samples.getValue(0) & csmask) != 0) ? 0 : 1;
 			c = 0;
 			b = 0;
-			for (int i = 0; i < analysisData.values.length; i++) {
-				if (a > (analysisData.values[i] & csmask)) {
-					// cs to low found here
-					b = i;
-					c = 1;
-					System.out.println("CS found at " + i);
-					break;
-				}
-				a = analysisData.values[i] & csmask;
+			if (a < csEdges.length) {
+				// cs to low found here
+				b = csEdges[a];
+				c = 1;
+				System.out.println("CS found at " + b);
 			}
 			if (c == 0)
 			{
@@ -299,28 +301,29 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			 * rising clk edge, mode 2 and 4 are sampling on the
 			 * falling edge.
 			 * a is used for start of value, c is register for 
-			 * detect line changes.
+			 * detect line changes. Only the edges of the clock line are
+			 * visited.
 			 */
 			if ((mode.getSelectedItem().equals("0")) || (mode.getSelectedItem().equals("2"))) {
 				// scanning for rising clk edges
-				c = analysisData.values[b] & sckmask;
-				a = analysisData.values[b] & csmask;
+				a = analysisData.samples.getValue(b) & csmask;
 				bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
 				maxbits = bitCount;
 				misovalue = 0;
 				mosivalue = 0;
-				for (int i = b; i < analysisData.values.length; i++) {
-					if(c < (analysisData.values[i] & sckmask)) {
+				for (int e = edgeIndex.findEdge(sck.getSelectedIndex(), b + 1); e < sckEdges.length; e++) {
+					int i = sckEdges[e];
+					if((analysisData.samples.getValue(i) & sckmask) != 0) {
 						// sample here
 						if (order.getSelectedItem().equals("MSB first")) {
-							if ((analysisData.values[i] & misomask) == misomask)
+							if ((analysisData.samples.getValue(i) & misomask) == misomask)
 								misovalue |= (1 << bitCount);
-							if ((analysisData.values[i] & mosimask) == mosimask)
+							if ((analysisData.samples.getValue(i) & mosimask) == mosimask)
 								mosivalue |= (1 << bitCount);
 						} else {
-							if ((analysisData.values[i] & misomask) == misomask)
+							if ((analysisData.samples.getValue(i) & misomask) == misomask)
 								misovalue |= (1 << (maxbits - bitCount));
-							if ((analysisData.values[i] & mosimask) == mosimask)
+							if ((analysisData.samples.getValue(i) & mosimask) == mosimask)
 								mosivalue |= (1 << (maxbits - bitCount));
 						}
 						
@@ -338,38 +341,37 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 							/*
 							 * CS edge detection is only done when a complete value is decoded
 							 */
-							if(a > (analysisData.values[i] & csmask)) {
+							if(a > (analysisData.samples.getValue(i) & csmask)) {
 								// falling edge
 								decodedData.addElement(new SPIProtocolAnalysisDataSet(i,"CSLOW"));
-							} else if (a < (analysisData.values[i] & csmask)) {
+							} else if (a < (analysisData.samples.getValue(i) & csmask)) {
 								// rising edge
 								decodedData.addElement(new SPIProtocolAnalysisDataSet(i,"CSHIGH"));
 							}
-							a = analysisData.values[i] & csmask;
+							a = analysisData.samples.getValue(i) & csmask;
 						}
 					}
-					c = analysisData.values[i] & sckmask;
 				}
 			} else {
 				// scanning for falling clk edges
-				c = analysisData.values[b] & sckmask;
-				a = analysisData.values[b] & csmask;
+				a = analysisData.samples.getValue(b) & csmask;
 				bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
 				maxbits = bitCount;
 				misovalue = 0;
 				mosivalue = 0;
-				for (int i = b; i < analysisData.values.length; i++) {
-					if(c > (analysisData.values[i] & sckmask)) {
+				for (int e = edgeIndex.findEdge(sck.getSelectedIndex(), b + 1); e < sckEdges.length; e++) {
+					int i = sckEdges[e];
+					if((analysisData.samples.getValue(i) & sckmask) == 0) {
 						// sample here
 						if (order.getSelectedItem().equals("MSB first")) {
-							if ((analysisData.values[i] & misomask) == misomask)
+							if ((analysisData.samples.getValue(i) & misomask) == misomask)
 								misovalue |= (1 << bitCount);
-							if ((analysisData.values[i] & mosimask) == mosimask)
+							if ((analysisData.samples.getValue(i) & mosimask) == mosimask)
 								mosivalue |= (1 << bitCount);
 						} else {
-							if ((analysisData.values[i] & misomask) == misomask)
+							if ((analysisData.samples.getValue(i) & misomask) == misomask)
 								misovalue |= (1 << (maxbits - bitCount));
-							if ((analysisData.values[i] & mosimask) == mosimask)
+							if ((analysisData.samples.getValue(i) & mosimask) == mosimask)
 								mosivalue |= (1 << (maxbits - bitCount));
 						}
 
@@ -387,17 +389,16 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 							/*
 							 * CS edge detection is only done when a complete value is decoded
 							 */
-							if(a > (analysisData.values[i] & csmask)) {
+							if(a > (analysisData.samples.getValue(i) & csmask)) {
 								// falling edge
 								decodedData.addElement(new SPIProtocolAnalysisDataSet(i,"CSLOW"));
-							} else if (a < (analysisData.values[i] & csmask)) {
+							} else if (a < (analysisData.samples.getValue(i) & csmask)) {
 								// rising edge
 								decodedData.addElement(new SPIProtocolAnalysisDataSet(i,"CSHIGH"));
 							}
-							a = analysisData.values[i] & csmask;
+							a = analysisData.samples.getValue(i) & csmask;
 						}
 					}
-					c = analysisData.values[i] & sckmask;
 				}
 			}
 			outTable.setModel(toTableData());
@@ -33,6 +33,8 @@ import javax.swing.JLabel;
 
 import org.sump.analyzer.CapturedData;
 import org.sump.analyzer.Configurable;
+import org.sump.analyzer.EdgeIndex;
+import org.sump.analyzer.SampleStore;
 
 /**
  * Tool to convert captured data for state analysis using a user selected channel as clock.
@@ -153,32 +155,22 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 		int level = (sad.edge == StateAnalysisDialog.RISING ? 0 : 1); // this seems overly complicated right now, but RISING might change
 		
 		// obtain data from captured data
-		int[] values = data.values;
+		SampleStore samples = data.samples;
 		int triggerPosition = data.triggerPosition;
+		EdgeIndex edgeIndex = data.getEdgeIndex();
+		int[] edges = edgeIndex.getEdges(number);
 
-		// calculate new sample array size
-		int last = values[0] & 1 << number;
-		int size = 0;
-		for (int i = 0; i < values.length; i++) {
-			int current = values[i] & 1 << number;
-			if (last == level && current != level)
-				size++;
-			last = current;
-		}
+		// edges alternate between rising and falling, so only every other edge is a clock edge
+		int first = (edgeIndex.getValue(number, 0) == level) ? 0 : 1;
+		int size = (edges.length - first + 1) / 2;
 
-		// convert captured data
-		last = values[0] & 1 << number;
-		int pos = 0;
+		// convert captured data, taking the value just before each clock edge
 		int newTrigger = -1;
 		int[] newValues = new int[size];
-		for (int i = 0; i < values.length; i++) {
-			int current = values[i] & 1 << number;
-			if (last == level && current != level)
-				newValues[pos++] = values[i - 1];
-			if (triggerPosition == i)
-				newTrigger = pos;
-			last = current;
-		}
+		for (int pos = 0; pos < size; pos++)
+			newValues[pos] = samples.getValue(edges[first + 2 * pos] - 1);
+		if (triggerPosition >= 0 && triggerPosition < samples.getSize())
+			newTrigger = (edgeIndex.findEdge(number, triggerPosition + 1) - first + 1) / 2;
 
 		// return new data
 		return (new CapturedData(newValues, newTrigger, CapturedData.NOT_AVAILABLE, data.channels, data.enabledChannels));
@@ -0,0 +1,418 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Software implementation of the analyzer's SLA2 protocol (SLA1 with run length encoding).
+ * <p>
+ * The emulator understands the same commands as the FPGA firmware: reset, id, trigger setup,
+ * divider, size and flags as well as run. Instead of sampling real inputs it generates a
+ * deterministic test signal (see {@link #sample(long)}), evaluates the configured trigger stages
+ * against it and sends the captured samples newest first, omitting disabled channel groups.
+ * <p>
+ * This allows to exercise and benchmark the client's acquisition code without any hardware attached.
+ * The emulator can either run in the client's VM connected through a {@link PipeTransport}
+ * or be started as a TCP server using {@link #main(String[])}.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class DeviceEmulator extends Object implements Runnable {
+	/** port name selecting the in-process emulator */
+	public final static String NAME = "Emulator";
+	/** default TCP port used when running standalone */
+	public final static int DEFAULT_PORT = 8011;
+
+	private final static int RESET = 0x00;
+	private final static int RUN = 0x01;
+	private final static int ID = 0x02;
+	private final static int SETSIZE = 0x81;
+	private final static int SETFLAGS = 0x82;
+	private final static int SETTRIGMASK = 0xc0;
+	private final static int SETTRIGVAL = 0xc1;
+	private final static int SETTRIGCFG = 0xc2;
+
+	private final static int FLAG_DEMUX = 0x00000001;
+	private final static int FLAG_DISABLE_G0 = 0x00000004;
+	private final static int FLAG_RLE = 0x00000100;
+
+	private final static int TRIGGER_DELAYMASK = 0x0000ffff;
+	private final static int TRIGGER_SERIAL = 0x04000000;
+	private final static int TRIGGER_CAPTURE = 0x08000000;
+
+	private final static int TRIGGER_STAGES = 4;
+	private final static int MEMORY_SIZE = 256 * 1024;		// samples held in device memory
+	private final static int TRIGGER_TIMEOUT = 64 * 1024 * 1024; // samples to search before giving up
+	private final static int SEND_BLOCK_SIZE = 4096;		// bytes written at once
+	private final static int BURST_PERIOD = 4096;			// samples from one burst of activity to the next
+	private final static int BURST_LENGTH = 256;			// samples the test signal changes in each burst
+	
+	/**
+	 * Creates an emulator communicating through the given streams.
+	 * @param input stream to read commands from
+	 * @param output stream to write data to
+	 */
+	public DeviceEmulator(InputStream input, OutputStream output) {
+		this.input = input;
+		this.output = output;
+		triggerMask = new int[TRIGGER_STAGES];
+		triggerValue = new int[TRIGGER_STAGES];
+		triggerConfig = new int[TRIGGER_STAGES];
+		sendBuffer = new byte[SEND_BLOCK_SIZE];
+		time = MEMORY_SIZE;
+		rate = 0;
+	}
+
+	/**
+	 * Creates a transport connected to a new emulator running in a background thread.
+	 * The emulator terminates when the transport is closed.
+	 * @param rate transfer rate to emulate in bps; 0 transfers as fast as possible
+	 * @return transport connected to the emulator
+	 */
+	public static Transport createTransport(int rate) {
+		PipeTransport transport = new PipeTransport();
+		DeviceEmulator emulator = new DeviceEmulator(transport.getDeviceInputStream(), transport.getDeviceOutputStream());
+		emulator.setRate(rate);
+		Thread thread = new Thread(emulator, "Device Emulator");
+		thread.setDaemon(true);
+		thread.start();
+		return (transport);
+	}
+
+	/**
+	 * Sets the transfer rate to emulate.
+	 * When set, sample data is not sent faster than a serial port with 8N1 framing at this rate could.
+	 * @param rate transfer rate in bps; 0 transfers as fast as possible
+	 */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * Returns the test signal value for the given sample.
+	 * Each channel toggles at half the rate of the preceding one, which makes the
+	 * signal an incrementing counter. This is easy to verify and resembles clocks and buses.
+	 * The counter only advances during short bursts and holds its value in between,
+	 * like most real signals are idle for long stretches.
+	 * <p>
+	 * The signal does not depend on the sampling rate set, each sample simply is the next counter value.
+	 * @param time sample number
+	 * @return value of all 32 channels
+	 */
+	protected int sample(long time) {
+		long burst = time / BURST_PERIOD;
+		long offset = Math.min(time % BURST_PERIOD, BURST_LENGTH - 1);
+		return ((int)(burst * BURST_LENGTH + offset));
+	}
+
+	/**
+	 * Processes commands until the input stream is closed.
+	 */
+	public void run() {
+		try {
+			int opcode;
+			while ((opcode = input.read()) >= 0) {
+				if ((opcode & 0x80) != 0) {
+					int data = 0;
+					for (int i = 0; i < 4; i++) {
+						int v = input.read();
+						if (v < 0)
+							return;
+						data |= v << (8 * i);
+					}
+					execute(opcode, data);
+				} else {
+					execute(opcode);
+				}
+			}
+		} catch (IOException e) {
+			/* connection lost, nothing left to do */
+		}
+	}
+
+	/**
+	 * Executes a short command.
+	 * @param opcode one byte operation code
+	 * @throws IOException when sending the response fails
+	 */
+	private void execute(int opcode) throws IOException {
+		switch (opcode) {
+			case RESET:
+				break;
+			case RUN:
+				capture();
+				break;
+			case ID:
+				byte[] id = { 0x32, 0x41, 0x4c, 0x53 }; // "SLA2" little endian, SLA1 with run length encoding
+				output.write(id);
+				output.flush();
+				break;
+			default:
+				// XON / XOFF and unknown commands are ignored
+		}
+	}
+
+	/**
+	 * Executes a long command.
+	 * The divider is accepted but ignored, as the test signal does not depend on the sampling rate.
+	 * @param opcode one byte operation code
+	 * @param data four byte data portion
+	 */
+	private void execute(int opcode, int data) {
+		if ((opcode & 0xf0) == SETTRIGMASK) {
+			int stage = (opcode >> 2) & 0x03;
+			switch (opcode & 0x03) {
+				case SETTRIGMASK & 0x03: triggerMask[stage] = data; break;
+				case SETTRIGVAL & 0x03: triggerValue[stage] = data; break;
+				case SETTRIGCFG & 0x03: triggerConfig[stage] = data; break;
+			}
+		} else if (opcode == SETSIZE) {
+			readCount = 4 * ((data & 0xffff) + 1);
+			delayCount = 4 * (((data >> 16) & 0xffff) + 1);
+		} else if (opcode == SETFLAGS) {
+			flags = data;
+		}
+	}
+
+	/**
+	 * Returns the memory word recorded at the given time.
+	 * In demux mode one word holds two 16 channel samples, the older one in the upper half.
+	 * @param word time in memory words
+	 * @return memory word
+	 */
+	private int word(long word) {
+		if ((flags & FLAG_DEMUX) != 0)
+			return ((sample(2 * word + 1) & 0xffff) | (sample(2 * word) << 16));
+		else
+			return (sample(word));
+	}
+
+	/**
+	 * Waits for the trigger to fire and returns the time it did.
+	 * @return time the trigger fired or -1 if it did not within <code>TRIGGER_TIMEOUT</code> samples
+	 */
+	private long findTrigger() {
+		int level = 0;
+		int[] shift = new int[TRIGGER_STAGES];
+		long[] fire = new long[TRIGGER_STAGES];
+		for (int i = 0; i < TRIGGER_STAGES; i++)
+			fire[i] = -1;
+		
+		for (long t = time; t < time + TRIGGER_TIMEOUT; t++) {
+			int value = word(t);
+			int newLevel = level;
+			for (int i = 0; i < TRIGGER_STAGES; i++) {
+				int config = triggerConfig[i];
+				int v = value;
+				if ((config & TRIGGER_SERIAL) != 0) {
+					shift[i] = (shift[i] >>> 1) | (((value >> ((config >> 20) & 0x1f)) & 1) << 31);
+					v = shift[i];
+				}
+				// stages arm at their level and disarm after a match
+				if (fire[i] < 0 && level >= ((config >> 16) & 0x03) && ((v ^ triggerValue[i]) & triggerMask[i]) == 0)
+					fire[i] = t + (config & TRIGGER_DELAYMASK);
+				if (fire[i] == t) {
+					if ((config & TRIGGER_CAPTURE) != 0)
+						return (t);
+					newLevel++;
+				}
+			}
+			level = newLevel;
+		}
+		return (-1);
+	}
+
+	/**
+	 * Runs a capture and sends the recorded data.
+	 * <p>
+	 * If run length encoding is enabled, repeated samples are sent as the sample followed
+	 * by a count record. A count record has the most significant transmitted bit set,
+	 * the remaining bits hold the number of times the preceding sample is repeated.
+	 * The channel normally transmitted in that bit is therefore not available.
+	 * Run length encoding is ignored in demux mode.
+	 * @throws IOException when sending fails
+	 */
+	private void capture() throws IOException {
+		long trigger = findTrigger();
+		if (trigger < 0)
+			return;
+		long newest = trigger + delayCount - 1;
+		time = newest + 1;
+
+		// when throttled, send small blocks so data arrives continuously as from a serial port
+		sendBlock = SEND_BLOCK_SIZE;
+		if (rate > 0)
+			sendBlock = Math.max(4, Math.min(SEND_BLOCK_SIZE, rate / 10 / 50));
+		sendCount = 0;
+		sendStart = System.currentTimeMillis();
+		sent = 0;
+
+		int disabled = (flags >> 2) & 0x0f;
+		int groups = 0;
+		for (int group = 0; group < 4; group++)
+			if ((disabled & (1 << group)) == 0)
+				groups++;
+		boolean rle = (flags & FLAG_RLE) != 0 && (flags & FLAG_DEMUX) == 0 && groups > 0;
+		int rleFlag = 1 << (8 * groups - 1);
+
+		int last = 0;
+		int repeats = 0;
+		for (int i = 0; i < readCount; i++) {
+			int value = compact(word(newest - i), disabled);
+			if (rle) {
+				value &= ~rleFlag;
+				if (i > 0 && value == last && repeats < rleFlag - 1) {
+					repeats++;
+					continue;
+				}
+				if (repeats > 0)
+					send(rleFlag | repeats, groups);
+				repeats = 0;
+				last = value;
+			}
+			send(value, groups);
+		}
+		if (repeats > 0)
+			send(rleFlag | repeats, groups);
+		if (sendCount > 0)
+			flushSendBuffer();
+		output.flush();
+	}
+
+	/**
+	 * Removes disabled groups from a memory word, moving enabled groups towards the least significant byte.
+	 * This gives the value as it is transmitted, least significant byte first.
+	 * @param word memory word
+	 * @param disabled disabled groups bit mask
+	 * @return transmitted bytes of the word
+	 */
+	private int compact(int word, int disabled) {
+		int value = 0;
+		int shift = 0;
+		for (int group = 0; group < 4; group++)
+			if ((disabled & (1 << group)) == 0) {
+				value |= ((word >> (8 * group)) & 0xff) << shift;
+				shift += 8;
+			}
+		return (value);
+	}
+
+	/**
+	 * Adds the given number of bytes of a value to the send buffer, sending it when full.
+	 * @param value value to send, least significant byte first
+	 * @param bytes number of bytes to send
+	 * @throws IOException when sending fails
+	 */
+	private void send(int value, int bytes) throws IOException {
+		for (int i = 0; i < bytes; i++)
+			sendBuffer[sendCount++] = (byte)(value >> (8 * i));
+		if (sendCount > sendBlock - 4)
+			flushSendBuffer();
+	}
+
+	/**
+	 * Sends all bytes in the send buffer, delaying as required by the emulated rate.
+	 * @throws IOException when sending fails
+	 */
+	private void flushSendBuffer() throws IOException {
+		output.write(sendBuffer, 0, sendCount);
+		sent += sendCount;
+		sendCount = 0;
+		throttle(sendStart, sent);
+	}
+
+	/**
+	 * Delays sending so that no more data has been sent than the emulated port rate allows.
+	 * @param start time the transfer started
+	 * @param sent number of bytes sent since then
+	 */
+	private void throttle(long start, long sent) {
+		if (rate <= 0)
+			return;
+		long due = start + (sent * 10 * 1000) / rate;
+		long wait = due - System.currentTimeMillis();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) { /* don't care */ }
+		}
+	}
+
+	/**
+	 * Runs the emulator as TCP server. Clients are served one at a time.
+	 * <p>
+	 * Usage: <code>DeviceEmulator [&lt;tcp port&gt; [&lt;emulated bps&gt;]]</code>
+	 * @param args arguments
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		int rate = 0;
+		try {
+			if (args.length > 0)
+				port = Integer.parseInt(args[0]);
+			if (args.length > 1)
+				rate = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e) {
+			System.out.println("Usage: DeviceEmulator [<tcp port> [<emulated bps>]]");
+			System.exit(-1);
+		}
+
+		try {
+			ServerSocket server = new ServerSocket(port);
+			System.out.println("Emulating device on port " + port);
+			while (true) {
+				Socket socket = server.accept();
+				System.out.println("Client connected: " + socket.getInetAddress());
+				socket.setTcpNoDelay(true);
+				DeviceEmulator emulator = new DeviceEmulator(socket.getInputStream(), socket.getOutputStream());
+				emulator.setRate(rate);
+				emulator.run();
+				socket.close();
+				System.out.println("Client disconnected.");
+			}
+		} catch (IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+
+	private InputStream input;
+	private OutputStream output;
+	private byte[] sendBuffer;
+	private int sendCount;
+	private int sendBlock;
+	private long sendStart;
+	private long sent;
+	private int rate;
+
+	private int[] triggerMask;
+	private int[] triggerValue;
+	private int[] triggerConfig;
+	private int readCount;
+	private int delayCount;
+	private int flags;
+	private long time;
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Bounded in-memory byte pipe with one writing and one reading side.
+ * <p>
+ * Unlike <code>java.io.PipedInputStream</code> it does not poll and is not bound to the
+ * lifetime of particular threads. Reads may be given a timeout after which they return
+ * without data, as reads from a serial port would.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+class Pipe extends Object {
+
+	/**
+	 * Creates a new pipe.
+	 * @param capacity number of bytes that can be buffered before writes block
+	 * @param timeout time in ms after which reads return without data; 0 waits forever
+	 */
+	public Pipe(int capacity, int timeout) {
+		this.buffer = new byte[capacity];
+		this.timeout = timeout;
+		this.head = 0;
+		this.count = 0;
+		this.closed = false;
+	}
+
+	/**
+	 * Writes bytes to the pipe. Blocks while the pipe is full.
+	 * @param b bytes to write
+	 * @param off offset of first byte in b
+	 * @param len number of bytes to write
+	 * @throws IOException when the pipe has been closed
+	 */
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			while (count == buffer.length && !closed)
+				if (!waitForChange(0))
+					throw new InterruptedIOException("Pipe write interrupted.");
+			if (closed)
+				throw new IOException("Pipe closed.");
+
+			int tail = (head + count) % buffer.length;
+			int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+			System.arraycopy(b, off, buffer, tail, n);
+			count += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Reads bytes from the pipe.
+	 * @param b buffer to store bytes in
+	 * @param off offset of first byte in b
+	 * @param len maximum number of bytes to read
+	 * @return number of bytes read, 0 if the read timed out or was interrupted, -1 if the pipe has been closed
+	 */
+	public synchronized int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return (0);
+		long end = System.currentTimeMillis() + timeout;
+		while (count == 0) {
+			if (closed)
+				return (-1);
+			long left = end - System.currentTimeMillis();
+			if (timeout > 0 && left <= 0)
+				return (0);
+			if (!waitForChange(timeout > 0 ? left : 0))
+				return (0);
+		}
+		
+		int n = Math.min(len, Math.min(count, buffer.length - head));
+		System.arraycopy(buffer, head, b, off, n);
+		head = (head + n) % buffer.length;
+		count -= n;
+		notifyAll();
+		return (n);
+	}
+
+	/**
+	 * Returns the number of bytes that can be read without blocking.
+	 * @return number of bytes in the pipe
+	 */
+	public synchronized int available() {
+		return (count);
+	}
+
+	/**
+	 * Closes the pipe. Pending data can still be read, further writes will fail.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns an input stream view on the reading side of this pipe.
+	 * @return input stream
+	 */
+	public InputStream getInputStream() {
+		return (new InputStream() {
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				if (Pipe.this.read(b, 0, 1) <= 0)
+					return (-1);
+				return (b[0] & 0xff);
+			}
+			public int read(byte[] b, int off, int len) throws IOException {
+				return (Pipe.this.read(b, off, len));
+			}
+			public int available() {
+				return (Pipe.this.available());
+			}
+			public void close() {
+				Pipe.this.close();
+			}
+		});
+	}
+
+	/**
+	 * Returns an output stream view on the writing side of this pipe.
+	 * @return output stream
+	 */
+	public OutputStream getOutputStream() {
+		return (new OutputStream() {
+			public void write(int b) throws IOException {
+				byte[] raw = { (byte)b };
+				Pipe.this.write(raw, 0, 1);
+			}
+			public void write(byte[] b, int off, int len) throws IOException {
+				Pipe.this.write(b, off, len);
+			}
+			public void close() {
+				Pipe.this.close();
+			}
+		});
+	}
+
+	/**
+	 * Waits for the other side to change the state of the pipe.
+	 * @param millis maximum time to wait; 0 waits forever
+	 * @return <code>false</code> if the thread was interrupted, <code>true</code> otherwise
+	 */
+	private boolean waitForChange(long millis) {
+		try {
+			wait(millis);
+			return (true);
+		} catch (InterruptedException e) {
+			// preserve interrupt status so the caller can notice it
+			Thread.currentThread().interrupt();
+			return (false);
+		}
+	}
+
+	private byte[] buffer;
+	private int timeout;
+	private int head;
+	private int count;
+	private boolean closed;
+}
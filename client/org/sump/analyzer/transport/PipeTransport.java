@@ -0,0 +1,79 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-process transport connecting the client to a device implementation running in the same JVM,
+ * usually a {@link DeviceEmulator}.
+ * <p>
+ * The client uses the streams returned by <code>getInputStream()</code> and <code>getOutputStream()</code>,
+ * the device the ones returned by <code>getDeviceInputStream()</code> and <code>getDeviceOutputStream()</code>.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class PipeTransport extends Object implements Transport {
+	/** number of bytes buffered in each direction */
+	private final static int CAPACITY = 64 * 1024;
+
+	/**
+	 * Creates a new pair of connected pipes.
+	 */
+	public PipeTransport() {
+		toDevice = new Pipe(CAPACITY, 0);
+		toHost = new Pipe(CAPACITY, RECEIVE_TIMEOUT);
+	}
+
+	public InputStream getInputStream() {
+		return (toHost.getInputStream());
+	}
+
+	public OutputStream getOutputStream() {
+		return (toDevice.getOutputStream());
+	}
+
+	/**
+	 * Returns the stream the device reads commands from.
+	 * Reads from this stream will block until data is available or the transport is closed.
+	 * @return input stream for device side
+	 */
+	public InputStream getDeviceInputStream() {
+		return (toDevice.getInputStream());
+	}
+
+	/**
+	 * Returns the stream the device writes its data to.
+	 * @return output stream for device side
+	 */
+	public OutputStream getDeviceOutputStream() {
+		return (toHost.getOutputStream());
+	}
+
+	public void close() {
+		toDevice.close();
+		toHost.close();
+	}
+
+	private Pipe toDevice;
+	private Pipe toHost;
+}
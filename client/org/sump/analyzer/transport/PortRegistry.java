@@ -0,0 +1,172 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import gnu.io.CommPortIdentifier;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Keeps track of the serial ports available on the system.
+ * <p>
+ * Enumerating ports can take seconds on systems with many serial adapters.
+ * The registry therefore scans for ports in a background thread and caches the
+ * port identifiers found, so ports can be looked up by name without scanning again.
+ * Listeners are informed whenever a scan has completed.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class PortRegistry extends Object implements Runnable {
+
+	/**
+	 * Creates an empty registry. No scan is started until <code>refresh()</code> is called.
+	 */
+	public PortRegistry() {
+		ports = new HashMap();
+		portNames = new String[0];
+		listeners = new LinkedList();
+		scanLock = new Object();
+		refreshPending = false;
+	}
+
+	/**
+	 * Starts a scan for ports in a background thread.
+	 * Does nothing if a background scan has been started but not yet completed.
+	 */
+	public synchronized void refresh() {
+		if (refreshPending)
+			return;
+		refreshPending = true;
+		Thread thread = new Thread(this, "Port Scanner");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Performs a background scan. Should not be called externally.
+	 */
+	public void run() {
+		try {
+			scan();
+		} finally {
+			synchronized (this) {
+				refreshPending = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the names of all serial ports found by the last scan.
+	 * @return port names (empty if no scan has completed yet)
+	 */
+	public String[] getPortNames() {
+		return (portNames.clone());
+	}
+
+	/**
+	 * Returns the identifier of the serial port with the given name.
+	 * If the port is unknown, ports are scanned again, as it may have been added since the last scan.
+	 * @param portName name of port
+	 * @return port identifier or <code>null</code> if no serial port of that name exists
+	 */
+	public CommPortIdentifier getPort(String portName) {
+		CommPortIdentifier portId = (CommPortIdentifier)ports.get(portName);
+		if (portId == null) {
+			scan();
+			portId = (CommPortIdentifier)ports.get(portName);
+		}
+		return (portId);
+	}
+
+	/**
+	 * Opens the serial port with the given name.
+	 * @param portName name of port
+	 * @param portRate transfer rate to use (bps)
+	 * @return transport using the port
+	 * @throws IOException when the port does not exist or cannot be opened
+	 */
+	public SerialTransport open(String portName, int portRate) throws IOException {
+		CommPortIdentifier portId = getPort(portName);
+		if (portId == null)
+			throw new IOException("Port not found: " + portName);
+		return (new SerialTransport(portId, portRate));
+	}
+
+	/**
+	 * Adds a listener to be informed about completed scans.
+	 * @param listener listener to add
+	 */
+	public synchronized void addPortListener(PortListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 * @param listener listener to remove
+	 */
+	public synchronized void removePortListener(PortListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Scans for serial ports, replaces the cached ports and informs all listeners.
+	 * Only one scan is performed at a time.
+	 */
+	private void scan() {
+		String[] names;
+		synchronized (scanLock) {
+			HashMap found = new HashMap();
+			LinkedList foundNames = new LinkedList();
+			try {
+				Enumeration portIdentifiers = CommPortIdentifier.getPortIdentifiers();
+				while (portIdentifiers.hasMoreElements()) {
+					CommPortIdentifier portId = (CommPortIdentifier) portIdentifiers.nextElement();
+					if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
+						found.put(portId.getName(), portId);
+						foundNames.addLast(portId.getName());
+						System.out.println(portId.getName());
+					}
+				}
+			} catch (Exception e) {
+				System.out.println("Error while scanning ports: " + e.getMessage());
+			}
+			names = (String[])foundNames.toArray(new String[foundNames.size()]);
+			ports = found;
+			portNames = names;
+		}
+
+		Object[] current;
+		synchronized (this) {
+			current = listeners.toArray();
+		}
+		for (int i = 0; i < current.length; i++)
+			((PortListener)current[i]).portsChanged(names.clone());
+	}
+
+	private volatile HashMap ports;
+	private volatile String[] portNames;
+	private LinkedList listeners;
+	private Object scanLock;
+	private boolean refreshPending;
+}
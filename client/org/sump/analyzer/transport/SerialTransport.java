@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.SerialPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport using a serial port.
+ * It requires the rxtx package from http://www.rxtx.org/ to
+ * access the serial port the analyzer is connected to.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class SerialTransport extends Object implements Transport {
+
+	/**
+	 * Opens the given serial port.
+	 * Port identifiers can be obtained from a {@link PortRegistry}.
+	 *
+	 * @param portId		identifier of the port to open
+	 * @param portRate		transfer rate to use (bps)
+	 * @throws IOException	when the port cannot be opened
+	 */
+	public SerialTransport(CommPortIdentifier portId, int portRate) throws IOException {
+		String portName = portId.getName();
+		try {
+			port = (SerialPort) portId.open("Logic Analyzer Client", 1000);
+			
+			port.setSerialPortParams(
+				portRate,
+				SerialPort.DATABITS_8,
+				SerialPort.STOPBITS_1,
+				SerialPort.PARITY_NONE
+			);
+			port.setFlowControlMode(SerialPort.FLOWCONTROL_XONXOFF_IN);
+			port.disableReceiveFraming();
+			port.enableReceiveTimeout(RECEIVE_TIMEOUT);
+
+			outputStream = port.getOutputStream();
+			inputStream = port.getInputStream();
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (Exception e) {
+			close();
+			throw new IOException("Unable to open port " + portName + ": " + e.getMessage());
+		}
+	}
+
+	public InputStream getInputStream() {
+		return (inputStream);
+	}
+
+	public OutputStream getOutputStream() {
+		return (outputStream);
+	}
+
+	public void close() {
+		try {
+			if (outputStream != null)
+				outputStream.close();
+			if (inputStream != null)
+				inputStream.close();
+		} catch (IOException e) { /* don't care */ }
+		if (port != null)
+			port.close();
+		port = null;
+	}
+
+	private SerialPort port;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+}
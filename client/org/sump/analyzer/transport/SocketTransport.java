@@ -0,0 +1,108 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Transport using a TCP connection, eg. to a serial port server or a {@link DeviceEmulator}.
+ * <p>
+ * Socket timeouts are translated into the empty reads expected from a {@link Transport}.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class SocketTransport extends Object implements Transport {
+	/** prefix identifying port names that denote a TCP connection */
+	public final static String PREFIX = "tcp://";
+
+	/**
+	 * Input stream returning empty reads instead of throwing exceptions on socket timeouts.
+	 */
+	private static class TimeoutInputStream extends FilterInputStream {
+		public TimeoutInputStream(InputStream in) {
+			super(in);
+		}
+		
+		public int read() throws IOException {
+			try {
+				return (super.read());
+			} catch (SocketTimeoutException e) {
+				return (-1);
+			}
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return (super.read(b, off, len));
+			} catch (SocketTimeoutException e) {
+				return (0);
+			}
+		}
+	}
+
+	/**
+	 * Opens a connection to the given address.
+	 * @param address address in the form "tcp://host:port" (prefix is optional)
+	 * @throws IOException when address is invalid or the connection cannot be established
+	 */
+	public SocketTransport(String address) throws IOException {
+		if (address.startsWith(PREFIX))
+			address = address.substring(PREFIX.length());
+		int split = address.lastIndexOf(':');
+		if (split < 1)
+			throw new IOException("Invalid address: " + address);
+		int port;
+		try {
+			port = Integer.parseInt(address.substring(split + 1));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid port in address: " + address);
+		}
+
+		socket = new Socket(address.substring(0, split), port);
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(RECEIVE_TIMEOUT);
+		inputStream = new TimeoutInputStream(socket.getInputStream());
+		outputStream = socket.getOutputStream();
+	}
+
+	public InputStream getInputStream() {
+		return (inputStream);
+	}
+
+	public OutputStream getOutputStream() {
+		return (outputStream);
+	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) { /* don't care */ }
+	}
+
+	private Socket socket;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+}
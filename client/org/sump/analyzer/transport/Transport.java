@@ -0,0 +1,57 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.transport;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A transport provides the byte streams used to talk to a logic analyzer.
+ * <p>
+ * Implementations must mimic the behaviour of a serial port with receive timeout enabled:
+ * When no data arrives within <code>RECEIVE_TIMEOUT</code> milliseconds, reading a single byte
+ * returns -1 and reading into an array returns 0. The device relies on this to be able to
+ * notice user aborts while waiting for a trigger.
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public interface Transport {
+	/** time in ms after which a read returns without data */
+	public final static int RECEIVE_TIMEOUT = 100;
+
+	/**
+	 * Returns the stream data sent by the device can be read from.
+	 * @return input stream of this transport
+	 */
+	public InputStream getInputStream();
+
+	/**
+	 * Returns the stream data for the device can be written to.
+	 * @return output stream of this transport
+	 */
+	public OutputStream getOutputStream();
+
+	/**
+	 * Closes the transport and releases all underlying resources.
+	 * The streams must not be used afterwards.
+	 */
+	public void close();
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.sump.util.Properties;
+
+/**
+ * Regression test drawing a paged capture with a small heap.
+ * <p>
+ * Writes a binary capture of noise on all channels, which is the worst case for structures indexing edges,
+ * loads it back as a paged capture and paints the diagram at several zoom levels until every tile has been rendered.
+ * Fails if a tile is not rendered in time, which happens when rendering runs out of memory.
+ * <p>
+ * Usage: <code>java -Xmx64m -Djava.awt.headless=true org.sump.analyzer.PagedDiagramTest [samples]</code>
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class PagedDiagramTest extends Object {
+
+	/**
+	 * Runs the test.
+	 * @param args optional number of samples
+	 * @throws Exception when the test fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SAMPLES;
+
+		File file = File.createTempFile("paged", ".slb");
+		file.deleteOnExit();
+		new CapturedData(new NoiseStore(samples), samples / 2, 100000000, 32, new int[] { -1 }).writeToFile(file);
+		CapturedData data = new CapturedData(file);
+		if (!(data.samples instanceof PagedSampleStore))
+			fail("Capture of " + samples + " samples is not paged.");
+
+		// show a scope view as well to include its summary
+		Properties properties = new Properties();
+		properties.setProperty("DiagramSettings.group1", "channels scope byte");
+
+		for (int zoom = 0; zoom <= ZOOM_STEPS; zoom += 4) {
+			Diagram diagram = new Diagram();
+			diagram.readProperties(properties);
+			diagram.setCapturedData(data);
+			for (int i = 0; i < zoom; i++)
+				diagram.zoomOut();
+
+			int width = Math.min(WIDTH, diagram.getPreferredSize().width);
+			int height = diagram.getPreferredSize().height;
+			int x = (diagram.getPreferredSize().width - width) / 2;
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+			long started = System.currentTimeMillis();
+			while (!isRendered(image, x)) {
+				if (System.currentTimeMillis() - started > TIMEOUT)
+					fail("Diagram not rendered within " + TIMEOUT + "ms at zoom out step " + zoom + ".");
+				Graphics g = image.getGraphics();
+				g.translate(-x, 0);
+				g.setClip(x, 0, width, height);
+				diagram.paintComponent(g);
+				g.dispose();
+				Thread.sleep(20);
+			}
+
+			Runtime runtime = Runtime.getRuntime();
+			System.out.println("zoom out step " + zoom + ": rendered in " + (System.currentTimeMillis() - started) + "ms, "
+				+ (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + "MB of " + runtime.maxMemory() / (1024 * 1024) + "MB used");
+		}
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Checks if each channel of the first group has been drawn within every tile of the image.
+	 * All channels carry noise, so each of them is drawn with at least one pixel per tile.
+	 * @param image painted image
+	 * @param x horizontal position of the image within the diagram
+	 * @return <code>true</code> if all tiles have been rendered
+	 */
+	private static boolean isRendered(BufferedImage image, int x) {
+		int first = x / TileCache.TILE_WIDTH;
+		int last = (x + image.getWidth() - 1) / TileCache.TILE_WIDTH;
+		for (int tile = first; tile <= last; tile++) {
+			int left = Math.max(0, tile * TileCache.TILE_WIDTH - x);
+			int right = Math.min(image.getWidth(), (tile + 1) * TileCache.TILE_WIDTH - x);
+			for (int channel = 0; channel < 8; channel++) {
+				int top = FIRST_CHANNEL_Y + 20 * channel;
+				boolean found = false;
+				for (int px = left; px < right && !found; px++)
+					for (int py = top; py < top + 15 && !found; py++)
+						found = image.getRGB(px, py) == SIGNAL;
+				if (!found)
+					return (false);
+			}
+		}
+		return (true);
+	}
+
+	/**
+	 * Reports a failure and ends the test.
+	 * @param message description of the failure
+	 */
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+
+	/**
+	 * Sample store computing noise on all channels instead of keeping samples.
+	 */
+	private static class NoiseStore extends Object implements SampleStore {
+
+		/**
+		 * Creates a store of the given number of samples.
+		 * @param size number of samples
+		 */
+		public NoiseStore(int size) {
+			this.size = size;
+		}
+
+		public long getSize() {
+			return (size);
+		}
+
+		public int getWordCount() {
+			return (1);
+		}
+
+		public int getValue(long index) {
+			int value = (int)index * 0x9e3779b1;
+			return (value ^ (value >>> 15));
+		}
+
+		public int getValue(long index, int word) {
+			return (getValue(index));
+		}
+
+		public void getValues(long from, int count, int word, int[] buffer, int offset) {
+			for (int i = 0; i < count; i++)
+				buffer[offset + i] = getValue(from + i);
+		}
+
+		private int size;
+	}
+
+	/** number of samples written if not given on the command line */
+	private final static int DEFAULT_SAMPLES = 8 * 1024 * 1024;
+	/** number of times the diagram is zoomed out at most, starting from the default zoom */
+	private final static int ZOOM_STEPS = 20;
+	/** width of the painted part of the diagram */
+	private final static int WIDTH = 1024;
+	/** time allowed to render the painted part of the diagram at each zoom level in milliseconds */
+	private final static int TIMEOUT = 60000;
+	/** vertical position of the first channel's signal */
+	private final static int FIRST_CHANNEL_Y = 23;
+	/** color of signals */
+	private final static int SIGNAL = new Color(0, 0, 196).getRGB();
+}
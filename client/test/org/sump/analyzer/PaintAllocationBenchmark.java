@@ -0,0 +1,155 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import javax.swing.SwingUtilities;
+
+import org.sump.util.Properties;
+
+/**
+ * Measures the memory allocated by painting the diagram.
+ * <p>
+ * Paints a capture with channels, scope and byte bars repeatedly at several zoom levels, both from rendered tiles
+ * and directly as while a capture is streamed in. The bytes allocated by the painting thread are taken from
+ * <code>ThreadMXBean.getThreadAllocatedBytes</code> before and after a number of frames, once all tiles have been
+ * rendered and painting has been warmed up. Fails if any frame allocates on average.
+ * <p>
+ * Usage: <code>java -Djava.awt.headless=true org.sump.analyzer.PaintAllocationBenchmark [frames]</code>
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class PaintAllocationBenchmark extends Object {
+
+	/**
+	 * Runs the benchmark.
+	 * @param args optional number of frames measured
+	 * @throws Exception when the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported())
+			fail("Measuring allocated memory is not supported by this VM.");
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		// counter on the lower channels, slow steps on the upper ones, so byte bars get runs of all lengths
+		int[] values = new int[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++)
+			values[i] = (i & 0xffff) | ((i / 300) % 7) << 16 | ((i / 5000) & 0xff) << 24;
+		CapturedData data = new CapturedData(values, SAMPLES / 2, 100000000, 32, -1);
+
+		Properties properties = new Properties();
+		properties.setProperty("DiagramSettings.group0", "channels byte");
+		properties.setProperty("DiagramSettings.group1", "channels scope byte");
+		properties.setProperty("DiagramSettings.group2", "byte");
+		properties.setProperty("DiagramSettings.group3", "scope byte");
+		String[] labels = new String[32];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = "signal " + i;
+
+		boolean failed = false;
+		for (int mode = 0; mode < 2; mode++) {
+			boolean streaming = (mode == 1);
+			int[] zooms = streaming ? DIRECT_ZOOMS : TILED_ZOOMS;
+			for (int z = 0; z < zooms.length; z++) {
+				Diagram diagram = new Diagram();
+				diagram.readProperties(properties);
+				diagram.setLabels(labels);
+				if (streaming) {
+					// painted directly instead of from tiles until the capture is complete
+					diagram.samplesReceived(data, 0);
+					SwingUtilities.invokeAndWait(new Runnable() { public void run() { } });
+				} else {
+					diagram.setCapturedData(data);
+				}
+				for (int i = 0; i < zooms[z]; i++)
+					diagram.zoomIn();
+				for (int i = 0; i > zooms[z]; i--)
+					diagram.zoomOut();
+
+				int width = Math.min(WIDTH, diagram.getPreferredSize().width);
+				int height = diagram.getPreferredSize().height;
+				int x = (diagram.getPreferredSize().width - width) / 2;
+				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				Graphics g = image.getGraphics();
+				g.translate(-x, 0);
+				g.setClip(x, 0, width, height);
+
+				// let all tiles be rendered, then give the compiler a chance to remove temporary objects
+				for (int i = 0; i < SETTLE_FRAMES; i++) {
+					diagram.paintComponent(g);
+					Thread.sleep(SETTLE_DELAY);
+				}
+				for (int i = 0; i < WARMUP_FRAMES; i++)
+					diagram.paintComponent(g);
+
+				long allocated = threads.getThreadAllocatedBytes(thread);
+				long started = System.nanoTime();
+				for (int i = 0; i < frames; i++)
+					diagram.paintComponent(g);
+				long time = (System.nanoTime() - started) / frames;
+				allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+				g.dispose();
+
+				System.out.println((streaming ? "direct" : "tiled") + ", zoom " + (zooms[z] > 0 ? "in " : "out ") + Math.abs(zooms[z])
+					+ ": " + allocated / frames + " bytes/frame, " + time / 1000 + "us/frame");
+				if (allocated / frames > 0)
+					failed = true;
+			}
+		}
+		if (failed)
+			fail("Painting allocates memory.");
+		System.out.println("OK");
+		System.exit(0);
+	}
+
+	/**
+	 * Reports a failure and ends the benchmark.
+	 * @param message description of the failure
+	 */
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+
+	/** number of samples of the capture */
+	private final static int SAMPLES = 64 * 1024;
+	/** number of frames measured if not given on the command line */
+	private final static int DEFAULT_FRAMES = 1000;
+	/** zoom steps from the default zoom painted from tiles, positive values zoom in, the last one draws from the summary */
+	private final static int[] TILED_ZOOMS = { 3, 0, -4, -8 };
+	/** zoom steps painted directly, which gets slow when zoomed out far as every sample is visited */
+	private final static int[] DIRECT_ZOOMS = { 3, 0, -4 };
+	/** width of the painted part of the diagram */
+	private final static int WIDTH = 1024;
+	/** number of frames painted while tiles are rendered */
+	private final static int SETTLE_FRAMES = 50;
+	/** delay between frames while tiles are rendered in milliseconds */
+	private final static int SETTLE_DELAY = 10;
+	/** number of frames painted before measuring */
+	private final static int WARMUP_FRAMES = 3000;
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2006 Michael Poppitz
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Measures how fast text capture files are parsed.
+ * <p>
+ * For 8, 16, 24 and 32 channels, writes a capture of random samples to a temporary file and reads it repeatedly,
+ * both with {@link TextCaptureReader} and with the line based parser used before it. The parsed values
+ * are compared against the written ones, so a wrong result fails the benchmark.
+ * <p>
+ * Usage: <code>java org.sump.analyzer.TextParseBenchmark [samples [repetitions]]</code>
+ * 
+ * @version 0.7
+ * @author Michael "Mr. Sump" Poppitz
+ *
+ */
+public class TextParseBenchmark extends Object {
+
+	/**
+	 * Runs the benchmark.
+	 * @param args optional number of samples and number of repetitions
+	 * @throws IOException when the temporary file cannot be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SAMPLES;
+		int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPETITIONS;
+
+		System.out.println(samples + " samples, " + Runtime.getRuntime().availableProcessors() + " processors");
+		Random random = new Random(1);
+		int[] values = new int[samples];
+		int[] parsed = new int[samples];
+		for (int channels = 8; channels <= 32; channels += 8) {
+			int mask = (channels == 32) ? -1 : (1 << channels) - 1;
+			for (int i = 0; i < samples; i++)
+				values[i] = random.nextInt() & mask;
+			File file = File.createTempFile("parse", ".sla");
+			file.deleteOnExit();
+			write(file, values, channels);
+
+			long best = Long.MAX_VALUE;
+			long bestLines = Long.MAX_VALUE;
+			for (int i = 0; i < repetitions; i++) {
+				long started = System.nanoTime();
+				CapturedData data = TextCaptureReader.read(file);
+				best = Math.min(best, System.nanoTime() - started);
+				// large captures have no value array, so values are fetched from the store
+				data.samples.getValues(0, samples, 0, parsed, 0);
+				check("TextCaptureReader", parsed, values);
+
+				started = System.nanoTime();
+				int[] lines = readLines(file);
+				bestLines = Math.min(bestLines, System.nanoTime() - started);
+				check("line parser", lines, values);
+			}
+
+			System.out.println(channels + " channels, " + file.length() / 1024 + "KB:");
+			System.out.println("	TextCaptureReader: " + best / 1000000 + "ms (" + rate(file, best) + "MB/s)");
+			System.out.println("	line parser:       " + bestLines / 1000000 + "ms (" + rate(file, bestLines) + "MB/s)");
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes values as a text capture file, using two hex digits per 8 channels.
+	 * @param file file to write
+	 * @param values sample values
+	 * @param channels number of channels, 8, 16, 24 or 32
+	 * @throws IOException when writing fails
+	 */
+	private static void write(File file, int[] values, int channels) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		writer.write(";Size: " + values.length + "\n");
+		writer.write(";Rate: 100000000\n");
+		writer.write(";Channels: " + channels + "\n");
+		writer.write(";EnabledChannels: " + ((channels == 32) ? -1 : (1 << channels) - 1) + "\n");
+		int digits = channels / 4;
+		for (int i = 0; i < values.length; i++) {
+			String hex = Integer.toHexString(values[i]);
+			writer.write("00000000".substring(8 - digits + hex.length()) + hex + "\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * Parses a text capture file line by line, like <code>CapturedData</code> did before
+	 * <code>TextCaptureReader</code> existed. Lines are split into two substrings as before,
+	 * the last 4 digits and the ones before, so lines shorter than 8 digits are accepted as well.
+	 * @param file file to read
+	 * @return sample values
+	 * @throws IOException when reading fails
+	 */
+	private static int[] readLines(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		int size = 0;
+		String line;
+		do {
+			line = reader.readLine();
+			if (line.startsWith(";Size: "))
+				size = Integer.parseInt(line.substring(7));
+		} while (line.startsWith(";"));
+
+		int[] values = new int[size];
+		for (int i = 0; i < size && line != null; i++) {
+			int split = Math.max(0, line.length() - 4);
+			values[i] = (split == 0 ? 0 : Integer.parseInt(line.substring(0, split), 16) << 16) | Integer.parseInt(line.substring(split), 16);
+			line = reader.readLine();
+		}
+		reader.close();
+		return (values);
+	}
+
+	/**
+	 * Makes sure parsed values match the written ones.
+	 * @param name name of parser to report
+	 * @param parsed parsed values
+	 * @param values written values
+	 */
+	private static void check(String name, int[] parsed, int[] values) {
+		for (int i = 0; i < values.length; i++)
+			if (parsed[i] != values[i])
+				throw new IllegalStateException(name + " returned wrong value at sample " + i + ".");
+	}
+
+	/**
+	 * Computes the throughput of a parse run.
+	 * @param file parsed file
+	 * @param nanos time taken in nanoseconds
+	 * @return megabytes per second
+	 */
+	private static long rate(File file, long nanos) {
+		return ((file.length() * 1000) / Math.max(1, nanos));
+	}
+
+	/** number of samples written if not given on the command line */
+	private final static int DEFAULT_SAMPLES = 256 * 1024;
+	/** number of times each parser reads the file, best time is reported */
+	private final static int DEFAULT_REPETITIONS = 10;
+}